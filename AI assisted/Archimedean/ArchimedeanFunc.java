@@ -1,9 +1,12 @@
 package org.jwildfire.create.tina.variation;
 
 import org.jwildfire.base.Tools;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
+import java.util.Arrays;
+
 public class ArchimedeanFunc extends VariationFunc {
   private static final long serialVersionUID = 1L;
 
@@ -23,9 +26,119 @@ public class ArchimedeanFunc extends VariationFunc {
   private int type = 0;            // 0=Cuboct, 1=TruncOct, 2=TruncCube, 3=Rhombicuboct, 4=GreatRhomb, 5=TruncTetra, 6=Rhombicosidodeca, 7=TruncIcosa, 8=Icosidodeca
   private int surfaceLines = 1;    // 1 = Show Surface
 
+  // Upper bound for the number of entries in the combined offset table of the first recursion levels
+  private static final int MAX_PREFIX_ENTRIES = 1 << 16;
+
+  // Edges, faces and sampling tables of the selected polyhedron, built in init()
+  private transient Shape shape;
+  // Recursion tables, built in init(): vertices pre-scaled for each level, and the summed offsets of
+  // all vertex choices over the first prefixLevels levels (one random index replaces those levels)
+  private transient double[][] levelVerts;
+  private transient double[] prefixOffsets;
+  private transient int prefixCount;
+  private transient int prefixLevels;
+  private transient double leafScale;
+  private transient double leafThickness;
+
+  @Override
+  public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+    Shape s = new Shape(unitVertices(type), internalMode, surfaceLines == 1);
+    int n = s.vertexCount;
+
+    double shrink = 1.0;
+    double[][] levels = new double[recursionDepth][];
+    for (int d = 0; d < recursionDepth; d++) {
+      shrink *= 0.5;
+      double activeScale = scale * shrink;
+      double[] lv = new double[n * 3];
+      for (int i = 0; i < n * 3; i++) lv[i] = s.verts[i] * activeScale;
+      levels[d] = lv;
+    }
+
+    int k = 0;
+    int count = 1;
+    while (k < recursionDepth && (long) count * n <= MAX_PREFIX_ENTRIES) {
+      count *= n;
+      k++;
+    }
+    // Entry (v0 * n + v1) * n + ... holds the offset after choosing v0, v1, ... on levels 0, 1, ...
+    double[] prefix = new double[3];
+    int entries = 1;
+    for (int d = 0; d < k; d++) {
+      double[] next = new double[entries * n * 3];
+      double[] lv = levels[d];
+      for (int e = 0; e < entries; e++) {
+        for (int v = 0; v < n; v++) {
+          int dst = (e * n + v) * 3;
+          next[dst] = prefix[e * 3] + lv[v * 3];
+          next[dst + 1] = prefix[e * 3 + 1] + lv[v * 3 + 1];
+          next[dst + 2] = prefix[e * 3 + 2] + lv[v * 3 + 2];
+        }
+      }
+      prefix = next;
+      entries *= n;
+    }
+
+    levelVerts = levels;
+    prefixOffsets = prefix;
+    prefixCount = count;
+    prefixLevels = k;
+    leafScale = scale * shrink;
+    leafThickness = thickness * shrink;
+    shape = s;
+  }
+
   @Override
   public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
-    // --- 1. SETUP SHAPE DATA ---
+    final Shape s = shape;
+
+    // --- 1. RECURSION & SCALING ---
+    int p = (prefixCount > 1) ? pContext.random(prefixCount) * 3 : 0;
+    double offsetX = prefixOffsets[p], offsetY = prefixOffsets[p + 1], offsetZ = prefixOffsets[p + 2];
+    final double[][] levels = levelVerts;
+    for (int i = prefixLevels; i < levels.length; i++) {
+        final double[] lv = levels[i];
+        int v = pContext.random(s.vertexCount) * 3;
+        offsetX += lv[v];
+        offsetY += lv[v + 1];
+        offsetZ += lv[v + 2];
+    }
+    double activeScale = leafScale;
+
+    // --- 2. DRAW ---
+    double px, py, pz;
+    if (s.segAlias == null) {
+        // Solid: uniform point on the surface, triangles picked by area
+        int t = s.triAlias.sample(pContext.random()) * TRI_STRIDE;
+        final double[] tris = s.tris;
+        double r1 = Math.sqrt(pContext.random());
+        double r2 = pContext.random();
+        double u = r1 * (1.0 - r2);
+        double w = r1 * r2;
+        px = (tris[t] + u * tris[t + 3] + w * tris[t + 6]) * activeScale;
+        py = (tris[t + 1] + u * tris[t + 4] + w * tris[t + 7]) * activeScale;
+        pz = (tris[t + 2] + u * tris[t + 5] + w * tris[t + 8]) * activeScale;
+    } else {
+        // Spokes / Web: point inside a tube around a segment, segments picked by length
+        int e = s.segAlias.sample(pContext.random()) * SEG_STRIDE;
+        final double[] segs = s.segs;
+        double along = pContext.random();
+        double radius = leafThickness * Math.sqrt(pContext.random());
+        double angle = pContext.random() * 2.0 * Math.PI;
+        double ca = Math.cos(angle) * radius;
+        double sa = Math.sin(angle) * radius;
+        px = (segs[e + S_START] + along * segs[e + S_VEC]) * activeScale + ca * segs[e + S_PERP1] + sa * segs[e + S_PERP2];
+        py = (segs[e + S_START + 1] + along * segs[e + S_VEC + 1]) * activeScale + ca * segs[e + S_PERP1 + 1] + sa * segs[e + S_PERP2 + 1];
+        pz = (segs[e + S_START + 2] + along * segs[e + S_VEC + 2]) * activeScale + ca * segs[e + S_PERP1 + 2] + sa * segs[e + S_PERP2 + 2];
+    }
+
+    pVarTP.x += pAmount * (offsetX + px);
+    pVarTP.y += pAmount * (offsetY + py);
+    pVarTP.z += pAmount * (offsetZ + pz);
+  }
+
+  // Unit vertex coordinates of the selected polyhedron (centered at the origin, all edges of equal length)
+  private static double[][] unitVertices(int type) {
     double[][] currentUnitVerts; 
     
     if (type == 8) {
@@ -178,38 +291,284 @@ public class ArchimedeanFunc extends VariationFunc {
         };
     }
 
-    // --- 2. RECURSION & SCALING ---
-    double activeScale = scale;
-    double offsetX = 0, offsetY = 0, offsetZ = 0;
-    
-    for (int i = 0; i < recursionDepth; i++) {
-        int v = pContext.random(currentUnitVerts.length);
-        activeScale *= 0.5;
-        offsetX += currentUnitVerts[v][0] * activeScale;
-        offsetY += currentUnitVerts[v][1] * activeScale;
-        offsetZ += currentUnitVerts[v][2] * activeScale;
+    return currentUnitVerts;
+  }
+
+  // Triangle layout: fan corner (face center) followed by the two edge vectors
+  private static final int TRI_STRIDE = 9;
+  // Segment layout: start point, vector to the end point, two unit vectors spanning the cross-section
+  private static final int S_START = 0;
+  private static final int S_VEC = 3;
+  private static final int S_PERP1 = 6;
+  private static final int S_PERP2 = 9;
+  private static final int SEG_STRIDE = 12;
+
+  /**
+   * Sampling tables of one polyhedron. Edges connect vertex pairs at the nearest-neighbor
+   * distance; faces are found by walking the edge graph with each vertex's neighbors sorted
+   * around it. Faces are fanned into triangles from their centers, and segments (spokes,
+   * face webs, surface edges) are stored with their cross-section frames.
+   */
+  private static final class Shape {
+    final int vertexCount;
+    final double[] verts;
+    final double[] tris;
+    final AliasTable triAlias;
+    final double[] segs;
+    final AliasTable segAlias;
+
+    Shape(double[][] unitVerts, int internalMode, boolean surfaceLines) {
+      int n = unitVerts.length;
+      vertexCount = n;
+      verts = new double[n * 3];
+      for (int i = 0; i < n; i++) {
+        verts[i * 3] = unitVerts[i][0];
+        verts[i * 3 + 1] = unitVerts[i][1];
+        verts[i * 3 + 2] = unitVerts[i][2];
+      }
+
+      // --- Edges: all pairs at the minimum vertex distance ---
+      double minDistSq = Double.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        for (int j = i + 1; j < n; j++) {
+          minDistSq = Math.min(minDistSq, distSq(i, j));
+        }
+      }
+      double tol = minDistSq * 1.0e-6;
+      int[] degree = new int[n];
+      for (int i = 0; i < n; i++) {
+        for (int j = i + 1; j < n; j++) {
+          if (Math.abs(distSq(i, j) - minDistSq) < tol) {
+            degree[i]++;
+            degree[j]++;
+          }
+        }
+      }
+      int[][] nbrs = new int[n][];
+      for (int i = 0; i < n; i++) nbrs[i] = new int[degree[i]];
+      int[] fill = new int[n];
+      int edgeCount = 0;
+      for (int i = 0; i < n; i++) {
+        for (int j = i + 1; j < n; j++) {
+          if (Math.abs(distSq(i, j) - minDistSq) < tol) {
+            nbrs[i][fill[i]++] = j;
+            nbrs[j][fill[j]++] = i;
+            edgeCount++;
+          }
+        }
+      }
+      for (int i = 0; i < n; i++) sortAround(i, nbrs[i]);
+
+      // --- Faces: each directed edge u->v is followed by the neighbor of v preceding u in its cyclic order ---
+      boolean[][] used = new boolean[n][];
+      for (int i = 0; i < n; i++) used[i] = new boolean[nbrs[i].length];
+      int[] faceStart = new int[2 * edgeCount + 1];
+      int[] faceVerts = new int[2 * edgeCount];
+      int faceCount = 0, faceFill = 0;
+      for (int u0 = 0; u0 < n; u0++) {
+        for (int k0 = 0; k0 < nbrs[u0].length; k0++) {
+          if (used[u0][k0]) continue;
+          faceStart[faceCount] = faceFill;
+          int u = u0, k = k0;
+          while (!used[u][k]) {
+            used[u][k] = true;
+            faceVerts[faceFill++] = u;
+            int v = nbrs[u][k];
+            int back = indexOf(nbrs[v], u);
+            k = (back + nbrs[v].length - 1) % nbrs[v].length;
+            u = v;
+          }
+          faceCount++;
+        }
+      }
+      faceStart[faceCount] = faceFill;
+
+      // --- Face centers and fan triangles ---
+      double[] centers = new double[faceCount * 3];
+      tris = new double[faceFill * TRI_STRIDE];
+      double[] triAreas = new double[faceFill];
+      for (int f = 0; f < faceCount; f++) {
+        int a = faceStart[f], b = faceStart[f + 1];
+        double cx = 0, cy = 0, cz = 0;
+        for (int i = a; i < b; i++) {
+          cx += verts[faceVerts[i] * 3];
+          cy += verts[faceVerts[i] * 3 + 1];
+          cz += verts[faceVerts[i] * 3 + 2];
+        }
+        cx /= (b - a);
+        cy /= (b - a);
+        cz /= (b - a);
+        centers[f * 3] = cx;
+        centers[f * 3 + 1] = cy;
+        centers[f * 3 + 2] = cz;
+        for (int i = a; i < b; i++) {
+          int p = faceVerts[i] * 3;
+          int q = faceVerts[(i + 1 < b) ? i + 1 : a] * 3;
+          int t = i * TRI_STRIDE;
+          tris[t] = cx;
+          tris[t + 1] = cy;
+          tris[t + 2] = cz;
+          for (int c = 0; c < 3; c++) {
+            tris[t + 3 + c] = verts[p + c] - tris[t + c];
+            tris[t + 6 + c] = verts[q + c] - tris[t + c];
+          }
+          double nx = tris[t + 4] * tris[t + 8] - tris[t + 5] * tris[t + 7];
+          double ny = tris[t + 5] * tris[t + 6] - tris[t + 3] * tris[t + 8];
+          double nz = tris[t + 3] * tris[t + 7] - tris[t + 4] * tris[t + 6];
+          triAreas[i] = 0.5 * Math.sqrt(nx * nx + ny * ny + nz * nz);
+        }
+      }
+
+      if (internalMode == 0) {
+        triAlias = new AliasTable(triAreas);
+        segs = null;
+        segAlias = null;
+        return;
+      }
+      triAlias = null;
+
+      // --- Segments: spokes (center to vertices) or web (face centers to their vertices), plus surface edges ---
+      int segCount = (internalMode == 1 ? n : faceFill) + (surfaceLines ? edgeCount : 0);
+      segs = new double[segCount * SEG_STRIDE];
+      double[] segLengths = new double[segCount];
+      int sc = 0;
+      if (internalMode == 1) {
+        for (int i = 0; i < n; i++) {
+          sc = addSegment(segLengths, sc, 0, 0, 0, verts[i * 3], verts[i * 3 + 1], verts[i * 3 + 2]);
+        }
+      } else {
+        for (int f = 0; f < faceCount; f++) {
+          for (int i = faceStart[f]; i < faceStart[f + 1]; i++) {
+            int p = faceVerts[i] * 3;
+            sc = addSegment(segLengths, sc, centers[f * 3], centers[f * 3 + 1], centers[f * 3 + 2], verts[p], verts[p + 1], verts[p + 2]);
+          }
+        }
+      }
+      if (surfaceLines) {
+        for (int i = 0; i < n; i++) {
+          for (int j : nbrs[i]) {
+            if (j > i) {
+              sc = addSegment(segLengths, sc, verts[i * 3], verts[i * 3 + 1], verts[i * 3 + 2], verts[j * 3], verts[j * 3 + 1], verts[j * 3 + 2]);
+            }
+          }
+        }
+      }
+      segAlias = new AliasTable(segLengths);
+    }
+
+    private double distSq(int i, int j) {
+      double dx = verts[i * 3] - verts[j * 3];
+      double dy = verts[i * 3 + 1] - verts[j * 3 + 1];
+      double dz = verts[i * 3 + 2] - verts[j * 3 + 2];
+      return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static int indexOf(int[] a, int value) {
+      for (int i = 0; i < a.length; i++) {
+        if (a[i] == value) return i;
+      }
+      throw new IllegalStateException("Inconsistent edge graph");
+    }
+
+    // Sorts the neighbors of vertex v by angle around the outward direction through v
+    private void sortAround(int v, int[] nb) {
+      double ox = verts[v * 3], oy = verts[v * 3 + 1], oz = verts[v * 3 + 2];
+      double d0x = verts[nb[0] * 3] - ox, d0y = verts[nb[0] * 3 + 1] - oy, d0z = verts[nb[0] * 3 + 2] - oz;
+      // Second in-plane axis: outward direction x first neighbor direction
+      double d1x = oy * d0z - oz * d0y, d1y = oz * d0x - ox * d0z, d1z = ox * d0y - oy * d0x;
+      double[] angles = new double[nb.length];
+      for (int i = 0; i < nb.length; i++) {
+        double dx = verts[nb[i] * 3] - ox, dy = verts[nb[i] * 3 + 1] - oy, dz = verts[nb[i] * 3 + 2] - oz;
+        angles[i] = Math.atan2(dx * d1x + dy * d1y + dz * d1z, dx * d0x + dy * d0y + dz * d0z);
+      }
+      for (int i = 1; i < nb.length; i++) {
+        for (int j = i; j > 0 && angles[j - 1] > angles[j]; j--) {
+          double ta = angles[j]; angles[j] = angles[j - 1]; angles[j - 1] = ta;
+          int tn = nb[j]; nb[j] = nb[j - 1]; nb[j - 1] = tn;
+        }
+      }
+    }
+
+    private int addSegment(double[] lengths, int idx, double ax, double ay, double az, double bx, double by, double bz) {
+      int e = idx * SEG_STRIDE;
+      double vx = bx - ax, vy = by - ay, vz = bz - az;
+      double len = Math.sqrt(vx * vx + vy * vy + vz * vz);
+      segs[e + S_START] = ax;
+      segs[e + S_START + 1] = ay;
+      segs[e + S_START + 2] = az;
+      segs[e + S_VEC] = vx;
+      segs[e + S_VEC + 1] = vy;
+      segs[e + S_VEC + 2] = vz;
+      double dx = vx / len, dy = vy / len, dz = vz / len;
+      // Any axis not parallel to the segment works as a seed for the cross-section frame
+      double hx = (Math.abs(dx) < 0.9) ? 1.0 : 0.0, hy = 1.0 - hx;
+      double p1x = -dz * hy, p1y = dz * hx, p1z = dx * hy - dy * hx;
+      double p1len = Math.sqrt(p1x * p1x + p1y * p1y + p1z * p1z);
+      p1x /= p1len;
+      p1y /= p1len;
+      p1z /= p1len;
+      segs[e + S_PERP1] = p1x;
+      segs[e + S_PERP1 + 1] = p1y;
+      segs[e + S_PERP1 + 2] = p1z;
+      segs[e + S_PERP2] = dy * p1z - dz * p1y;
+      segs[e + S_PERP2 + 1] = dz * p1x - dx * p1z;
+      segs[e + S_PERP2 + 2] = dx * p1y - dy * p1x;
+      lengths[idx] = len;
+      return idx + 1;
     }
+  }
 
-    double[][] activeVerts = new double[currentUnitVerts.length][3];
-    for(int i=0; i<currentUnitVerts.length; i++) {
-        activeVerts[i][0] = currentUnitVerts[i][0] * activeScale;
-        activeVerts[i][1] = currentUnitVerts[i][1] * activeScale;
-        activeVerts[i][2] = currentUnitVerts[i][2] * activeScale;
+  /** Walker/Vose alias table: O(1) sampling of an index proportional to its weight. */
+  private static final class AliasTable {
+    final double[] prob;
+    final int[] alias;
+
+    AliasTable(double[] weights) {
+      int n = weights.length;
+      prob = new double[n];
+      alias = new int[n];
+      double sum = 0.0;
+      for (double w : weights) sum += w;
+      if (n == 0 || sum <= 0.0) {
+        Arrays.fill(prob, 1.0);
+        return;
+      }
+      double[] scaled = new double[n];
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int ns = 0, nl = 0;
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / sum;
+        if (scaled[i] < 1.0) small[ns++] = i;
+        else large[nl++] = i;
+      }
+      while (ns > 0 && nl > 0) {
+        int l = small[--ns];
+        int g = large[--nl];
+        prob[l] = scaled[l];
+        alias[l] = g;
+        scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+        if (scaled[g] < 1.0) small[ns++] = g;
+        else large[nl++] = g;
+      }
+      while (nl > 0) prob[large[--nl]] = 1.0;
+      while (ns > 0) prob[small[--ns]] = 1.0;
     }
 
-    // --- 3. DRAW ---
-    if (type == 8) drawIcosidodecahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 7) drawTruncatedIcosahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 6) drawRhombicosidodecahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 5) drawTruncatedTetrahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 4) drawGreatRhombicuboctahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 3) drawRhombicuboctahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 2) drawTruncatedCube(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else if (type == 1) drawTruncatedOctahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
-    else drawCuboctahedron(pContext, activeVerts, pVarTP, pAmount, offsetX, offsetY, offsetZ);
+    int sample(double rnd) {
+      int n = prob.length;
+      double u = rnd * n;
+      int i = (int) u;
+      if (i >= n) i = n - 1;
+      return (u - i < prob[i]) ? i : alias[i];
+    }
   }
 
-  // [Draw Methods for 8, 7, 6, 5, 4, 3, 2, 1, 0 go here...]
+  @Override
+  public String[] getParameterNames() { return paramNames; }
+
+  @Override
+  public Object[] getParameterValues() { return new Object[] { scale, thickness, internalMode, recursionDepth, type, surfaceLines }; }
 
   @Override
   public void setParameter(String pName, double pValue) {
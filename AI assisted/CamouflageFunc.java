@@ -16,6 +16,7 @@
  */
 package org.jwildfire.create.tina.variation;
 
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -29,6 +30,14 @@ import static org.jwildfire.base.mathlib.MathLib.M_PI;
  * levels, which form the basis of the camouflage shapes. It supports coloring and
  * 3D layering for each level. This is a CPU-only variation.
  *
+ * With bakeRes > 0 the whole fBm field is rendered once in init() into a tileable 3D grid
+ * (bakeRes^3 floats covering a cube of bakeTile noise units) and transform() only does a
+ * trilinear fetch. Octave frequencies are rounded so each octave repeats a whole number of times per tile.
+ *
+ * Cellular noise can return the distance to the nearest feature point (F1), the second nearest (F2)
+ * or their difference (F2-F1, thin "cracked paint" seams). Feature points are scattered within
+ * +/- jitter/2 of the cell center.
+ *
  * @author Gemini based on user request and base code by Andreas Maschke
  */
 public class CamouflageFunc extends VariationFunc {
@@ -47,8 +56,12 @@ public class CamouflageFunc extends VariationFunc {
   private static final String PARAM_DISPLACEMENT = "displacement";
   private static final String PARAM_Z_OFFSET = "zOffset";
   private static final String PARAM_COLORIZE = "colorize";
+  private static final String PARAM_BAKE_RES = "bakeRes";
+  private static final String PARAM_BAKE_TILE = "bakeTile";
+  private static final String PARAM_CELL_PATTERN = "cellPattern";
+  private static final String PARAM_JITTER = "jitter";
 
-  private static final String[] paramNames = {PARAM_SEED, PARAM_SCALE, PARAM_NOISE_TYPE, PARAM_LEVELS, PARAM_OCTAVES, PARAM_PERSISTENCE, PARAM_LACUNARITY, PARAM_STRETCH, PARAM_ROTATION, PARAM_DISPLACEMENT, PARAM_Z_OFFSET, PARAM_COLORIZE};
+  private static final String[] paramNames = {PARAM_SEED, PARAM_SCALE, PARAM_NOISE_TYPE, PARAM_LEVELS, PARAM_OCTAVES, PARAM_PERSISTENCE, PARAM_LACUNARITY, PARAM_STRETCH, PARAM_ROTATION, PARAM_DISPLACEMENT, PARAM_Z_OFFSET, PARAM_COLORIZE, PARAM_BAKE_RES, PARAM_BAKE_TILE, PARAM_CELL_PATTERN, PARAM_JITTER};
 
   // Default parameter values
   private double seed = 1000.0;
@@ -63,6 +76,25 @@ public class CamouflageFunc extends VariationFunc {
   private double displacement = 0.1;
   private double zOffset = 0.1;
   private int colorize = 1; // 0=off, 1=on
+  private int bakeRes = 0; // 0=off, else grid points per tile edge
+  private double bakeTile = 8.0;
+  private int cellPattern = 0; // 0=F1, 1=F2, 2=F2-F1
+  private double jitter = 1.0;
+
+  private static final int MAX_BAKE_RES = 160;
+  private static final int MAX_ANGLE_TABLE = 1 << 16;
+  // Generous bound on the magnitude of a single noise octave, used to size the angle tables
+  private static final double NOISE_BOUND = 8.0;
+
+  // Baked fBm field, built in init()
+  private transient float[] bakedField;
+  private transient int bakedRes;
+  private transient double bakedCellsPerUnit;
+
+  // sin/cos of the level rotation angle, indexed by quantized noise + angleOffset; built in init()
+  private transient double[] angleSin;
+  private transient double[] angleCos;
+  private transient int angleOffset;
 
   // --- Noise Implementation ---
 
@@ -82,6 +114,13 @@ public class CamouflageFunc extends VariationFunc {
     return (double)(i & 0x7fffffff) / 1073741823.5 - 1.0;
   }
 
+  // Lattice wrapping for the tileable field: tile = {period, baseX, baseY, baseZ}, or null for an unbounded lattice
+  private static int wrap(int i, int[] tile, int axis) {
+    if (tile == null) return i;
+    int base = tile[axis + 1];
+    return base + Math.floorMod(i - base, tile[0]);
+  }
+
   private double lerp(double a, double b, double t) {
     return a + t * (b - a);
   }
@@ -90,7 +129,7 @@ public class CamouflageFunc extends VariationFunc {
     return t * t * (3.0 - 2.0 * t);
   }
 
-  private double valueNoise(double x, double y, double z) {
+  private double valueNoise(double x, double y, double z, int[] tile) {
     int ix = (int)Math.floor(x);
     int iy = (int)Math.floor(y);
     int iz = (int)Math.floor(z);
@@ -100,14 +139,17 @@ public class CamouflageFunc extends VariationFunc {
     double u = smoothstep(fx);
     double v = smoothstep(fy);
     double w = smoothstep(fz);
-    double n000 = hash(ix, iy, iz);
-    double n100 = hash(ix + 1, iy, iz);
-    double n010 = hash(ix, iy + 1, iz);
-    double n110 = hash(ix + 1, iy + 1, iz);
-    double n001 = hash(ix, iy, iz + 1);
-    double n101 = hash(ix + 1, iy, iz + 1);
-    double n011 = hash(ix, iy + 1, iz + 1);
-    double n111 = hash(ix + 1, iy + 1, iz + 1);
+    int ix0 = wrap(ix, tile, 0), ix1 = wrap(ix + 1, tile, 0);
+    int iy0 = wrap(iy, tile, 1), iy1 = wrap(iy + 1, tile, 1);
+    int iz0 = wrap(iz, tile, 2), iz1 = wrap(iz + 1, tile, 2);
+    double n000 = hash(ix0, iy0, iz0);
+    double n100 = hash(ix1, iy0, iz0);
+    double n010 = hash(ix0, iy1, iz0);
+    double n110 = hash(ix1, iy1, iz0);
+    double n001 = hash(ix0, iy0, iz1);
+    double n101 = hash(ix1, iy0, iz1);
+    double n011 = hash(ix0, iy1, iz1);
+    double n111 = hash(ix1, iy1, iz1);
     double nx00 = lerp(n000, n100, u);
     double nx10 = lerp(n010, n110, u);
     double nx01 = lerp(n001, n101, u);
@@ -117,31 +159,83 @@ public class CamouflageFunc extends VariationFunc {
     return lerp(nxy0, nxy1, w);
   }
 
-  private double cellularNoise(double x, double y, double z) {
+  // Worley search order. +1 stands for the neighbor on the near side of each axis, so the nearest
+  // 2x2x2 block (which holds F1 whenever jitter <= 0.5) comes first and the remaining 19 cells are
+  // usually culled by their distance bound.
+  private static final int[] CELL_ORDER = buildCellOrder();
+
+  private static int[] buildCellOrder() {
+      int[] order = new int[27 * 3];
+      int n = 0;
+      for (int pass = 0; pass < 2; pass++) {
+          for (int dz = -1; dz <= 1; dz++) {
+              for (int dy = -1; dy <= 1; dy++) {
+                  for (int dx = -1; dx <= 1; dx++) {
+                      boolean near = dx >= 0 && dy >= 0 && dz >= 0;
+                      if (near == (pass == 0)) {
+                          order[n++] = dx;
+                          order[n++] = dy;
+                          order[n++] = dz;
+                      }
+                  }
+              }
+          }
+      }
+      return order;
+  }
+
+  // Squared distance from t to the interval [lo, hi]
+  private static double gapSq(double t, double lo, double hi) {
+      double g = (t < lo) ? lo - t : (t > hi) ? t - hi : 0.0;
+      return g * g;
+  }
+
+  private double cellularNoise(double x, double y, double z, int[] tile) {
       int ix = (int)Math.floor(x);
       int iy = (int)Math.floor(y);
       int iz = (int)Math.floor(z);
-      double minDist = Double.MAX_VALUE;
-      for (int dz = -1; dz <= 1; dz++) {
-          for (int dy = -1; dy <= 1; dy++) {
-              for (int dx = -1; dx <= 1; dx++) {
-                  int cellX = ix + dx;
-                  int cellY = iy + dy;
-                  int cellZ = iz + dz;
-                  double pointX = cellX + 0.5 * (1.0 + hash(cellX, cellY, cellZ));
-                  double pointY = cellY + 0.5 * (1.0 + hash(cellY, cellZ, cellX));
-                  double pointZ = cellZ + 0.5 * (1.0 + hash(cellZ, cellX, cellY));
-                  double distSq = (x - pointX) * (x - pointX) + 
-                                  (y - pointY) * (y - pointY) + 
-                                  (z - pointZ) * (z - pointZ);
-                  if (distSq < minDist) {
-                      minDist = distSq;
-                  }
-              }
+      double fx = x - ix;
+      double fy = y - iy;
+      double fz = z - iz;
+      int sx = (fx < 0.5) ? -1 : 1;
+      int sy = (fy < 0.5) ? -1 : 1;
+      int sz = (fz < 0.5) ? -1 : 1;
+      // Feature points lie within [lo, hi] of their cell along each axis
+      double lo = 0.5 - 0.5 * jitter;
+      double hi = 0.5 + 0.5 * jitter;
+      boolean needF2 = cellPattern != 0;
+      double f1 = Double.MAX_VALUE;
+      double f2 = Double.MAX_VALUE;
+      for (int c = 0; c < CELL_ORDER.length; c += 3) {
+          int dx = CELL_ORDER[c] * sx;
+          int dy = CELL_ORDER[c + 1] * sy;
+          int dz = CELL_ORDER[c + 2] * sz;
+          double bound = gapSq(fx - dx, lo, hi) + gapSq(fy - dy, lo, hi) + gapSq(fz - dz, lo, hi);
+          if (bound >= (needF2 ? f2 : f1)) continue;
+          int cellX = ix + dx;
+          int cellY = iy + dy;
+          int cellZ = iz + dz;
+          int hx = wrap(cellX, tile, 0), hy = wrap(cellY, tile, 1), hz = wrap(cellZ, tile, 2);
+          double pointX = cellX + 0.5 * (1.0 + jitter * hash(hx, hy, hz));
+          double pointY = cellY + 0.5 * (1.0 + jitter * hash(hy, hz, hx));
+          double pointZ = cellZ + 0.5 * (1.0 + jitter * hash(hz, hx, hy));
+          double distSq = (x - pointX) * (x - pointX) + 
+                          (y - pointY) * (y - pointY) + 
+                          (z - pointZ) * (z - pointZ);
+          if (distSq < f1) {
+              f2 = f1;
+              f1 = distSq;
+          } else if (distSq < f2) {
+              f2 = distSq;
           }
       }
-      return Math.sqrt(minDist) * 2.0 - 1.0;
+      switch (cellPattern) {
+          case 1: return Math.sqrt(f2) * 2.0 - 1.0;
+          case 2: return (Math.sqrt(f2) - Math.sqrt(f1)) * 2.0 - 1.0;
+          default: return Math.sqrt(f1) * 2.0 - 1.0;
+      }
   }
+
   
   private static final int[] p = new int[512];
   static {
@@ -154,34 +248,116 @@ public class CamouflageFunc extends VariationFunc {
       double u = h<8 ? x : y, v = h<4 ? y : h==12||h==14 ? x : z;
       return ((h&1) == 0 ? u : -u) + ((h&2) == 0 ? v : -v);
   }
-  private double perlinNoise(double x, double y, double z) {
-      int X = (int)Math.floor(x) & 255, Y = (int)Math.floor(y) & 255, Z = (int)Math.floor(z) & 255;
-      x -= Math.floor(x); y -= Math.floor(y); z -= Math.floor(z);
+  private double perlinNoise(double x, double y, double z, int[] tile) {
+      int fx = (int)Math.floor(x), fy = (int)Math.floor(y), fz = (int)Math.floor(z);
+      // Corner lattice indices; without wrapping X1 = (X0 + 1) & 255 etc., which matches the classic p[X+1] lookups
+      int X0 = wrap(fx, tile, 0) & 255, X1 = wrap(fx + 1, tile, 0) & 255;
+      int Y0 = wrap(fy, tile, 1) & 255, Y1 = wrap(fy + 1, tile, 1) & 255;
+      int Z0 = wrap(fz, tile, 2) & 255, Z1 = wrap(fz + 1, tile, 2) & 255;
+      x -= fx; y -= fy; z -= fz;
       double u = fade(x), v = fade(y), w = fade(z);
-      int A = p[X]+Y, AA = p[A]+Z, AB = p[A+1]+Z, B = p[X+1]+Y, BA = p[B]+Z, BB = p[B+1]+Z;
-      return lerp(w, lerp(v, lerp(u, grad(p[AA  ], x  , y  , z   ), grad(p[BA  ], x-1, y  , z   )), lerp(u, grad(p[AB  ], x  , y-1, z   ), grad(p[BB  ], x-1, y-1, z   ))), lerp(v, lerp(u, grad(p[AA+1], x  , y  , z-1 ), grad(p[BA+1], x-1, y  , z-1 )), lerp(u, grad(p[AB+1], x  , y-1, z-1 ), grad(p[BB+1], x-1, y-1, z-1 ))));
+      int A = p[X0]+Y0, AB = p[X0]+Y1, B = p[X1]+Y0, BB = p[X1]+Y1;
+      int AA = p[A]+Z0, AA1 = p[A]+Z1, AB0 = p[AB]+Z0, AB1 = p[AB]+Z1;
+      int BA = p[B]+Z0, BA1 = p[B]+Z1, BB0 = p[BB]+Z0, BB1 = p[BB]+Z1;
+      return lerp(w, lerp(v, lerp(u, grad(p[AA ], x  , y  , z   ), grad(p[BA ], x-1, y  , z   )), lerp(u, grad(p[AB0], x  , y-1, z   ), grad(p[BB0], x-1, y-1, z   ))), lerp(v, lerp(u, grad(p[AA1], x  , y  , z-1 ), grad(p[BA1], x-1, y  , z-1 )), lerp(u, grad(p[AB1], x  , y-1, z-1 ), grad(p[BB1], x-1, y-1, z-1 ))));
   }
 
-  @Override
-  public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
-    double x = pAffineTP.x * scale;
-    double y = pAffineTP.y * scale * stretch;
-    double z = pAffineTP.z * scale;
-
+  // Fractal sum of the selected noise. When tileable, each octave's frequency is rounded so that it
+  // repeats an integer number of lattice cells per bakeTile, and the lattice is wrapped accordingly.
+  private double fbm(double x, double y, double z, boolean tileable) {
+    int seedBase = (int) Math.floor(seed);
     double noiseValue = 0.0;
     double freq = 1.0;
     double amp = 1.0;
     for (int i = 0; i < octaves; i++) {
+        double f = freq;
+        int[] tile = null;
+        if (tileable) {
+            int period = (int) Math.max(1, Math.round(bakeTile * freq));
+            f = period / bakeTile;
+            tile = (noiseType == 0) ? new int[]{period, 0, 0, seedBase} : new int[]{period, seedBase, seedBase, seedBase};
+        }
         double n;
         switch(noiseType) {
-            case 1: n = perlinNoise(x * freq + seed, y * freq + seed, z * freq + seed); break;
-            case 2: n = cellularNoise(x * freq + seed, y * freq + seed, z * freq + seed); break;
-            default: n = valueNoise(x * freq, y * freq, z * freq + seed); break;
+            case 1: n = perlinNoise(x * f + seed, y * f + seed, z * f + seed, tile); break;
+            case 2: n = cellularNoise(x * f + seed, y * f + seed, z * f + seed, tile); break;
+            default: n = valueNoise(x * f, y * f, z * f + seed, tile); break;
         }
       noiseValue += n * amp;
       freq *= lacunarity;
       amp *= persistence;
     }
+    return noiseValue;
+  }
+
+  @Override
+  public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+    buildAngleTables();
+    bakedField = null;
+    if (bakeRes <= 0 || bakeTile <= 0.0) return;
+    int res = bakeRes;
+    double step = bakeTile / res;
+    float[] field = new float[res * res * res];
+    for (int i = 0; i < res; i++) {
+      for (int j = 0; j < res; j++) {
+        for (int k = 0; k < res; k++) {
+          field[(i * res + j) * res + k] = (float) fbm(i * step, j * step, k * step, true);
+        }
+      }
+    }
+    bakedRes = res;
+    bakedCellsPerUnit = res / bakeTile;
+    bakedField = field;
+  }
+
+  // The rotation angle only depends on the quantized noise level, whose range is bounded by the octave amplitudes
+  private void buildAngleTables() {
+    double ampSum = 0.0;
+    double amp = 1.0;
+    for (int i = 0; i < octaves; i++) {
+      ampSum += Math.abs(amp);
+      amp *= persistence;
+    }
+    double range = Math.ceil(ampSum * NOISE_BOUND * levels) + 1.0;
+    int offset = (int) Math.min(MAX_ANGLE_TABLE / 2, range);
+    int size = 2 * offset + 1;
+    double[] sinTab = new double[size];
+    double[] cosTab = new double[size];
+    for (int i = 0; i < size; i++) {
+      double angle = (double) (i - offset) * M_PI * 2.0 * rotation / levels;
+      sinTab[i] = Math.sin(angle);
+      cosTab[i] = Math.cos(angle);
+    }
+    angleOffset = offset;
+    angleSin = sinTab;
+    angleCos = cosTab;
+  }
+
+  // Trilinear fetch from the baked field, repeating every bakeTile units along each axis
+  private double sampleBaked(float[] field, double x, double y, double z) {
+    int res = bakedRes;
+    double gx = x * bakedCellsPerUnit, gy = y * bakedCellsPerUnit, gz = z * bakedCellsPerUnit;
+    double fx = Math.floor(gx), fy = Math.floor(gy), fz = Math.floor(gz);
+    double tx = gx - fx, ty = gy - fy, tz = gz - fz;
+    int x0 = Math.floorMod((long) fx, res), y0 = Math.floorMod((long) fy, res), z0 = Math.floorMod((long) fz, res);
+    int x1 = (x0 + 1 == res) ? 0 : x0 + 1, y1 = (y0 + 1 == res) ? 0 : y0 + 1, z1 = (z0 + 1 == res) ? 0 : z0 + 1;
+    int a0 = x0 * res, a1 = x1 * res;
+    int b00 = (a0 + y0) * res, b01 = (a0 + y1) * res, b10 = (a1 + y0) * res, b11 = (a1 + y1) * res;
+    double c00 = lerp(field[b00 + z0], field[b10 + z0], tx);
+    double c10 = lerp(field[b01 + z0], field[b11 + z0], tx);
+    double c01 = lerp(field[b00 + z1], field[b10 + z1], tx);
+    double c11 = lerp(field[b01 + z1], field[b11 + z1], tx);
+    return lerp(lerp(c00, c10, ty), lerp(c01, c11, ty), tz);
+  }
+
+  @Override
+  public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+    double x = pAffineTP.x * scale;
+    double y = pAffineTP.y * scale * stretch;
+    double z = pAffineTP.z * scale;
+
+    final float[] field = bakedField;
+    double noiseValue = (field != null) ? sampleBaked(field, x, y, z) : fbm(x, y, z, false);
 
     double quantizedNoise = Math.floor(noiseValue * levels);
 
@@ -190,12 +366,20 @@ public class CamouflageFunc extends VariationFunc {
       pVarTP.color = colorIndex / (double) this.levels;
     }
 
-    double angle = quantizedNoise * M_PI * 2.0 * rotation / levels;
     double mag = quantizedNoise * displacement / levels;
     double z_offset_val = quantizedNoise * zOffset / levels;
 
-    double sin_a = Math.sin(angle);
-    double cos_a = Math.cos(angle);
+    double sin_a, cos_a;
+    final double[] sinTab = angleSin;
+    int angleIdx = (int) quantizedNoise + angleOffset;
+    if (sinTab != null && angleIdx >= 0 && angleIdx < sinTab.length) {
+      sin_a = sinTab[angleIdx];
+      cos_a = angleCos[angleIdx];
+    } else {
+      double angle = quantizedNoise * M_PI * 2.0 * rotation / levels;
+      sin_a = Math.sin(angle);
+      cos_a = Math.cos(angle);
+    }
 
     double x_new = pAffineTP.x * cos_a - pAffineTP.y * sin_a + mag;
     double y_new = pAffineTP.x * sin_a + pAffineTP.y * cos_a + mag;
@@ -213,7 +397,7 @@ public class CamouflageFunc extends VariationFunc {
 
   @Override
   public Object[] getParameterValues() {
-    return new Object[]{seed, scale, noiseType, levels, octaves, persistence, lacunarity, stretch, rotation, displacement, zOffset, colorize};
+    return new Object[]{seed, scale, noiseType, levels, octaves, persistence, lacunarity, stretch, rotation, displacement, zOffset, colorize, bakeRes, bakeTile, cellPattern, jitter};
   }
   
   @Override
@@ -242,6 +426,14 @@ public class CamouflageFunc extends VariationFunc {
       zOffset = pValue;
     } else if (PARAM_COLORIZE.equalsIgnoreCase(pName)) {
       colorize = pValue > 0.5 ? 1 : 0; // Treat as a boolean toggle
+    } else if (PARAM_BAKE_RES.equalsIgnoreCase(pName)) {
+      bakeRes = Math.max(0, Math.min(MAX_BAKE_RES, (int) pValue));
+    } else if (PARAM_BAKE_TILE.equalsIgnoreCase(pName)) {
+      bakeTile = pValue;
+    } else if (PARAM_CELL_PATTERN.equalsIgnoreCase(pName)) {
+      cellPattern = Math.max(0, Math.min(2, (int) pValue));
+    } else if (PARAM_JITTER.equalsIgnoreCase(pName)) {
+      jitter = Math.max(0.0, Math.min(1.0, pValue));
     } else {
       throw new IllegalArgumentException(pName);
     }
@@ -1,6 +1,7 @@
 package org.jwildfire.create.tina.variation;
 
 import org.jwildfire.base.Tools;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -50,6 +51,8 @@ public class Cell3D_Func extends VariationFunc {
     // Checkerboard Control
     private static final String PARAM_CHECKERBOARD_MODE = "checker_mode";
     private static final String PARAM_CHECKERBOARD_INVERT = "checker_invert";
+    private static final String PARAM_CHECKER_CLASSES = "checker_classes";
+    private static final String PARAM_CHECKER_SEED = "checker_seed";
 
     // Cell Spacing/Moving - Alternate Set (for Checkerboard)
     private static final String SPACE_XA2 = "space_xa2"; private static final String SPACE_YA2 = "space_ya2";
@@ -100,6 +103,7 @@ public class Cell3D_Func extends VariationFunc {
             MOVE_XB, MOVE_YB, PARAM_MOVE_TR_X, PARAM_MOVE_TR_Y, PARAM_MOVE_BR_X,
             PARAM_SPACE_Z, PARAM_MOVE_Z,
             PARAM_CHECKERBOARD_MODE, PARAM_CHECKERBOARD_INVERT,
+            PARAM_CHECKER_CLASSES, PARAM_CHECKER_SEED,
             SPACE_XA2, SPACE_YA2, SPACE_XB2, SPACE_YB2, MOVE_XA2,
             SPACE_XC2, SPACE_YC2, MOVE_YA2, SPACE_XD2, SPACE_YD2,
             MOVE_XB2, MOVE_YB2, PARAM_MOVE_TR_X2, PARAM_MOVE_TR_Y2, PARAM_MOVE_BR_X2,
@@ -129,8 +133,9 @@ public class Cell3D_Func extends VariationFunc {
     private double space_xd = 2.0, space_yd = 2.0, move_xb = 1.0, move_yb = 1.0;
     private double move_tr_x = 0.0, move_tr_y = 0.0, move_br_x = 0.0;
     private double space_z = 1.0, move_z = 0.0;
-    // Checkerboard
+    // Checkerboard (0=Off, 1=2D Checker, 2=3D Checker, 3=Hashed K-Class)
     private int checkerboard_mode = 0, checkerboard_invert = 0;
+    private int checker_classes = 2, checker_seed = 0;
     // Alternate Space/Move (defaults same as primary for safety)
     private double space_xa2 = 2.0, space_ya2 = 2.0, space_xb2 = 2.0, space_yb2 = 2.0, move_xa2 = 1.0;
     private double space_xc2 = 2.0, space_yc2 = 2.0, move_ya2 = 1.0;
@@ -149,6 +154,19 @@ public class Cell3D_Func extends VariationFunc {
     private int color_use_z_sign = 0; private double color_z_neg_offset = 0.1;
     private double cz_scale = 0.05, cz_offset = 0.0;
 
+    // --- Per-class Space/Move parameter blocks (built in init) ---
+    // Each cell class owns one block of BLOCK_SIZE values. Class 0 holds the primary set, the last
+    // class holds the alternate set, and any classes in between blend linearly from one to the other.
+    private static final int B_SPACE_XA = 0, B_SPACE_YA = 1, B_SPACE_XB = 2, B_SPACE_YB = 3, B_MOVE_XA = 4;
+    private static final int B_SPACE_XC = 5, B_SPACE_YC = 6, B_MOVE_YA = 7;
+    private static final int B_SPACE_XD = 8, B_SPACE_YD = 9, B_MOVE_XB = 10, B_MOVE_YB = 11;
+    private static final int B_MOVE_TR_X = 12, B_MOVE_TR_Y = 13, B_MOVE_BR_X = 14;
+    private static final int B_SPACE_Z = 15, B_MOVE_Z = 16;
+    private static final int BLOCK_SIZE = 17;
+
+    private int numClasses = 1;
+    private double[] classParams = new double[BLOCK_SIZE];
+
 
     private double normalizeColor(double val) {
         double normalized = abs(val);
@@ -180,6 +198,46 @@ public class Cell3D_Func extends VariationFunc {
         coords[0] = x; coords[1] = y; coords[2] = z;
     }
 
+    // Stateless integer hash of a cell index, used by the hashed k-class checker mode
+    private static int cellHash(long ix, long iy, long iz, int seed) {
+        long h = ix * 0x9E3779B97F4A7C15L + iy * 0xC2B2AE3D27D4EB4FL + iz * 0x165667B19E3779F9L + seed * 0x27D4EB2F165667C5L;
+        h ^= (h >>> 33); h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33); h *= 0xC4CEB9FE1A85EC53L;
+        h ^= (h >>> 33);
+        return (int) (h & 0x7fffffff);
+    }
+
+    @Override
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        numClasses = (checkerboard_mode == 0) ? 1 : max(2, checker_classes);
+        double[] primary = {
+                space_xa, space_ya, space_xb, space_yb, move_xa,
+                space_xc, space_yc, move_ya,
+                space_xd, space_yd, move_xb, move_yb,
+                move_tr_x, move_tr_y, move_br_x,
+                space_z, move_z
+        };
+        double[] alternate = {
+                space_xa2, space_ya2, space_xb2, space_yb2, move_xa2,
+                space_xc2, space_yc2, move_ya2,
+                space_xd2, space_yd2, move_xb2, move_yb2,
+                move_tr_x2, move_tr_y2, move_br_x2,
+                space_z2, move_z2
+        };
+        classParams = new double[numClasses * BLOCK_SIZE];
+        for (int c = 0; c < numClasses; c++) {
+            double t = 0.0;
+            if (numClasses > 1) {
+                t = (double) c / (numClasses - 1);
+                if (checkerboard_invert == 1) t = 1.0 - t;
+            }
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                // Written as a weighted sum so that t=0 and t=1 reproduce the primary/alternate values exactly
+                classParams[c * BLOCK_SIZE + i] = primary[i] * (1.0 - t) + alternate[i] * t;
+            }
+        }
+    }
+
     @Override
     public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP,
                           double pAmount) {
@@ -270,50 +328,50 @@ public class Cell3D_Func extends VariationFunc {
             dz = cell_content_coords[2] + center_offset;
         }
         
-        boolean use_alt_params = false;
-        if (checkerboard_mode == 1) {
-            long ix_check = (long)floor(original_x_idx_raw); long iy_check = (long)floor(original_y_idx_raw);
-            // For 3D checkerboard, you might include Z: long iz_check = (long)floor(original_z_idx_raw);
-            // boolean is_odd_cell = (ix_check + iy_check + iz_check) % 2 != 0;
-            boolean is_odd_cell = (ix_check + iy_check) % 2 != 0; // Current: 2D checkerboard pattern
-            if ((is_odd_cell && checkerboard_invert == 0) || (!is_odd_cell && checkerboard_invert == 1)) {
-                use_alt_params = true;
+        // Cell class selects one parameter block; with checkerboard off there is only the primary block
+        int base = 0;
+        if (numClasses > 1) {
+            long ix_check = (long) original_x_idx_raw;
+            long iy_check = (long) original_y_idx_raw;
+            long iz_check = (long) original_z_idx_raw;
+            long cell_class;
+            switch (checkerboard_mode) {
+                case 2: // 3D checkerboard
+                    cell_class = floorMod(ix_check + iy_check + iz_check, (long) numClasses);
+                    break;
+                case 3: // Hashed k-class pattern
+                    cell_class = cellHash(ix_check, iy_check, iz_check, checker_seed) % numClasses;
+                    break;
+                default: // 2D checkerboard
+                    cell_class = floorMod(ix_check + iy_check, (long) numClasses);
+                    break;
             }
+            base = (int) cell_class * BLOCK_SIZE;
         }
-
-        double cur_space_xa = use_alt_params ? space_xa2 : space_xa; double cur_space_ya = use_alt_params ? space_ya2 : space_ya;
-        double cur_space_xb = use_alt_params ? space_xb2 : space_xb; double cur_space_yb = use_alt_params ? space_yb2 : space_yb;
-        double cur_move_xa  = use_alt_params ? move_xa2  : move_xa;
-        double cur_space_xc = use_alt_params ? space_xc2 : space_xc; double cur_space_yc = use_alt_params ? space_yc2 : space_yc;
-        double cur_move_ya  = use_alt_params ? move_ya2  : move_ya;
-        double cur_space_xd = use_alt_params ? space_xd2 : space_xd; double cur_space_yd = use_alt_params ? space_yd2 : space_yd;
-        double cur_move_xb  = use_alt_params ? move_xb2  : move_xb; double cur_move_yb  = use_alt_params ? move_yb2  : move_yb;
-        double cur_move_tr_x= use_alt_params ? move_tr_x2: move_tr_x; double cur_move_tr_y= use_alt_params ? move_tr_y2: move_tr_y;
-        double cur_move_br_x= use_alt_params ? move_br_x2: move_br_x;
-        double cur_space_z  = use_alt_params ? space_z2  : space_z;   double cur_move_z   = use_alt_params ? move_z2   : move_z;
+        final double[] cp = classParams;
 
         double modified_x_idx = processed_original_x_idx;
         double modified_y_idx = processed_original_y_idx;
 
         if (processed_original_y_idx >= 0) {
             if (processed_original_x_idx >= 0) { // Q1
-                modified_y_idx = cur_space_ya * processed_original_y_idx + cur_move_tr_y;
-                modified_x_idx = cur_space_xa * processed_original_x_idx + cur_move_tr_x;
+                modified_y_idx = cp[base + B_SPACE_YA] * processed_original_y_idx + cp[base + B_MOVE_TR_Y];
+                modified_x_idx = cp[base + B_SPACE_XA] * processed_original_x_idx + cp[base + B_MOVE_TR_X];
             } else { // Q2
-                modified_y_idx = cur_space_yb * processed_original_y_idx;
-                modified_x_idx = -(cur_space_xb * processed_original_x_idx + cur_move_xa);
+                modified_y_idx = cp[base + B_SPACE_YB] * processed_original_y_idx;
+                modified_x_idx = -(cp[base + B_SPACE_XB] * processed_original_x_idx + cp[base + B_MOVE_XA]);
             }
         } else { 
             if (processed_original_x_idx >= 0) { // Q3
-                modified_y_idx = -(cur_space_yc * processed_original_y_idx + cur_move_ya);
-                modified_x_idx = cur_space_xc * processed_original_x_idx + cur_move_br_x;
+                modified_y_idx = -(cp[base + B_SPACE_YC] * processed_original_y_idx + cp[base + B_MOVE_YA]);
+                modified_x_idx = cp[base + B_SPACE_XC] * processed_original_x_idx + cp[base + B_MOVE_BR_X];
             } else { // Q4
-                modified_y_idx = -(cur_space_yd * processed_original_y_idx + cur_move_yb);
-                modified_x_idx = -(cur_space_xd * processed_original_x_idx + cur_move_xb);
+                modified_y_idx = -(cp[base + B_SPACE_YD] * processed_original_y_idx + cp[base + B_MOVE_YB]);
+                modified_x_idx = -(cp[base + B_SPACE_XD] * processed_original_x_idx + cp[base + B_MOVE_XB]);
             }
         }
         
-        double modified_z_idx = processed_original_z_idx * cur_space_z + cur_move_z;
+        double modified_z_idx = processed_original_z_idx * cp[base + B_SPACE_Z] + cp[base + B_MOVE_Z];
         
         double final_x = dx + modified_x_idx * actual_cell_size;
         double final_y = dy + modified_y_idx * actual_cell_size;
@@ -348,6 +406,7 @@ public class Cell3D_Func extends VariationFunc {
                 move_xb, move_yb, move_tr_x, move_tr_y, move_br_x,
                 space_z, move_z,
                 checkerboard_mode, checkerboard_invert,
+                checker_classes, checker_seed,
                 space_xa2, space_ya2, space_xb2, space_yb2, move_xa2,
                 space_xc2, space_yc2, move_ya2, space_xd2, space_yd2,
                 move_xb2, move_yb2, move_tr_x2, move_tr_y2, move_br_x2,
@@ -398,6 +457,8 @@ public class Cell3D_Func extends VariationFunc {
         // Checkerboard
         else if (PARAM_CHECKERBOARD_MODE.equalsIgnoreCase(pName)) checkerboard_mode = Tools.FTOI(pValue);
         else if (PARAM_CHECKERBOARD_INVERT.equalsIgnoreCase(pName)) checkerboard_invert = Tools.FTOI(pValue);
+        else if (PARAM_CHECKER_CLASSES.equalsIgnoreCase(pName)) checker_classes = max(2, Tools.FTOI(pValue));
+        else if (PARAM_CHECKER_SEED.equalsIgnoreCase(pName)) checker_seed = Tools.FTOI(pValue);
         // Alt Space/Move
         else if (SPACE_XA2.equalsIgnoreCase(pName)) space_xa2 = pValue; else if (SPACE_YA2.equalsIgnoreCase(pName)) space_ya2 = pValue;
         else if (SPACE_XB2.equalsIgnoreCase(pName)) space_xb2 = pValue; else if (SPACE_YB2.equalsIgnoreCase(pName)) space_yb2 = pValue;
@@ -16,8 +16,12 @@
 */
 package org.jwildfire.create.tina.variation;
 
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
+
+import java.util.Arrays;
+
 import static org.jwildfire.base.mathlib.MathLib.*;
 
 public class ChaosCubesFunc extends VariationFunc {
@@ -44,9 +48,10 @@ public class ChaosCubesFunc extends VariationFunc {
   private static final String PARAM_COLOR_SPEED = "colorSpeed";
   private static final String PARAM_SPHERE_INVERT = "sphereInvert";
   private static final String PARAM_SPHERE_RADIUS = "sphereRadius";
+  private static final String PARAM_PRECOMPOSE_DEPTH = "precomposeDepth";
 
   // Parameter arrays
-  private static final String[] paramNames = {PARAM_MODE, PARAM_MODE7_A, PARAM_MODE7_B, PARAM_MAX_ITERATIONS, PARAM_TWIST_X, PARAM_TWIST_Y, PARAM_TWIST_Z, PARAM_SCALE_X, PARAM_SCALE_Y, PARAM_SCALE_Z, PARAM_OFFSET, PARAM_ROT_X, PARAM_ROT_Y, PARAM_ROT_Z, PARAM_INVERT, PARAM_JULIA, PARAM_COLOR_MODE, PARAM_COLOR_SPEED, PARAM_SPHERE_INVERT, PARAM_SPHERE_RADIUS};
+  private static final String[] paramNames = {PARAM_MODE, PARAM_MODE7_A, PARAM_MODE7_B, PARAM_MAX_ITERATIONS, PARAM_TWIST_X, PARAM_TWIST_Y, PARAM_TWIST_Z, PARAM_SCALE_X, PARAM_SCALE_Y, PARAM_SCALE_Z, PARAM_OFFSET, PARAM_ROT_X, PARAM_ROT_Y, PARAM_ROT_Z, PARAM_INVERT, PARAM_JULIA, PARAM_COLOR_MODE, PARAM_COLOR_SPEED, PARAM_SPHERE_INVERT, PARAM_SPHERE_RADIUS, PARAM_PRECOMPOSE_DEPTH};
 
   // Member variables
   private int mode = 0;
@@ -69,114 +74,261 @@ public class ChaosCubesFunc extends VariationFunc {
   private double colorSpeed = 1.0;
   private int sphereInvert = 0;
   private double sphereRadius = 1.0;
+  private int precomposeDepth = 0;
+
+  private static final int MAX_PRECOMPOSE_DEPTH = 6;
+  private static final int MAX_COMPOSITE_ENTRIES = 1 << 18;
+
+  // Pyramid corners for mode 6 in units of offset; the apex height is additionally scaled by scaleY
+  private static final double[][] PYRAMID_UNIT = {{1, 1, 0}, {1, -1, 0}, {-1, -1, 0}, {-1, 1, 0}, {0, 0, 0.5}};
+
+  // Precomputed in init(): valid sub-cube offsets (ix, iy, iz triples) per mode 0-5, scaled pyramid
+  // corners, and the cos/sin of the fixed rotations
+  private transient int[][] cellOffsets;
+  private transient double[] pyramidVerts;
+  private transient double cosRX, sinRX, cosRY, sinRY, cosRZ, sinRZ;
 
+  // Composite table, built in init() when precomposeDepth > 0: compDepth levels of the form p' = s * p + t
+  // fold into p' = s^k * p + T (+ J * c in julia mode). Per entry: T (3 doubles) and the last level's color index.
+  private transient int compDepth;
+  private transient double[] compOffsets;
+  private transient int[] compLastCode;
+  private transient AliasTable compAlias;
+  private transient double compScaleX, compScaleY, compScaleZ;
+  private transient double compJuliaX, compJuliaY, compJuliaZ;
 
   @Override
-  public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
-    XYZPoint p = new XYZPoint();
-    p.x = pAffineTP.x;
-    p.y = pAffineTP.y;
-    p.z = pAffineTP.z;
+  public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+    cellOffsets = new int[6][];
+    for (int m = 0; m < 6; m++) {
+      int[] buf = new int[27 * 3];
+      int n = 0;
+      for (int iz = -1; iz <= 1; iz++) {
+        for (int iy = -1; iy <= 1; iy++) {
+          for (int ix = -1; ix <= 1; ix++) {
+            if (isValidCube(m, ix, iy, iz)) {
+              buf[n++] = ix;
+              buf[n++] = iy;
+              buf[n++] = iz;
+            }
+          }
+        }
+      }
+      cellOffsets[m] = Arrays.copyOf(buf, n);
+    }
+
+    pyramidVerts = new double[PYRAMID_UNIT.length * 3];
+    for (int v = 0; v < PYRAMID_UNIT.length; v++) {
+      pyramidVerts[v * 3] = PYRAMID_UNIT[v][0] * offset;
+      pyramidVerts[v * 3 + 1] = PYRAMID_UNIT[v][1] * offset;
+      pyramidVerts[v * 3 + 2] = PYRAMID_UNIT[v][2] * offset * scaleY;
+    }
 
     double rX = Math.toRadians(rotX);
     double rY = Math.toRadians(rotY);
     double rZ = Math.toRadians(rotZ);
+    cosRX = cos(rX); sinRX = sin(rX);
+    cosRY = cos(rY); sinRY = sin(rY);
+    cosRZ = cos(rZ); sinRZ = sin(rZ);
+
+    buildCompositeTable();
+  }
+
+  // Twist is a point-dependent rotation per level and color mode 4 needs every level's radius; both keep the per-level loop
+  private void buildCompositeTable() {
+    compOffsets = null;
+    compLastCode = null;
+    compAlias = null;
+    compDepth = 0;
+    if (precomposeDepth <= 0 || twistX != 0.0 || twistY != 0.0 || twistZ != 0.0 || colorMode == 4) return;
+
+    // --- Single level: scale s, offset t, probability and color index of every choice ---
+    double sx, sy, sz;
+    double[] levelT;
+    double[] levelWeight;
+    int[] levelCode;
+    if (mode == 6) {
+      sx = sy = sz = 0.5;
+      int n = pyramidVerts.length / 3;
+      levelT = new double[n * 3];
+      levelWeight = new double[n];
+      levelCode = new int[n];
+      for (int v = 0; v < n; v++) {
+        for (int c = 0; c < 3; c++) levelT[v * 3 + c] = pyramidVerts[v * 3 + c] * 0.5;
+        levelWeight[v] = 1.0 / n;
+        levelCode[v] = v;
+      }
+    } else {
+      sx = scaleX; sy = scaleY; sz = scaleZ;
+      int[] cellsA = cellOffsets[mode == 7 ? mode7_A : mode];
+      int[] cellsB = (mode == 7) ? cellOffsets[mode7_B] : new int[0];
+      int nA = cellsA.length / 3, nB = cellsB.length / 3;
+      int n = nA + nB;
+      levelT = new double[n * 3];
+      levelWeight = new double[n];
+      levelCode = new int[n];
+      for (int i = 0; i < n; i++) {
+        int[] cells = (i < nA) ? cellsA : cellsB;
+        int k = ((i < nA) ? i : i - nA) * 3;
+        int ix = cells[k], iy = cells[k + 1], iz = cells[k + 2];
+        levelT[i * 3] = -ix * offset * (1.0 - scaleX);
+        levelT[i * 3 + 1] = -iy * offset * (1.0 - scaleY);
+        levelT[i * 3 + 2] = -iz * offset * (1.0 - scaleZ);
+        // Hybrid mode flips a fair coin between A and B before picking a cell
+        levelWeight[i] = (mode == 7) ? 0.5 / ((i < nA) ? nA : nB) : 1.0 / n;
+        levelCode[i] = (ix + 1) + (iy + 1) * 3 + (iz + 1) * 9;
+      }
+    }
 
-    if (rX != 0) rotateX(p, rX);
-    if (rY != 0) rotateY(p, rY);
-    if (rZ != 0) rotateZ(p, rZ);
+    int n = levelWeight.length;
+    int depth = Math.min(precomposeDepth, max_iterations);
+    while (depth > 1 && Math.pow(n, depth) > MAX_COMPOSITE_ENTRIES) depth--;
+    if (depth <= 1) return;
 
-    XYZPoint c = new XYZPoint();
-    c.x = p.x;
-    c.y = p.y;
-    c.z = p.z;
+    // --- Compose level by level: T = s * T + t, weight = weight * w, code = code of the newest level ---
+    double[] T = new double[3];
+    double[] W = {1.0};
+    int[] code = {0};
+    int entries = 1;
+    double jx = 0.0, jy = 0.0, jz = 0.0;
+    for (int d = 0; d < depth; d++) {
+      double[] nextT = new double[entries * n * 3];
+      double[] nextW = new double[entries * n];
+      int[] nextCode = new int[entries * n];
+      for (int e = 0; e < entries; e++) {
+        for (int v = 0; v < n; v++) {
+          int dst = e * n + v;
+          nextT[dst * 3] = sx * T[e * 3] + levelT[v * 3];
+          nextT[dst * 3 + 1] = sy * T[e * 3 + 1] + levelT[v * 3 + 1];
+          nextT[dst * 3 + 2] = sz * T[e * 3 + 2] + levelT[v * 3 + 2];
+          nextW[dst] = W[e] * levelWeight[v];
+          nextCode[dst] = levelCode[v];
+        }
+      }
+      T = nextT;
+      W = nextW;
+      code = nextCode;
+      entries *= n;
+      jx = sx * jx + 1.0;
+      jy = sy * jy + 1.0;
+      jz = sz * jz + 1.0;
+    }
+
+    compScaleX = Math.pow(sx, depth);
+    compScaleY = Math.pow(sy, depth);
+    compScaleZ = Math.pow(sz, depth);
+    boolean juliaSteps = julia > 0 && mode != 6;
+    compJuliaX = juliaSteps ? jx : 0.0;
+    compJuliaY = juliaSteps ? jy : 0.0;
+    compJuliaZ = juliaSteps ? jz : 0.0;
+    compAlias = (mode == 7) ? new AliasTable(W) : null;
+    compLastCode = code;
+    compOffsets = T;
+    compDepth = depth;
+  }
+
+  // Menger-like acceptance test of the sub-cube at (ix, iy, iz) for modes 0-5
+  private boolean isValidCube(int current_mode, int ix, int iy, int iz) {
+    boolean is_valid_cube = false;
+    switch(current_mode) {
+      case 0: int hcm = (ix==0?1:0)+(iy==0?1:0)+(iz==0?1:0); is_valid_cube = (invert==0)?(hcm<2):(hcm>=2); break;
+      case 1: int hcv = Math.abs(ix)+Math.abs(iy)+Math.abs(iz); is_valid_cube = (invert==0)?(hcv<=1):(hcv>1); break;
+      case 2: boolean icc = (ix==0&&iy==0&&iz==0); is_valid_cube = (invert==0)?!icc:icc; break;
+      case 3: int z = (ix==0?1:0)+(iy==0?1:0)+(iz==0?1:0); is_valid_cube = (invert==0)?(z<2||(ix==0&&iy==0&&iz==0)):(z>=2&&!(ix==0&&iy==0&&iz==0)); break;
+      case 4: is_valid_cube = (invert==0)?(Math.abs(ix)+Math.abs(iy)+Math.abs(iz)==3):(Math.abs(ix)+Math.abs(iy)+Math.abs(iz)!=3); break;
+      case 5: int nz = (ix!=0?1:0)+(iy!=0?1:0)+(iz!=0?1:0); is_valid_cube = (invert==0)?(nz==2):(nz!=2); break;
+    }
+    return is_valid_cube;
+  }
+
+  @Override
+  public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+    double px = pAffineTP.x;
+    double py = pAffineTP.y;
+    double pz = pAffineTP.z;
+
+    if (rotX != 0) { double y=py; double z=pz; py=cosRX*y-sinRX*z; pz=sinRX*y+cosRX*z; }
+    if (rotY != 0) { double x=px; double z=pz; px=cosRY*x+sinRY*z; pz=-sinRY*x+cosRY*z; }
+    if (rotZ != 0) { double x=px; double y=py; px=cosRZ*x-sinRZ*y; py=sinRZ*x+cosRZ*y; }
+
+    final double cx = px, cy = py, cz = pz;
     
-    int last_ix = 0, last_iy = 0, last_iz = 0;
-    int last_v_index = 0;
+    int last_code = 0; // Sub-cube index (ix+1)+(iy+1)*3+(iz+1)*9, or the pyramid vertex in mode 6
     double pathLength = 0.0;
+    int remaining = max_iterations;
 
-    for (int i = 0; i < max_iterations; i++) {
+    // --- Composite steps, compDepth levels each ---
+    final double[] comp = compOffsets;
+    if (comp != null) {
+        int steps = max_iterations / compDepth;
+        remaining -= steps * compDepth;
+        int count = compLastCode.length;
+        for (int i = 0; i < steps; i++) {
+            int e = (compAlias != null) ? compAlias.sample(pContext.random()) : (int)(pContext.random() * count);
+            px = px * compScaleX + comp[e * 3] + cx * compJuliaX;
+            py = py * compScaleY + comp[e * 3 + 1] + cy * compJuliaY;
+            pz = pz * compScaleZ + comp[e * 3 + 2] + cz * compJuliaZ;
+            last_code = compLastCode[e];
+        }
+    }
+
+    // --- Single levels ---
+    for (int i = 0; i < remaining; i++) {
         int current_mode = mode;
         if(current_mode == 7) { // If hybrid mode, pick one of the two sub-modes for this iteration
             current_mode = (pContext.random() < 0.5) ? mode7_A : mode7_B;
         }
 
-        switch(current_mode) {
-            case 0: case 1: case 2: case 3: case 4: case 5:
-            {
-                int ix, iy, iz;
-                do {
-                    ix = (int)(pContext.random() * 3) - 1;
-                    iy = (int)(pContext.random() * 3) - 1;
-                    iz = (int)(pContext.random() * 3) - 1;
-                    
-                    boolean is_valid_cube = false;
-                    switch(current_mode) {
-                      case 0: int hcm = (ix==0?1:0)+(iy==0?1:0)+(iz==0?1:0); is_valid_cube = (invert==0)?(hcm<2):(hcm>=2); break;
-                      case 1: int hcv = Math.abs(ix)+Math.abs(iy)+Math.abs(iz); is_valid_cube = (invert==0)?(hcv<=1):(hcv>1); break;
-                      case 2: boolean icc = (ix==0&&iy==0&&iz==0); is_valid_cube = (invert==0)?!icc:icc; break;
-                      case 3: int z = (ix==0?1:0)+(iy==0?1:0)+(iz==0?1:0); is_valid_cube = (invert==0)?(z<2||(ix==0&&iy==0&&iz==0)):(z>=2&&!(ix==0&&iy==0&&iz==0)); break;
-                      case 4: is_valid_cube = (invert==0)?(Math.abs(ix)+Math.abs(iy)+Math.abs(iz)==3):(Math.abs(ix)+Math.abs(iy)+Math.abs(iz)!=3); break;
-                      case 5: int nz = (ix!=0?1:0)+(iy!=0?1:0)+(iz!=0?1:0); is_valid_cube = (invert==0)?(nz==2):(nz!=2); break;
-                    }
-                    if (is_valid_cube) { last_ix=ix; last_iy=iy; last_iz=iz; break; }
-                } while (true);
-
-                p.x = p.x * scaleX - ix * offset * (1.0 - scaleX);
-                p.y = p.y * scaleY - iy * offset * (1.0 - scaleY);
-                p.z = p.z * scaleZ - iz * offset * (1.0 - scaleZ);
-                
-                if (julia > 0) { p.x += c.x; p.y += c.y; p.z += c.z; }
-                break;
-            }
-            case 6: // Sierpinski Pyramid
-            {
-                XYZPoint[] vertices = new XYZPoint[5];
-                vertices[0] = new XYZPoint(); vertices[0].x=offset; vertices[0].y=offset; vertices[0].z=0;
-                vertices[1] = new XYZPoint(); vertices[1].x=offset; vertices[1].y=-offset; vertices[1].z=0;
-                vertices[2] = new XYZPoint(); vertices[2].x=-offset; vertices[2].y=-offset; vertices[2].z=0;
-                vertices[3] = new XYZPoint(); vertices[3].x=-offset; vertices[3].y=offset; vertices[3].z=0;
-                vertices[4] = new XYZPoint(); vertices[4].x=0; vertices[4].y=0; vertices[4].z=offset*scaleY*0.5;
-                
-                last_v_index = (int)(pContext.random() * 5);
-                XYZPoint v = vertices[last_v_index];
-                
-                p.x = (p.x + v.x) * 0.5;
-                p.y = (p.y + v.y) * 0.5;
-                p.z = (p.z + v.z) * 0.5;
-                break;
-            }
+        if (current_mode == 6) { // Sierpinski Pyramid
+            last_code = (int)(pContext.random() * 5);
+            int v = last_code * 3;
+            
+            px = (px + pyramidVerts[v]) * 0.5;
+            py = (py + pyramidVerts[v + 1]) * 0.5;
+            pz = (pz + pyramidVerts[v + 2]) * 0.5;
+        } else {
+            // Uniform pick among the sub-cubes accepted by this mode
+            int[] cells = cellOffsets[current_mode];
+            int k = (int)(pContext.random() * (cells.length / 3)) * 3;
+            int ix = cells[k], iy = cells[k + 1], iz = cells[k + 2];
+            last_code = (ix+1)+(iy+1)*3+(iz+1)*9;
+
+            px = px * scaleX - ix * offset * (1.0 - scaleX);
+            py = py * scaleY - iy * offset * (1.0 - scaleY);
+            pz = pz * scaleZ - iz * offset * (1.0 - scaleZ);
+            
+            if (julia > 0) { px += cx; py += cy; pz += cz; }
         }
         
-        if (twistX != 0.0) rotateX(p, p.x * twistX);
-        if (twistY != 0.0) rotateY(p, p.y * twistY);
-        if (twistZ != 0.0) rotateZ(p, p.z * twistZ);
+        if (twistX != 0.0) { double a = px * twistX; double ca = cos(a), sa = sin(a); double y=py; double z=pz; py=ca*y-sa*z; pz=sa*y+ca*z; }
+        if (twistY != 0.0) { double a = py * twistY; double ca = cos(a), sa = sin(a); double x=px; double z=pz; px=ca*x+sa*z; pz=-sa*x+ca*z; }
+        if (twistZ != 0.0) { double a = pz * twistZ; double ca = cos(a), sa = sin(a); double x=px; double y=py; px=ca*x-sa*y; py=sa*x+ca*y; }
 
-        pathLength += Math.sqrt(p.x*p.x + p.y*p.y + p.z*p.z);
+        pathLength += Math.sqrt(px*px + py*py + pz*pz);
     }
     
     if (sphereInvert > 0) {
-        double r2 = p.x*p.x + p.y*p.y + p.z*p.z;
+        double r2 = px*px + py*py + pz*pz;
         if (r2 > 1.0E-6) {
             double factor = (sphereRadius * sphereRadius) / r2;
-            p.x *= factor;
-            p.y *= factor;
-            p.z *= factor;
+            px *= factor;
+            py *= factor;
+            pz *= factor;
         }
     }
 
-    pVarTP.x += p.x * pAmount;
-    pVarTP.y += p.y * pAmount;
-    pVarTP.z += p.z * pAmount;
+    pVarTP.x += px * pAmount;
+    pVarTP.y += py * pAmount;
+    pVarTP.z += pz * pAmount;
 
     if (colorMode > 0) {
         double calculatedColor = 0.0;
         switch(colorMode) {
-          case 1: calculatedColor = (p.x/offset + p.y/offset + p.z/offset) / 3.0; break;
-          case 2: if (mode == 6) { calculatedColor = last_v_index / 4.0; } else { calculatedColor = (last_ix+1+(last_iy+1)*3+(last_iz+1)*9)/26.0; } break;
-          case 3: calculatedColor = Math.sqrt(p.x*p.x+p.y*p.y+p.z*p.z)/offset; break;
+          case 1: calculatedColor = (px/offset + py/offset + pz/offset) / 3.0; break;
+          case 2: if (mode == 6) { calculatedColor = last_code / 4.0; } else { calculatedColor = last_code / 26.0; } break;
+          case 3: calculatedColor = Math.sqrt(px*px+py*py+pz*pz)/offset; break;
           case 4: calculatedColor = pathLength/(max_iterations*offset); break;
-          case 5: double angleXY=Math.atan2(p.y,p.x); double angleXZ=Math.atan2(p.z,p.x); calculatedColor=(angleXY+angleXZ+2.0*Math.PI)/(4.0*Math.PI); break;
+          case 5: double angleXY=Math.atan2(py,px); double angleXZ=Math.atan2(pz,px); calculatedColor=(angleXY+angleXZ+2.0*Math.PI)/(4.0*Math.PI); break;
         }
         
         calculatedColor *= colorSpeed;
@@ -186,21 +338,63 @@ public class ChaosCubesFunc extends VariationFunc {
     }
   }
 
-  private void rotateX(XYZPoint p, double angle) { double y=p.y; double z=p.z; p.y=cos(angle)*y-sin(angle)*z; p.z=sin(angle)*y+cos(angle)*z; }
-  private void rotateY(XYZPoint p, double angle) { double x=p.x; double z=p.z; p.x=cos(angle)*x+sin(angle)*z; p.z=-sin(angle)*x+cos(angle)*z; }
-  private void rotateZ(XYZPoint p, double angle) { double x=p.x; double y=p.y; p.x=cos(angle)*x-sin(angle)*y; p.y=sin(angle)*x+cos(angle)*y; }
+  /** Walker/Vose alias table: draws index i with probability weights[i] / sum(weights) in O(1). */
+  private static final class AliasTable {
+    final double[] prob;
+    final int[] alias;
+
+    AliasTable(double[] weights) {
+      int n = weights.length;
+      prob = new double[n];
+      alias = new int[n];
+      double sum = 0.0;
+      for (double w : weights) sum += w;
+      if (n == 0 || sum <= 0.0) {
+        Arrays.fill(prob, 1.0);
+        return;
+      }
+      double[] scaled = new double[n];
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int ns = 0, nl = 0;
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / sum;
+        if (scaled[i] < 1.0) small[ns++] = i;
+        else large[nl++] = i;
+      }
+      while (ns > 0 && nl > 0) {
+        int l = small[--ns];
+        int g = large[--nl];
+        prob[l] = scaled[l];
+        alias[l] = g;
+        scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+        if (scaled[g] < 1.0) small[ns++] = g;
+        else large[nl++] = g;
+      }
+      while (nl > 0) prob[large[--nl]] = 1.0;
+      while (ns > 0) prob[small[--ns]] = 1.0;
+    }
+
+    int sample(double rnd) {
+      int n = prob.length;
+      double u = rnd * n;
+      int i = (int) u;
+      if (i >= n) i = n - 1;
+      return (u - i < prob[i]) ? i : alias[i];
+    }
+  }
 
   @Override
   public String[] getParameterNames() { return paramNames; }
   
   @Override
   public Object[] getParameterValues() {
-    return new Object[] {mode, mode7_A, mode7_B, max_iterations, twistX, twistY, twistZ, scaleX, scaleY, scaleZ, offset, rotX, rotY, rotZ, invert, julia, colorMode, colorSpeed, sphereInvert, sphereRadius};
+    return new Object[] {mode, mode7_A, mode7_B, max_iterations, twistX, twistY, twistZ, scaleX, scaleY, scaleZ, offset, rotX, rotY, rotZ, invert, julia, colorMode, colorSpeed, sphereInvert, sphereRadius, precomposeDepth};
   }
 
   @Override
   public String[] getParameterAlternativeNames() {
-    return new String[]{"fractal_mode", "mode7_A", "mode7_B", "depth", "twist_x", "twist_y", "twist_z", "scale_x", "scale_y", "scale_z", "offset", "rotX", "rotY", "rotZ", "invert", "julia_mode", "color_mode", "color_speed", "sphere_invert", "sphere_radius"};
+    return new String[]{"fractal_mode", "mode7_A", "mode7_B", "depth", "twist_x", "twist_y", "twist_z", "scale_x", "scale_y", "scale_z", "offset", "rotX", "rotY", "rotZ", "invert", "julia_mode", "color_mode", "color_speed", "sphere_invert", "sphere_radius", "precompose_depth"};
   }
 
   @Override
@@ -225,6 +419,7 @@ public class ChaosCubesFunc extends VariationFunc {
     else if (PARAM_COLOR_SPEED.equalsIgnoreCase(pName)) colorSpeed = pValue;
     else if (PARAM_SPHERE_INVERT.equalsIgnoreCase(pName)) sphereInvert = pValue > 0.5 ? 1 : 0;
     else if (PARAM_SPHERE_RADIUS.equalsIgnoreCase(pName)) sphereRadius = pValue;
+    else if (PARAM_PRECOMPOSE_DEPTH.equalsIgnoreCase(pName)) precomposeDepth = (int) Math.max(0, Math.min(pValue, MAX_PRECOMPOSE_DEPTH));
     else throw new IllegalArgumentException(pName);
   }
 
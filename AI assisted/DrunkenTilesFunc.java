@@ -18,7 +18,7 @@
  */
 package org.jwildfire.create.tina.variation;
 
-import java.util.Random;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 import java.lang.Math; // Using standard Math functions
@@ -52,6 +52,8 @@ public class DrunkenTilesFunc extends VariationFunc {
     private static final String PARAM_STAR_POINTS = "starPoints"; // StarN(10)
     private static final String PARAM_CLOUD_AMPLITUDE = "cloudAmplitude"; // Cloud(11)
     private static final String PARAM_CLOUD_FREQUENCY = "cloudFrequency"; // Cloud(11)
+    private static final String PARAM_ROTATION_JITTER = "rotation_jitter"; // Max. random tile rotation (radians)
+    private static final String PARAM_SCALE_JITTER = "scale_jitter"; // Max. random tile shrink, 0-0.99
 
 
     // Update parameter names array
@@ -63,7 +65,9 @@ public class DrunkenTilesFunc extends VariationFunc {
             PARAM_FLOWER_PETALS, // Added
             PARAM_STAR_POINTS, // Added
             PARAM_CLOUD_AMPLITUDE, // Added
-            PARAM_CLOUD_FREQUENCY // Added
+            PARAM_CLOUD_FREQUENCY, // Added
+            PARAM_ROTATION_JITTER,
+            PARAM_SCALE_JITTER
     };
 
     // Default values
@@ -77,14 +81,24 @@ public class DrunkenTilesFunc extends VariationFunc {
     private int starPoints = 5;
     private double cloudAmplitude = 0.2;
     private double cloudFrequency = 5.0;
+    private double rotation_jitter = 0.0;
+    private double scale_jitter = 0.0;
 
 
     // --- Internal State --- (unchanged)
-    private transient Random random = new Random();
     private transient boolean needsReinitCalcs = true;
     private transient double radius;
     private transient double _r2; // radius squared
 
+    // Boundary tables, built in init() for the current shape:
+    // polygons (Tri, Rhom, Hex, Star5) as half-planes (nx, ny, d), inside if nx*x + ny*y <= d for all of them,
+    // and Flower/StarN/Cloud as boundary radius over the angle -PI..PI (ANGLE_LUT_SIZE + 1 samples)
+    private transient double[] halfPlanes;
+    private transient int halfPlaneCount;
+    private transient double[] angleLut;
+    private static final int ANGLE_LUT_SIZE = 4096;
+    private static final double ANGLE_LUT_SCALE = ANGLE_LUT_SIZE / (2.0 * Math.PI);
+
     // Constants for shape types (updated)
     private static final int BOUNDARY_CIRCLE=0; private static final int BOUNDARY_SQUARE=1; private static final int BOUNDARY_ELLIPSE=2; private static final int BOUNDARY_TRIANGLE=3; private static final int BOUNDARY_RHOMBUS=4; private static final int BOUNDARY_HEXAGON=5; private static final int BOUNDARY_STAR5=6; private static final int BOUNDARY_CROSS=7; private static final int BOUNDARY_RING=8;
     private static final int BOUNDARY_FLOWER=9; // New
@@ -92,6 +106,24 @@ public class DrunkenTilesFunc extends VariationFunc {
     private static final int BOUNDARY_CLOUD=11; // New
     private static final int NUM_BOUNDARY_TYPES = 12; // Updated count
 
+    // Per-cell attribute channels of cellRandom()
+    private static final int CH_OFFSET_X = 0; private static final int CH_OFFSET_Y = 1; private static final int CH_ROTATION = 2; private static final int CH_SCALE = 3;
+
+    // Direct-mapped cache of per-cell rotations; entries are immutable, so concurrent render threads can share it
+    private static final int ROTATION_CACHE_SIZE = 256; // Power of two
+    private transient CellRotation[] rotationCache;
+
+    /** Cached cos/sin of a cell's rotation. */
+    private static final class CellRotation {
+        final int ix, iy;
+        final double cos, sin;
+
+        CellRotation(int ix, int iy, double angle) {
+            this.ix = ix; this.iy = iy;
+            this.cos = Math.cos(angle); this.sin = Math.sin(angle);
+        }
+    }
+
     // Other Constants
     private static final double TWO_PI = 2.0 * Math.PI;
     private static final double PI = Math.PI;
@@ -119,14 +151,149 @@ public class DrunkenTilesFunc extends VariationFunc {
          }
     }
 
-    /** Helper function for Triangle boundary check. (Unchanged) */
-    private static double pointSign(double p1x, double p1y, double p2x, double p2y, double p3x, double p3y) {
-        return (p1x - p3x) * (p2y - p3y) - (p2x - p3x) * (p1y - p3y);
+    /** Stateless per-cell random value in [0, 1), one independent value per attribute channel. */
+    private static double cellRandom(int ix, int iy, int seed, int channel) {
+        long h = ix * 0x9E3779B97F4A7C15L + iy * 0xC2B2AE3D27D4EB4FL + seed * 0x165667B19E3779F9L + channel * 0x27D4EB2F165667C5L;
+        h ^= (h >>> 33); h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33); h *= 0xC4CEB9FE1A85EC53L;
+        h ^= (h >>> 33);
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    /** Rotation of the cell (ix, iy), from the cache or computed and cached on a miss. */
+    private CellRotation cellRotation(int ix, int iy) {
+        int slot = (ix * 0x9E3779B1 + iy * 0x85EBCA77) >>> 24; // Top 8 bits, ROTATION_CACHE_SIZE = 256
+        CellRotation cr = rotationCache[slot];
+        if (cr == null || cr.ix != ix || cr.iy != iy) {
+            cr = new CellRotation(ix, iy, (cellRandom(ix, iy, seed, CH_ROTATION) * 2.0 - 1.0) * rotation_jitter);
+            rotationCache[slot] = cr;
+        }
+        return cr;
     }
 
     @Override
-    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
         initializeIfNeeded();
+        rotationCache = new CellRotation[ROTATION_CACHE_SIZE];
+        halfPlanes = null;
+        halfPlaneCount = 0;
+        angleLut = null;
+        switch (shape_boundary_type) {
+            case BOUNDARY_TRIANGLE: {
+                double r = radius; double s32 = Math.sqrt(3.0) / 2.0;
+                buildHalfPlanes(new double[]{ 0, r, -r * s32, -r / 2.0, r * s32, -r / 2.0 });
+                break;
+            }
+            case BOUNDARY_RHOMBUS: {
+                // Square rotated by -PI/4
+                double a = -Math.PI / 4.0; double c = Math.cos(a); double s = Math.sin(a);
+                halfPlanes = new double[]{ c, -s, radius, -c, s, radius, s, c, radius, -s, -c, radius };
+                halfPlaneCount = 4;
+                break;
+            }
+            case BOUNDARY_HEXAGON: {
+                double[] v = new double[12];
+                v[0] = 0; v[1] = radius;
+                for (int i = 0; i < 5; i++) { double a = (Math.PI / 2.0) + (i + 1) * (Math.PI / 3.0); v[(i + 1) * 2] = radius * Math.cos(a); v[(i + 1) * 2 + 1] = radius * Math.sin(a); }
+                buildHalfPlanes(v);
+                break;
+            }
+            case BOUNDARY_STAR5: {
+                // Edges of the 10-vertex star; as before a point must be inside all of them (i.e. the star's inner pentagon)
+                double rO = radius; double rI = radius * Math.max(0.01, Math.min(1.0, inner_radius_factor));
+                double[] v = new double[20];
+                v[0] = 0; v[1] = rO;
+                for (int i = 0; i < 9; i++) { double a = (Math.PI / 2.0) + (i + 1) * (Math.PI / 5.0); double cR = ((i + 1) % 2 == 0) ? rO : rI; v[(i + 1) * 2] = cR * Math.cos(a); v[(i + 1) * 2 + 1] = cR * Math.sin(a); }
+                buildHalfPlanes(v);
+                break;
+            }
+            case BOUNDARY_FLOWER:
+            case BOUNDARY_STAR_N:
+            case BOUNDARY_CLOUD:
+                angleLut = new double[ANGLE_LUT_SIZE + 1];
+                for (int i = 0; i <= ANGLE_LUT_SIZE; i++) angleLut[i] = boundaryRadius(-Math.PI + i / ANGLE_LUT_SCALE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Half-planes of a closed counter-clockwise polygon (x, y pairs): inside is left of every edge. */
+    private void buildHalfPlanes(double[] v) {
+        int n = v.length / 2;
+        halfPlanes = new double[n * 3];
+        for (int i = 0; i < n; i++) {
+            double v1x = v[i * 2], v1y = v[i * 2 + 1];
+            double v2x = v[((i + 1) % n) * 2], v2y = v[((i + 1) % n) * 2 + 1];
+            double ex = v2x - v1x, ey = v2y - v1y;
+            halfPlanes[i * 3] = ey;
+            halfPlanes[i * 3 + 1] = -ex;
+            halfPlanes[i * 3 + 2] = ey * v1x - ex * v1y;
+        }
+        halfPlaneCount = n;
+    }
+
+    /** Exact boundary radius of the Flower, StarN and Cloud shapes at the given angle (-PI..PI). */
+    private double boundaryRadius(double angle) {
+        switch (shape_boundary_type) {
+            case BOUNDARY_FLOWER: {
+                double k = Math.max(2, this.flowerPetals);
+                return radius * Math.abs(Math.cos(k * angle));
+            }
+            case BOUNDARY_STAR_N: {
+                while (angle < 0) { angle += TWO_PI; } // Normalize for sector calculation
+                double k = Math.max(3, this.starPoints);
+                // Reuse inner_radius_factor for depth, clamp 0-1
+                double depth = Math.max(0.0, Math.min(1.0, this.inner_radius_factor));
+                double R_outer = radius;
+                double R_inner = radius * depth;
+                double anglePerVertex = PI / k;
+                int sectorIndex = (int) Math.floor(angle / anglePerVertex);
+                double angleInSector = angle - sectorIndex * anglePerVertex;
+                double t = angleInSector / anglePerVertex; // Normalize 0-1
+                double t_norm = 2.0 * Math.abs(t - 0.5); // Normalize 0-1 from center
+                if (sectorIndex % 2 == 0) { // Point sector
+                    return R_inner + (R_outer - R_inner) * (1.0 - t_norm);
+                } else { // Valley sector
+                    return R_inner + (R_outer - R_inner) * t_norm;
+                }
+            }
+            case BOUNDARY_CLOUD:
+            default: {
+                double amp = Math.max(0.0, this.cloudAmplitude);
+                double freq = Math.max(1e-6, this.cloudFrequency);
+                double noise = 0.6 * Math.sin(freq * angle)
+                             + 0.3 * Math.sin(2.1 * freq * angle + 1.23)
+                             + 0.1 * Math.sin(4.3 * freq * angle + 4.56);
+                return radius * (1.0 + amp * noise);
+            }
+        }
+    }
+
+    /** Boundary radius at the angle of (x, y), linearly interpolated from the angle table. */
+    private double lookupBoundaryRadius(double x, double y) {
+        double t = (fastAtan2(y, x) + PI) * ANGLE_LUT_SCALE;
+        int i = (int) t;
+        if (i >= ANGLE_LUT_SIZE) i = ANGLE_LUT_SIZE - 1; else if (i < 0) i = 0;
+        return angleLut[i] + (angleLut[i + 1] - angleLut[i]) * (t - i);
+    }
+
+    /** Octant-reduced polynomial atan2, max. error about 2e-4 rad (below the angle table spacing of 1.5e-3). */
+    private static double fastAtan2(double y, double x) {
+        double ax = Math.abs(x), ay = Math.abs(y);
+        double mx = Math.max(ax, ay);
+        if (mx == 0.0) return 0.0;
+        double a = Math.min(ax, ay) / mx;
+        double s = a * a;
+        double r = ((-0.0464964749 * s + 0.15931422) * s - 0.327622764) * s * a + a;
+        if (ay > ax) r = 0.5 * PI - r;
+        if (x < 0) r = PI - r;
+        if (y < 0) r = -r;
+        return r;
+    }
+
+    @Override
+    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
 
         if (cellsize <= 1e-9 || radius <= 1e-9) {
             // Passthrough if cellsize or radius is invalid
@@ -142,12 +309,20 @@ public class DrunkenTilesFunc extends VariationFunc {
         double invCellSize = 1.0 / cellsize;
         int ix = (int)Math.floor(inputX * invCellSize); int iy = (int)Math.floor(inputY * invCellSize);
         double Cx_reg = (ix + 0.5) * cellsize; double Cy_reg = (iy + 0.5) * cellsize;
-        long cellSeed = seed ^ (Integer.hashCode(ix) * 31) ^ Integer.hashCode(iy);
-        if(random == null) random = new Random(); random.setSeed(cellSeed);
-        double Ox = (random.nextDouble()*2.0-1.0)*offset_strength*cellsize; double Oy = (random.nextDouble()*2.0-1.0)*offset_strength*cellsize;
+        double Ox = (cellRandom(ix, iy, seed, CH_OFFSET_X)*2.0-1.0)*offset_strength*cellsize; double Oy = (cellRandom(ix, iy, seed, CH_OFFSET_Y)*2.0-1.0)*offset_strength*cellsize;
         double Cx_pert = Cx_reg + Ox; double Cy_pert = Cy_reg + Oy;
         // Point relative to perturbed center
         double Lx = inputX - Cx_pert; double Ly = inputY - Cy_pert;
+        // Per-cell rotation and scale: the boundary test and effect work in the tile's own frame
+        double rotC = 1.0, rotS = 0.0, tileScale = 1.0;
+        if (rotation_jitter != 0.0) {
+            CellRotation cr = cellRotation(ix, iy); rotC = cr.cos; rotS = cr.sin;
+            double x = Lx; Lx = rotC * x + rotS * Ly; Ly = -rotS * x + rotC * Ly;
+        }
+        if (scale_jitter > 0.0) {
+            tileScale = 1.0 - scale_jitter * cellRandom(ix, iy, seed, CH_SCALE);
+            Lx /= tileScale; Ly /= tileScale;
+        }
         double localDistSq = -1.0; // Calculated if needed
 
         // Determine Boundary Type and Check if Inside
@@ -157,99 +332,39 @@ public class DrunkenTilesFunc extends VariationFunc {
             case BOUNDARY_CIRCLE: localDistSq=Lx*Lx+Ly*Ly; if(localDistSq<=_r2) apply_effect=true; break;
             case BOUNDARY_SQUARE: if(Math.abs(Lx)<=radius && Math.abs(Ly)<=radius) { apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break;
             case BOUNDARY_ELLIPSE: { double ar=Math.max(1e-9,Math.abs(aspect_ratio)); double rx=radius; double ry=radius/ar; double rx_sq=rx*rx; double ry_sq=ry*ry; if(rx_sq>1e-12 && ry_sq>1e-12){ if(((Lx*Lx)/rx_sq+(Ly*Ly)/ry_sq)<=1.0){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;}} break; }
-            case BOUNDARY_TRIANGLE: { double r=radius; double s32=Math.sqrt(3.0)/2.0; double v1x=0,v1y=r; double v2x=r*s32,v2y=-r/2.0; double v3x=-r*s32,v3y=-r/2.0; double d1=pointSign(Lx,Ly,v1x,v1y,v2x,v2y); double d2=pointSign(Lx,Ly,v2x,v2y,v3x,v3y); double d3=pointSign(Lx,Ly,v3x,v3y,v1x,v1y); boolean hn=(d1<0)||(d2<0)||(d3<0); boolean hp=(d1>0)||(d2>0)||(d3>0); if(!(hn&&hp)){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break; }
-            case BOUNDARY_RHOMBUS: { double a=-Math.PI/4.0; double c=Math.cos(a); double s=Math.sin(a); double rLx=c*Lx-s*Ly; double rLy=s*Lx+c*Ly; if(Math.abs(rLx)<=radius && Math.abs(rLy)<=radius){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break; }
-            case BOUNDARY_HEXAGON: { double r=radius; double angleStep=Math.PI/3.0; boolean inside=true; double px=Lx; double py=Ly; double v1x=0,v1y=0,v2x=0,v2y=0; v2x=0; v2y=r; for(int i=0;i<6;i++){ v1x=v2x; v1y=v2y; double currentAngle=(Math.PI/2.0)+(i+1)*angleStep; v2x=r*Math.cos(currentAngle); v2y=r*Math.sin(currentAngle); if((v2x-v1x)*(py-v1y)-(v2y-v1y)*(px-v1x)<0){inside=false;break;} } if(inside){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break; }
-            case BOUNDARY_STAR5: { double rO=radius; double rI=radius*Math.max(0.01,Math.min(1.0,inner_radius_factor)); double angleStep=Math.PI/5.0; boolean inside=true; double px=Lx; double py=Ly; double v1x=0,v1y=0,v2x=0,v2y=0; v2x=0; v2y=rO; for(int i=0;i<10;i++){ v1x=v2x; v1y=v2y; double currentAngle=(Math.PI/2.0)+(i+1)*angleStep; double cR=((i+1)%2==0)?rO:rI; v2x=cR*Math.cos(currentAngle); v2y=cR*Math.sin(currentAngle); if((v2x-v1x)*(py-v1y)-(v2y-v1y)*(px-v1x)<0){inside=false;break;} } if(inside){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break; }
+            case BOUNDARY_TRIANGLE:
+            case BOUNDARY_RHOMBUS:
+            case BOUNDARY_HEXAGON:
+            case BOUNDARY_STAR5: {
+                final double[] hp = halfPlanes;
+                boolean inside = true;
+                for (int i = 0, o = 0; i < halfPlaneCount; i++, o += 3) {
+                    if (hp[o] * Lx + hp[o + 1] * Ly > hp[o + 2]) { inside = false; break; }
+                }
+                if (inside) { apply_effect = true; localDistSq = Lx * Lx + Ly * Ly; }
+                break;
+            }
             case BOUNDARY_CROSS: { double arm=radius*Math.max(0.01,Math.min(1.0,arm_width_factor)); if((Math.abs(Lx)<=arm && Math.abs(Ly)<=radius)||(Math.abs(Lx)<=radius && Math.abs(Ly)<=arm)){apply_effect=true; localDistSq=Lx*Lx+Ly*Ly;} break; }
             case BOUNDARY_RING: { double rI=radius*Math.max(0.0,Math.min(0.99,inner_radius_factor)); double inner_r2=rI*rI; localDistSq=Lx*Lx+Ly*Ly; if(localDistSq>=inner_r2 && localDistSq<=_r2){apply_effect=true;} break; }
 
             // --- New Boundary Checks ---
-            case BOUNDARY_FLOWER: {
-                double currentRadius = Math.sqrt(Lx * Lx + Ly * Ly);
-                if (currentRadius <= radius) { // Optimization: Check max radius first
-                    if (currentRadius < 1e-9) { // Point at center is inside
+            case BOUNDARY_FLOWER:
+            case BOUNDARY_STAR_N:
+            case BOUNDARY_CLOUD: {
+                double distSq = Lx * Lx + Ly * Ly;
+                // Max. boundary radius: radius for Flower/StarN, radius * (1 + amplitude) for Cloud
+                double maxPossibleR = (currentBoundaryType == BOUNDARY_CLOUD) ? radius * (1.0 + Math.abs(this.cloudAmplitude)) : radius;
+                if (distSq <= maxPossibleR * maxPossibleR) {
+                    if (distSq < 1e-18) { // Point at center is inside
                         apply_effect = true;
                         localDistSq = 0.0;
-                    } else {
-                        double angle = Math.atan2(Ly, Lx);
-                         // No need to normalize angle for cos input
-                        double k = Math.max(2, this.flowerPetals); // Use instance var
-                        double flowerBoundaryR = radius * Math.abs(Math.cos(k * angle));
-                        if (currentRadius <= flowerBoundaryR + 1e-9) { // Add tolerance
-                            apply_effect = true;
-                            localDistSq = currentRadius * currentRadius;
-                        }
+                    } else if (Math.sqrt(distSq) <= lookupBoundaryRadius(Lx, Ly) + 1e-9) { // Add tolerance
+                        apply_effect = true;
+                        localDistSq = distSq;
                     }
                 }
                 break;
             }
-            case BOUNDARY_STAR_N: {
-                 double currentRadius = Math.sqrt(Lx * Lx + Ly * Ly);
-                 if (currentRadius <= radius) { // Optimization: Check max radius first
-                     if (currentRadius < 1e-9) { // Point at center is inside
-                         apply_effect = true;
-                         localDistSq = 0.0;
-                     } else {
-                         double angle = Math.atan2(Ly, Lx);
-                         while (angle < 0) { angle += TWO_PI; } // Normalize for sector calculation
-
-                         double k = Math.max(3, this.starPoints); // Use instance var
-                         // Reuse inner_radius_factor for depth, clamp 0-1
-                         double depth = Math.max(0.0, Math.min(1.0, this.inner_radius_factor));
-                         double R_outer = radius;
-                         double R_inner = radius * depth;
-
-                         double anglePerVertex = PI / k;
-                         int sectorIndex = (int) Math.floor(angle / anglePerVertex);
-                         double angleInSector = angle - sectorIndex * anglePerVertex;
-                         double t = angleInSector / anglePerVertex; // Normalize 0-1
-                         double t_norm = 2.0 * Math.abs(t - 0.5); // Normalize 0-1 from center
-
-                         double starBoundaryR;
-                         if (sectorIndex % 2 == 0) { // Point sector
-                             starBoundaryR = R_inner + (R_outer - R_inner) * (1.0 - t_norm);
-                         } else { // Valley sector
-                             starBoundaryR = R_inner + (R_outer - R_inner) * t_norm;
-                         }
-
-                         if (currentRadius <= starBoundaryR + 1e-9) { // Add tolerance
-                             apply_effect = true;
-                             localDistSq = currentRadius * currentRadius;
-                         }
-                     }
-                 }
-                 break;
-            }
-            case BOUNDARY_CLOUD: {
-                double currentRadius = Math.sqrt(Lx * Lx + Ly * Ly);
-                // Estimate max possible boundary radius for optimization
-                double maxPossibleR = radius * (1.0 + Math.abs(this.cloudAmplitude));
-                if (currentRadius <= maxPossibleR) {
-                     if (currentRadius < 1e-9) { // Point at center is inside
-                         apply_effect = true;
-                         localDistSq = 0.0;
-                     } else {
-                         double angle = Math.atan2(Ly, Lx);
-                         double amp = Math.max(0.0, this.cloudAmplitude); // Use instance var
-                         double freq = Math.max(1e-6, this.cloudFrequency); // Use instance var
-
-                         double noise = 0.6 * Math.sin(freq * angle)
-                                      + 0.3 * Math.sin(2.1 * freq * angle + 1.23)
-                                      + 0.1 * Math.sin(4.3 * freq * angle + 4.56);
-
-                         double cloudBoundaryR = radius * (1.0 + amp * noise);
-                         // No need to clamp min here for the check, just compare
-                         // cloudBoundaryR = Math.max(radius * 0.1, cloudBoundaryR);
-
-                         if (currentRadius <= cloudBoundaryR + 1e-9) { // Add tolerance
-                             apply_effect = true;
-                             localDistSq = currentRadius * currentRadius;
-                         }
-                     }
-                }
-                break;
-            }
             // --- End New Boundary Checks ---
 
             default: // Fallback to Circle if type is unknown/invalid
@@ -272,8 +387,8 @@ public class DrunkenTilesFunc extends VariationFunc {
             if (currentBoundaryType == BOUNDARY_SQUARE || currentBoundaryType == BOUNDARY_RHOMBUS) {
                  // Use Chebyshev distance for square-like shapes
                  twist_norm = (radius < 1e-9) ? 0.0 : Math.min(1.0, Math.max(Math.abs(Lx), Math.abs(Ly)) / radius);
-                 if (currentBoundaryType == BOUNDARY_RHOMBUS) { // More accurate for Rhombus? Rotate first.
-                     double a=-Math.PI/4.0; double c=Math.cos(a); double s=Math.sin(a);
+                 if (currentBoundaryType == BOUNDARY_RHOMBUS) { // More accurate for Rhombus? Rotate first (c, -s of the first half-plane).
+                     double c=halfPlanes[0]; double s=-halfPlanes[1];
                      double rLx=c*Lx-s*Ly; double rLy=s*Lx+c*Ly;
                      twist_norm = (radius < 1e-9) ? 0.0 : Math.min(1.0, Math.max(Math.abs(rLx), Math.abs(rLy)) / radius);
                  }
@@ -291,7 +406,8 @@ public class DrunkenTilesFunc extends VariationFunc {
             // Apply twist to the LazyJess-scaled coordinates
             double twistedLx = c * ljLx - s * ljLy; double twistedLy = s * ljLx + c * ljLy;
             // Final position is perturbed center + twisted local coordinates
-            finalX = Cx_pert + twistedLx; finalY = Cy_pert + twistedLy;
+            // Back from the tile frame
+            finalX = Cx_pert + tileScale * (rotC * twistedLx - rotS * twistedLy); finalY = Cy_pert + tileScale * (rotS * twistedLx + rotC * twistedLy);
         }
 
         // Apply final transform amount (Unchanged)
@@ -315,7 +431,9 @@ public class DrunkenTilesFunc extends VariationFunc {
                 flowerPetals, // Added
                 starPoints, // Added
                 cloudAmplitude, // Added
-                cloudFrequency // Added
+                cloudFrequency, // Added
+                rotation_jitter,
+                scale_jitter
         };
     }
 
@@ -350,6 +468,10 @@ public class DrunkenTilesFunc extends VariationFunc {
             cloudAmplitude = Math.max(0.0, pValue); // Amplitude >= 0
         } else if (PARAM_CLOUD_FREQUENCY.equalsIgnoreCase(pName)) {
             cloudFrequency = Math.max(1e-6, pValue); // Frequency > 0
+        } else if (PARAM_ROTATION_JITTER.equalsIgnoreCase(pName)) {
+            rotation_jitter = pValue;
+        } else if (PARAM_SCALE_JITTER.equalsIgnoreCase(pName)) {
+            scale_jitter = Math.max(0.0, Math.min(0.99, pValue)); // Keep tiles from collapsing
         }
         else { throw new IllegalArgumentException("Unknown parameter: " + pName); }
     }
@@ -377,7 +499,9 @@ public class DrunkenTilesFunc extends VariationFunc {
                "dt_petals",       // Flower(9) Petal Count (k)
                "dt_star_points",   // StarN(10) Point Count
                "dt_cloud_amp",     // Cloud(11) Amplitude
-               "dt_cloud_freq"     // Cloud(11) Frequency
+               "dt_cloud_freq",    // Cloud(11) Frequency
+               "dt_rot_jitter",    // Per-tile rotation jitter
+               "dt_scale_jitter"   // Per-tile scale jitter
        };
     }
 
@@ -385,7 +509,6 @@ public class DrunkenTilesFunc extends VariationFunc {
     @Override
     public void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
         in.defaultReadObject();
-        random = new Random();
         needsReinitCalcs = true;
     }
 }
@@ -55,6 +55,7 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
   private static final String PARAM_FIXED_HUE = "fixedHue"; // For mode 4: a specific hue value (0.0-1.0)
   private static final String PARAM_Z_HUE_SCALE = "zHueScale"; // Scale for Z-depth hue mapping
   private static final String PARAM_RANDOM_HUE_AMOUNT = "randomHueAmount"; // Influence of random hue
+  private static final String PARAM_FLOAT_PREVIEW = "floatPreview"; // 1: run the float32 mirror of getGPUCode() on the CPU
 
 
   private static final String[] paramNames = {PARAM_RADIUS, PARAM_THICKNESS, PARAM_CONTRAST, PARAM_POW, PARAM_PHI1, PARAM_PHI2,
@@ -62,7 +63,7 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
       PARAM_SCALE_X, PARAM_SCALE_Y, PARAM_SCALE_Z,
       PARAM_SHEAR_XY, PARAM_SHEAR_XZ, PARAM_SHEAR_YX, PARAM_SHEAR_YZ, PARAM_SHEAR_ZX, PARAM_SHEAR_ZY,
       PARAM_CIRCLE_ROT_X, PARAM_CIRCLE_ROT_Y, PARAM_CIRCLE_THICKNESS_Z,
-      PARAM_COLOR_MODE, PARAM_FIXED_HUE, PARAM_Z_HUE_SCALE, PARAM_RANDOM_HUE_AMOUNT};
+      PARAM_COLOR_MODE, PARAM_FIXED_HUE, PARAM_Z_HUE_SCALE, PARAM_RANDOM_HUE_AMOUNT, PARAM_FLOAT_PREVIEW};
 
   private double radius = 1.0;
   private double thickness = 0.1;
@@ -92,6 +93,7 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
   private double fixedHue = 0.0; // Default hue (red on many palettes)
   private double zHueScale = 1.0; // How much Z affects hue mapping
   private double randomHueAmount = 0.0; // 0.0 for no random influence, 1.0 for full
+  private int floatPreview = 0;
 
 
   private static class Point implements Serializable {
@@ -101,39 +103,56 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
 
   private void circle(FlameTransformationContext pContext, Point p) {
     double r = this.radius + this.thickness - this._gamma * pContext.random();
-    double Phi = this._phi10 + this._delta * pContext.random();
-    double sinPhi = sin(Phi);
-    double cosPhi = cos(Phi);
 
-    double circX = r * cosPhi;
-    double circY = r * sinPhi;
-    double circZ = 0.0;
-
-    circZ += (pContext.random() - 0.5) * 2.0 * circleThicknessZ;
-
-    double sinCircleRotX = sin(this._circleRotXRad);
-    double cosCircleRotX = cos(this._circleRotXRad);
-    double sinCircleRotY = sin(this._circleRotYRad);
-    double cosCircleRotY = cos(this._circleRotYRad);
-
-    double tempY = circY * cosCircleRotX - circZ * sinCircleRotX;
-    double tempZ = circY * sinCircleRotX + circZ * cosCircleRotX;
-    circY = tempY;
-    circZ = tempZ;
-
-    double tempX = circX * cosCircleRotY + circZ * sinCircleRotY;
-    tempZ = -circX * sinCircleRotY + circZ * cosCircleRotY;
-    circX = tempX;
-    circZ = tempZ;
+    // Phi = phi10 + delta * rnd, looked up in the unit-circle table (which starts at phi10) and
+    // refined by the angle-addition formula for the fractional step f inside the table cell.
+    double t = this._delta * pContext.random() * CIRCLE_CELLS_PER_RADIAN;
+    double cell = floor(t);
+    int idx = ((int) (long) cell) & CIRCLE_TABLE_MASK;
+    double f = (t - cell) * CIRCLE_STEP;
+    double f2 = f * f;
+    double cosF = 1.0 - f2 * (0.5 - f2 * (1.0 / 24.0));
+    double sinF = f * (1.0 - f2 * ((1.0 / 6.0) - f2 * (1.0 / 120.0)));
+    double cosA = this._circleCos[idx];
+    double sinA = this._circleSin[idx];
+
+    double circX = r * (cosA * cosF - sinA * sinF);
+    double circY = r * (sinA * cosF + cosA * sinF);
+    double circZ = (pContext.random() - 0.5) * 2.0 * circleThicknessZ;
+
+    // circleRotX followed by circleRotY, folded into one matrix in init()
+    p.x = _c00 * circX + _c01 * circY + _c02 * circZ;
+    p.y = _c11 * circY + _c12 * circZ;
+    p.z = _c20 * circX + _c21 * circY + _c22 * circZ;
+  }
 
-    p.x = circX;
-    p.y = circY;
-    p.z = circZ;
+  private double powAlpha(double pAlpha) {
+    if (this._powChain < 0) {
+      return pow(pAlpha, this._absPow);
+    }
+    // |pow| is a multiple of 1/2: square-and-multiply, plus one sqrt for the half
+    double res = this._powHalf ? sqrt(pAlpha) : 1.0;
+    double base = pAlpha;
+    int n = this._powChain;
+    while (n > 0) {
+      if ((n & 1) != 0) {
+        res *= base;
+      }
+      n >>= 1;
+      if (n > 0) {
+        base *= base;
+      }
+    }
+    return res;
   }
 
   @Override
   public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
     /* GlynnSim2 by eralex61, http://eralex61.deviantart.com/art/GlynnSim-plugin-112621621 */
+    if (floatPreview == 1) {
+      transformFloat(pContext, pAffineTP, pVarTP, pAmount);
+      return;
+    }
     double x = pAffineTP.x;
     double y = pAffineTP.y;
     double z = pAffineTP.z;
@@ -147,7 +166,7 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
       y = toolPoint.y;
       z = toolPoint.z;
     } else {
-      if (pContext.random() > this.contrast * pow(Alpha, this._absPow)) {
+      if (pContext.random() > this.contrast * powAlpha(Alpha)) {
         // x, y, z remain as they are
       } else {
         x = Alpha * Alpha * x;
@@ -156,45 +175,15 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
       }
     }
 
-    // Apply scaling
-    x *= scaleX;
-    y *= scaleY;
-    z *= scaleZ;
-
-    // Apply shearing
-    double tempX = x + shearYX * y + shearZX * z;
-    double tempY = y + shearXY * x + shearZY * z;
-    double tempZ = z + shearXZ * x + shearYZ * y;
-
-    x = tempX;
-    y = tempY;
-    z = tempZ;
-
-    // Apply main 3D rotations
-    double sinRotX = sin(this._rotXRad);
-    double cosRotX = cos(this._rotXRad);
-    double sinRotY = sin(this._rotYRad);
-    double cosRotY = cos(this._rotYRad);
-    double sinRotZ = sin(this._rotZRad);
-    double cosRotZ = cos(this._rotZRad);
-
-    double rotatedY = y * cosRotX - z * sinRotX;
-    double rotatedZ = y * sinRotX + z * cosRotX;
-    y = rotatedY;
-    z = rotatedZ;
-
-    double rotatedX = x * cosRotY + z * sinRotY;
-    rotatedZ = -x * sinRotY + z * cosRotY;
-    x = rotatedX;
-    z = rotatedZ;
-
-    rotatedX = x * cosRotZ - y * sinRotZ;
-    rotatedY = x * sinRotZ + y * cosRotZ;
-    x = rotatedX;
-    y = rotatedY;
+    // Apply scaling, shearing and the main 3D rotations (X, then Y, then Z) as one matrix
+    double tx = _m00 * x + _m01 * y + _m02 * z;
+    double ty = _m10 * x + _m11 * y + _m12 * z;
+    double tz = _m20 * x + _m21 * y + _m22 * z;
+    x = tx;
+    y = ty;
 
     // Apply Z-offset
-    z += this.offsetZ;
+    z = tz + this.offsetZ;
 
     pVarTP.x += pAmount * x;
     pVarTP.y += pAmount * y;
@@ -230,6 +219,125 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
     }
   }
 
+  // float32 mirror of glynnSim2_circle() from getGPUFunctions()
+  private void circleFloat(Point p, float rnd1, float rnd2, float rnd3) {
+    float r = _fRadius + _fThickness - _fGamma * rnd1;
+    float Phi = _fPhi10 + _fDelta * rnd2;
+    float sinPhi = (float) sin(Phi);
+    float cosPhi = (float) cos(Phi);
+
+    float circX = r * cosPhi;
+    float circY = r * sinPhi;
+    float circZ = 0.0f;
+
+    circZ += (rnd3 - 0.5f) * 2.0f * _fCircleThicknessZ;
+
+    float tempY, tempZ, tempX;
+
+    tempY = circY * _fCosCircleRotX - circZ * _fSinCircleRotX;
+    tempZ = circY * _fSinCircleRotX + circZ * _fCosCircleRotX;
+    circY = tempY;
+    circZ = tempZ;
+
+    tempX = circX * _fCosCircleRotY + circZ * _fSinCircleRotY;
+    tempZ = -circX * _fSinCircleRotY + circZ * _fCosCircleRotY;
+    circX = tempX;
+    circZ = tempZ;
+
+    p.x = circX;
+    p.y = circY;
+    p.z = circZ;
+  }
+
+  /**
+   * float32 counterpart of the code emitted by {@link #getGPUCode}, statement for statement, so the CPU
+   * preview shows what the GPU renders. The per-point sinf/cosf of parameter-only angles are taken from init().
+   * Keep both in sync when changing either one; {@link GlynnSim2BFuncGPUParityCheck} checks them.
+   */
+  private void transformFloat(FlameTransformationContext pContext, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+    float x = (float) pAffineTP.x;
+    float y = (float) pAffineTP.y;
+    float z = (float) pAffineTP.z;
+    float tx, ty, tz;
+
+    float r = (float) sqrt(x * x + y * y);
+    float Alpha = _fRadius / r;
+    if (r < _fRadius) {
+      float rnd1 = (float) pContext.random();
+      float rnd2 = (float) pContext.random();
+      float rnd3 = (float) pContext.random();
+      circleFloat(toolPoint, rnd1, rnd2, rnd3);
+      tx = (float) toolPoint.x;
+      ty = (float) toolPoint.y;
+      tz = (float) toolPoint.z;
+    } else {
+      if ((float) pContext.random() > _fContrast * (float) pow(Alpha, _fAbsPow)) {
+        tx = x;
+        ty = y;
+        tz = z;
+      } else {
+        tx = Alpha * Alpha * x;
+        ty = Alpha * Alpha * y;
+        tz = z;
+      }
+    }
+    tx *= _fScaleX;
+    ty *= _fScaleY;
+    tz *= _fScaleZ;
+
+    float gpu_tempX = tx + _fShearYX * ty + _fShearZX * tz;
+    float gpu_tempY = ty + _fShearXY * tx + _fShearZY * tz;
+    float gpu_tempZ = tz + _fShearXZ * tx + _fShearYZ * ty;
+    tx = gpu_tempX;
+    ty = gpu_tempY;
+    tz = gpu_tempZ;
+
+    float rotatedY, rotatedZ, rotatedX;
+
+    rotatedY = ty * _fCosRotX - tz * _fSinRotX;
+    rotatedZ = ty * _fSinRotX + tz * _fCosRotX;
+    ty = rotatedY;
+    tz = rotatedZ;
+
+    rotatedX = tx * _fCosRotY + tz * _fSinRotY;
+    rotatedZ = -tx * _fSinRotY + tz * _fCosRotY;
+    tx = rotatedX;
+    tz = rotatedZ;
+
+    rotatedX = tx * _fCosRotZ - ty * _fSinRotZ;
+    rotatedY = tx * _fSinRotZ + ty * _fCosRotZ;
+    tx = rotatedX;
+    ty = rotatedY;
+
+    tz += _fOffsetZ;
+
+    pVarTP.x += pAmount * tx;
+    pVarTP.y += pAmount * ty;
+    pVarTP.z += pAmount * tz;
+
+    float colorModeF = colorMode;
+    if (colorModeF != 0.0f) {
+      float hue = 0.0f;
+
+      if (colorModeF == 1.0f || colorModeF == 3.0f) {
+        hue = (tz * _fZHueScale) % 1.0f;
+        if (hue < 0.0f) hue += 1.0f;
+      }
+
+      if (colorModeF == 2.0f || colorModeF == 3.0f) {
+        float random_hue_shift = ((float) pContext.random() - 0.5f) * 2.0f * _fRandomHueAmount;
+        hue = (hue + random_hue_shift) % 1.0f;
+        if (hue < 0.0f) hue += 1.0f;
+      }
+
+      if (colorModeF == 4.0f) {
+        hue = _fFixedHue;
+      }
+
+      pVarTP.color = hue;
+    }
+  }
+
   @Override
   public String[] getParameterNames() {
     return paramNames;
@@ -240,7 +348,7 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
     return new Object[]{radius, thickness, contrast, pow, phi1, phi2, rotX, rotY, rotZ, offsetZ,
         scaleX, scaleY, scaleZ, shearXY, shearXZ, shearYX, shearYZ, shearZX, shearZY,
         circleRotX, circleRotY, circleThicknessZ,
-        (double) colorMode, fixedHue, zHueScale, randomHueAmount};
+        (double) colorMode, fixedHue, zHueScale, randomHueAmount, (double) floatPreview};
   }
 
   @Override
@@ -297,6 +405,8 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
       zHueScale = pValue;
     else if (PARAM_RANDOM_HUE_AMOUNT.equalsIgnoreCase(pName))
       randomHueAmount = limitVal(pValue, 0.0, 1.0);
+    else if (PARAM_FLOAT_PREVIEW.equalsIgnoreCase(pName))
+      floatPreview = (int) pValue;
     else
       throw new IllegalArgumentException(pName);
   }
@@ -313,13 +423,36 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
         "GlynnSim2_scaleX", "GlynnSim2_scaleY", "GlynnSim2_scaleZ",
         "GlynnSim2_shearXY", "GlynnSim2_shearXZ", "GlynnSim2_shearYX", "GlynnSim2_shearYZ", "GlynnSim2_shearZX", "GlynnSim2_shearZY",
         "GlynnSim2_circleRotX", "GlynnSim2_circleRotY", "GlynnSim2_circleThicknessZ",
-        "GlynnSim2_colorMode", "GlynnSim2_fixedHue", "GlynnSim2_zHueScale", "GlynnSim2_randomHueAmount"};
+        "GlynnSim2_colorMode", "GlynnSim2_fixedHue", "GlynnSim2_zHueScale", "GlynnSim2_randomHueAmount", "GlynnSim2_floatPreview"};
   }
 
   private Point toolPoint = new Point();
   private double _phi10, _phi20, _gamma, _delta, _absPow;
   private double _rotXRad, _rotYRad, _rotZRad;
   private double _circleRotXRad, _circleRotYRad;
+  // scale, shear and main rotation combined
+  private double _m00, _m01, _m02, _m10, _m11, _m12, _m20, _m21, _m22;
+  // circle rotation (the y row has no x term)
+  private double _c00, _c01, _c02, _c11, _c12, _c20, _c21, _c22;
+  private int _powChain;
+  private boolean _powHalf;
+
+  private static final int CIRCLE_TABLE_SIZE = 4096;
+  private static final int CIRCLE_TABLE_MASK = CIRCLE_TABLE_SIZE - 1;
+  private static final double CIRCLE_STEP = 2.0 * M_PI / CIRCLE_TABLE_SIZE;
+  private static final double CIRCLE_CELLS_PER_RADIAN = CIRCLE_TABLE_SIZE / (2.0 * M_PI);
+  private static final int MAX_POW_CHAIN = 16;
+  private transient double[] _circleCos;
+  private transient double[] _circleSin;
+
+  // float32 state of the GPU code: parameters, its initCode values and the hoisted sinf/cosf terms
+  private static final float PI_F = (float) M_PI;
+  private float _fRadius, _fThickness, _fContrast, _fOffsetZ, _fCircleThicknessZ;
+  private float _fScaleX, _fScaleY, _fScaleZ, _fShearXY, _fShearXZ, _fShearYX, _fShearYZ, _fShearZX, _fShearZY;
+  private float _fFixedHue, _fZHueScale, _fRandomHueAmount;
+  private float _fPhi10, _fGamma, _fDelta, _fAbsPow;
+  private float _fSinRotX, _fCosRotX, _fSinRotY, _fCosRotY, _fSinRotZ, _fCosRotZ;
+  private float _fSinCircleRotX, _fCosCircleRotX, _fSinCircleRotY, _fCosCircleRotY;
 
   @Override
   public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
@@ -335,6 +468,112 @@ public class GlynnSim2BFunc extends VariationFunc implements SupportsGPU {
 
     this._circleRotXRad = M_PI * this.circleRotX / 180.0;
     this._circleRotYRad = M_PI * this.circleRotY / 180.0;
+
+    double twoAbsPow = 2.0 * this._absPow;
+    if (twoAbsPow == floor(twoAbsPow) && this._absPow <= MAX_POW_CHAIN) {
+      this._powChain = (int) this._absPow;
+      this._powHalf = ((int) twoAbsPow & 1) != 0;
+    } else {
+      this._powChain = -1;
+      this._powHalf = false;
+    }
+
+    this._circleCos = new double[CIRCLE_TABLE_SIZE];
+    this._circleSin = new double[CIRCLE_TABLE_SIZE];
+    for (int i = 0; i < CIRCLE_TABLE_SIZE; i++) {
+      double a = this._phi10 + i * CIRCLE_STEP;
+      this._circleCos[i] = cos(a);
+      this._circleSin[i] = sin(a);
+    }
+
+    double sinCircleRotX = sin(this._circleRotXRad);
+    double cosCircleRotX = cos(this._circleRotXRad);
+    double sinCircleRotY = sin(this._circleRotYRad);
+    double cosCircleRotY = cos(this._circleRotYRad);
+    this._c00 = cosCircleRotY;
+    this._c01 = sinCircleRotX * sinCircleRotY;
+    this._c02 = cosCircleRotX * sinCircleRotY;
+    this._c11 = cosCircleRotX;
+    this._c12 = -sinCircleRotX;
+    this._c20 = -sinCircleRotY;
+    this._c21 = sinCircleRotX * cosCircleRotY;
+    this._c22 = cosCircleRotX * cosCircleRotY;
+
+    double sinRotX = sin(this._rotXRad);
+    double cosRotX = cos(this._rotXRad);
+    double sinRotY = sin(this._rotYRad);
+    double cosRotY = cos(this._rotYRad);
+    double sinRotZ = sin(this._rotZRad);
+    double cosRotZ = cos(this._rotZRad);
+    double[][] rot = {
+        {cosRotZ * cosRotY, cosRotZ * sinRotY * sinRotX - sinRotZ * cosRotX, cosRotZ * sinRotY * cosRotX + sinRotZ * sinRotX},
+        {sinRotZ * cosRotY, sinRotZ * sinRotY * sinRotX + cosRotZ * cosRotX, sinRotZ * sinRotY * cosRotX - cosRotZ * sinRotX},
+        {-sinRotY, cosRotY * sinRotX, cosRotY * cosRotX}};
+    // shear matrix with the scale already applied to its columns
+    double[][] shearScale = {
+        {scaleX, shearYX * scaleY, shearZX * scaleZ},
+        {shearXY * scaleX, scaleY, shearZY * scaleZ},
+        {shearXZ * scaleX, shearYZ * scaleY, scaleZ}};
+    double[] m = new double[9];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        m[i * 3 + j] = rot[i][0] * shearScale[0][j] + rot[i][1] * shearScale[1][j] + rot[i][2] * shearScale[2][j];
+      }
+    }
+    this._m00 = m[0];
+    this._m01 = m[1];
+    this._m02 = m[2];
+    this._m10 = m[3];
+    this._m11 = m[4];
+    this._m12 = m[5];
+    this._m20 = m[6];
+    this._m21 = m[7];
+    this._m22 = m[8];
+
+    initFloat();
+  }
+
+  private void initFloat() {
+    _fRadius = (float) radius;
+    _fThickness = (float) thickness;
+    _fContrast = (float) contrast;
+    _fOffsetZ = (float) offsetZ;
+    _fCircleThicknessZ = (float) circleThicknessZ;
+    _fScaleX = (float) scaleX;
+    _fScaleY = (float) scaleY;
+    _fScaleZ = (float) scaleZ;
+    _fShearXY = (float) shearXY;
+    _fShearXZ = (float) shearXZ;
+    _fShearYX = (float) shearYX;
+    _fShearYZ = (float) shearYZ;
+    _fShearZX = (float) shearZX;
+    _fShearZY = (float) shearZY;
+    _fFixedHue = (float) fixedHue;
+    _fZHueScale = (float) zHueScale;
+    _fRandomHueAmount = (float) randomHueAmount;
+
+    // the double literals in initCode promote these expressions to double before they are stored as float
+    _fPhi10 = (float) (PI_F * (float) phi1 / 180.0);
+    float phi20 = (float) (PI_F * (float) phi2 / 180.0);
+    _fGamma = (float) (_fThickness * (2.0 * _fRadius + _fThickness) / (_fRadius + _fThickness));
+    _fDelta = phi20 - _fPhi10;
+    _fAbsPow = Math.abs((float) pow);
+    float rotXRad = (float) (PI_F * (float) rotX / 180.0);
+    float rotYRad = (float) (PI_F * (float) rotY / 180.0);
+    float rotZRad = (float) (PI_F * (float) rotZ / 180.0);
+    float circleRotXRad = (float) (PI_F * (float) circleRotX / 180.0);
+    float circleRotYRad = (float) (PI_F * (float) circleRotY / 180.0);
+
+    _fSinRotX = (float) sin(rotXRad);
+    _fCosRotX = (float) cos(rotXRad);
+    _fSinRotY = (float) sin(rotYRad);
+    _fCosRotY = (float) cos(rotYRad);
+    _fSinRotZ = (float) sin(rotZRad);
+    _fCosRotZ = (float) cos(rotZRad);
+    _fSinCircleRotX = (float) sin(circleRotXRad);
+    _fCosCircleRotX = (float) cos(circleRotXRad);
+    _fSinCircleRotY = (float) sin(circleRotYRad);
+    _fCosCircleRotY = (float) cos(circleRotYRad);
   }
 
   @Override
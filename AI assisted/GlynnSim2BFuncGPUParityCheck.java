@@ -0,0 +1,235 @@
+/*
+ * JWildfire - an image and animation processor written in Java
+ * Copyright (C) 1995-2021 Andreas Maschke
+
+ * This is free software; you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation; either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public License along with this software;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jwildfire.create.tina.variation;
+
+import org.jwildfire.create.tina.base.XYZPoint;
+import org.jwildfire.create.tina.random.MarsagliaRandomGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Parity check for {@link GlynnSim2BFunc}, run via main():
+ * - the double path and the float32 kernel (floatPreview = 1) are evaluated on the same points and random
+ *   numbers and must agree within TOLERANCE;
+ * - getGPUCode() + getGPUFunctions() must emit exactly the statements transformFloat()/circleFloat() mirror,
+ *   listed in MIRRORED_GPU_STATEMENTS. Changing the CUDA means updating the float kernel and this list together.
+ * Exits with status 1 on a mismatch.
+ */
+public class GlynnSim2BFuncGPUParityCheck {
+  private static final long SEED = 20211L;
+  private static final int SAMPLES = 200000;
+  private static final double TOLERANCE = 1.0e-5;
+  private static final double MAX_OUTLIER_FRACTION = 1.0e-4;
+
+  private static final Object[][] PARAM_SETS = {
+      {},
+      {"pow", 2.0, "rotX", 30.0, "rotY", -45.0, "rotZ", 70.0, "circleRotX", 40.0, "circleRotY", 25.0, "circleThicknessZ", 0.3,
+          "colorMode", 3.0, "randomHueAmount", 0.3},
+      {"pow", 1.37, "phi1", -20.0, "phi2", 700.0, "scaleX", 1.5, "shearXY", 0.3, "shearZX", -0.2, "shearYZ", 0.4,
+          "offsetZ", 0.5, "colorMode", 1.0},
+      {"pow", -2.5, "radius", 0.7, "contrast", 0.9, "colorMode", 4.0, "fixedHue", 0.6}
+  };
+
+  // normalized (trimmed, single-spaced) statement lines of getGPUCode() followed by getGPUFunctions()
+  private static final String[] MIRRORED_GPU_STATEMENTS = {
+      "float _phi10, _phi20, _gamma, _delta, _absPow, _rotXRad, _rotYRad, _rotZRad, _circleRotXRad, _circleRotYRad;",
+      "float tx, ty, tz;",
+      "_phi10 = PI * __glynnSim2_phi1 / 180.0;",
+      "_phi20 = PI * __glynnSim2_phi2 / 180.0;",
+      "_gamma = __glynnSim2_thickness * (2.0 * __glynnSim2_radius + __glynnSim2_thickness) / (__glynnSim2_radius + __glynnSim2_thickness);",
+      "_delta = _phi20 - _phi10;",
+      "_absPow = fabsf(__glynnSim2_pow);",
+      "_rotXRad = PI * __glynnSim2_rotX / 180.0;",
+      "_rotYRad = PI * __glynnSim2_rotY / 180.0;",
+      "_rotZRad = PI * __glynnSim2_rotZ / 180.0;",
+      "_circleRotXRad = PI * __glynnSim2_circleRotX / 180.0;",
+      "_circleRotYRad = PI * __glynnSim2_circleRotY / 180.0;",
+      "float r = sqrtf(__x * __x + __y * __y);",
+      "float Alpha = __glynnSim2_radius / r;",
+      "if (r < __glynnSim2_radius) {",
+      "glynnSim2_circle(&tx, &ty, &tz, RANDFLOAT(), RANDFLOAT(), RANDFLOAT(), __glynnSim2_radius, __glynnSim2_thickness, _gamma, _phi10, _delta, _circleRotXRad, _circleRotYRad, __glynnSim2_circleThicknessZ);",
+      "} else {",
+      "if (RANDFLOAT() > __glynnSim2_contrast * powf(Alpha, _absPow)) {",
+      "tx = __x;",
+      "ty = __y;",
+      "tz = __z;",
+      "} else {",
+      "tx = Alpha * Alpha * __x;",
+      "ty = Alpha * Alpha * __y;",
+      "tz = __z;",
+      "tx *= __glynnSim2_scaleX;",
+      "ty *= __glynnSim2_scaleY;",
+      "tz *= __glynnSim2_scaleZ;",
+      "float gpu_tempX = tx + __glynnSim2_shearYX * ty + __glynnSim2_shearZX * tz;",
+      "float gpu_tempY = ty + __glynnSim2_shearXY * tx + __glynnSim2_shearZY * tz;",
+      "float gpu_tempZ = tz + __glynnSim2_shearXZ * tx + __glynnSim2_shearYZ * ty;",
+      "tx = gpu_tempX;",
+      "ty = gpu_tempY;",
+      "tz = gpu_tempZ;",
+      "float sinRotX = sinf(_rotXRad);",
+      "float cosRotX = cosf(_rotXRad);",
+      "float sinRotY = sinf(_rotYRad);",
+      "float cosRotY = cosf(_rotYRad);",
+      "float sinRotZ = sinf(_rotZRad);",
+      "float cosRotZ = cosf(_rotZRad);",
+      "float rotatedY, rotatedZ, rotatedX;",
+      "rotatedY = ty * cosRotX - tz * sinRotX;",
+      "rotatedZ = ty * sinRotX + tz * cosRotX;",
+      "ty = rotatedY;",
+      "tz = rotatedZ;",
+      "rotatedX = tx * cosRotY + tz * sinRotY;",
+      "rotatedZ = -tx * sinRotY + tz * cosRotY;",
+      "tx = rotatedX;",
+      "tz = rotatedZ;",
+      "rotatedX = tx * cosRotZ - ty * sinRotZ;",
+      "rotatedY = tx * sinRotZ + ty * cosRotZ;",
+      "tx = rotatedX;",
+      "ty = rotatedY;",
+      "tz += __glynnSim2_offsetZ;",
+      "__px += __glynnSim2 * tx;",
+      "__py += __glynnSim2 * ty;",
+      "__pz += __glynnSim2 * tz;",
+      "if (__glynnSim2_colorMode != 0.0f) {",
+      "float hue = 0.0f;",
+      "if (__glynnSim2_colorMode == 1.0f || __glynnSim2_colorMode == 3.0f) { // Z-Depth coloring",
+      "hue = fmodf(tz * __glynnSim2_zHueScale, 1.0f);",
+      "if (hue < 0.0f) hue += 1.0f;",
+      "if (__glynnSim2_colorMode == 2.0f || __glynnSim2_colorMode == 3.0f) { // Random Hue",
+      "float random_hue_shift = (RANDFLOAT() - 0.5f) * 2.0f * __glynnSim2_randomHueAmount;",
+      "hue = fmodf(hue + random_hue_shift, 1.0f);",
+      "if (hue < 0.0f) hue += 1.0f;",
+      "if (__glynnSim2_colorMode == 4.0f) { // Fixed Hue",
+      "hue = __glynnSim2_fixedHue;",
+      "__color = hue;",
+      "__device__ void glynnSim2_circle(float *x, float *y, float *z, float rnd1, float rnd2, float rnd3, float radius, float thickness, float gamma, float phi10, float delta, float circleRotXRad, float circleRotYRad, float circleThicknessZ) {",
+      "float r = radius + thickness - gamma * rnd1;",
+      "float Phi = phi10 + delta * rnd2;",
+      "float sinPhi = sinf(Phi);",
+      "float cosPhi = cosf(Phi);",
+      "float circX = r * cosPhi;",
+      "float circY = r * sinPhi;",
+      "float circZ = 0.0f;",
+      "circZ += (rnd3 - 0.5f) * 2.0f * circleThicknessZ;",
+      "float sinCircleRotX = sinf(circleRotXRad);",
+      "float cosCircleRotX = cosf(circleRotXRad);",
+      "float sinCircleRotY = sinf(circleRotYRad);",
+      "float cosCircleRotY = cosf(circleRotYRad);",
+      "float tempY, tempZ, tempX;",
+      "tempY = circY * cosCircleRotX - circZ * sinCircleRotX;",
+      "tempZ = circY * sinCircleRotX + circZ * cosCircleRotX;",
+      "circY = tempY;",
+      "circZ = tempZ;",
+      "tempX = circX * cosCircleRotY + circZ * sinCircleRotY;",
+      "tempZ = -circX * sinCircleRotY + circZ * cosCircleRotY;",
+      "circX = tempX;",
+      "circZ = tempZ;",
+      "*x = circX;",
+      "*y = circY;",
+      "*z = circZ;"
+  };
+
+  public static void main(String[] args) {
+    FlameTransformationContext context = new FlameTransformationContext(null, new MarsagliaRandomGenerator(), 0);
+    GlynnSim2BFunc func = new GlynnSim2BFunc();
+    boolean ok = checkEmittedSource(func.getGPUCode(context) + "\n" + func.getGPUFunctions(context));
+    ok &= checkPaths();
+    System.out.println(ok ? "GlynnSim2B GPU parity: OK" : "GlynnSim2B GPU parity: FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  private static boolean checkPaths() {
+    boolean ok = true;
+    for (Object[] params : PARAM_SETS) {
+      GlynnSim2BFunc doublePath = new GlynnSim2BFunc();
+      GlynnSim2BFunc floatPath = new GlynnSim2BFunc();
+      for (int i = 0; i < params.length; i += 2) {
+        doublePath.setParameter((String) params[i], (Double) params[i + 1]);
+        floatPath.setParameter((String) params[i], (Double) params[i + 1]);
+      }
+      floatPath.setParameter("floatPreview", 1.0);
+      MarsagliaRandomGenerator doubleRandom = new MarsagliaRandomGenerator();
+      MarsagliaRandomGenerator floatRandom = new MarsagliaRandomGenerator();
+      FlameTransformationContext doubleContext = new FlameTransformationContext(null, doubleRandom, 0);
+      FlameTransformationContext floatContext = new FlameTransformationContext(null, floatRandom, 0);
+      doublePath.init(doubleContext, null, null, 1.0);
+      floatPath.init(floatContext, null, null, 1.0);
+
+      Random points = new Random(SEED);
+      double maxDiff = 0.0;
+      int outliers = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+        XYZPoint affine = new XYZPoint();
+        affine.x = (points.nextDouble() - 0.5) * 6.0;
+        affine.y = (points.nextDouble() - 0.5) * 6.0;
+        affine.z = points.nextDouble() - 0.5;
+        // reseed per point so a branch taken differently by the float path cannot shift later random numbers
+        doubleRandom.randomize(SEED + i);
+        floatRandom.randomize(SEED + i);
+        XYZPoint d = new XYZPoint();
+        XYZPoint f = new XYZPoint();
+        doublePath.transform(doubleContext, null, affine, d, 1.0);
+        floatPath.transform(floatContext, null, affine, f, 1.0);
+        double diff = relativeDifference(d, f);
+        if (diff > TOLERANCE || Double.isNaN(diff) != (Double.isNaN(d.x) || Double.isNaN(d.y))) {
+          outliers++;
+        } else if (!Double.isNaN(diff)) {
+          maxDiff = Math.max(maxDiff, diff);
+        }
+      }
+      boolean passed = outliers <= MAX_OUTLIER_FRACTION * SAMPLES;
+      System.out.printf("%s %s: max. relative difference %.3g, %d of %d above %.0e%n", passed ? "ok  " : "FAIL",
+          Arrays.toString(params), maxDiff, outliers, SAMPLES, TOLERANCE);
+      ok &= passed;
+    }
+    return ok;
+  }
+
+  private static boolean checkEmittedSource(String pEmitted) {
+    List<String> actual = new ArrayList<>();
+    for (String line : pEmitted.split("\n")) {
+      String statement = line.replace('\u00A0', ' ').trim().replaceAll("\\s+", " ");
+      if (statement.isEmpty() || statement.equals("{") || statement.equals("}")) continue;
+      actual.add(statement);
+    }
+    int n = Math.max(actual.size(), MIRRORED_GPU_STATEMENTS.length);
+    for (int i = 0; i < n; i++) {
+      String expected = i < MIRRORED_GPU_STATEMENTS.length ? MIRRORED_GPU_STATEMENTS[i] : "<none>";
+      String found = i < actual.size() ? actual.get(i) : "<none>";
+      if (!expected.equals(found)) {
+        System.out.println("GPU source drifted from the float kernel at statement " + (i + 1) + ":");
+        System.out.println("  float kernel mirrors: " + expected);
+        System.out.println("  getGPUCode emits:     " + found);
+        return false;
+      }
+    }
+    System.out.println("GPU source: " + actual.size() + " statements match the float kernel");
+    return true;
+  }
+
+  private static double relativeDifference(XYZPoint pDouble, XYZPoint pFloat) {
+    double scale = Math.max(1.0, Math.max(Math.abs(pDouble.x), Math.max(Math.abs(pDouble.y), Math.abs(pDouble.z))));
+    double d = Math.max(Math.abs(pDouble.x - pFloat.x), Math.max(Math.abs(pDouble.y - pFloat.y), Math.abs(pDouble.z - pFloat.z))) / scale;
+    // color is a palette index in [0, 1) that wraps around
+    double dc = Math.abs(pDouble.color - pFloat.color);
+    return Math.max(d, Math.min(dc, 1.0 - dc));
+  }
+}
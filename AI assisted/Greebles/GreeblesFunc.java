@@ -16,9 +16,11 @@
  */
 package org.jwildfire.create.tina.variation;
 
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
-import org.jwildfire.create.tina.random.MarsagliaRandomGenerator;
+
+import java.util.Arrays;
 
 import static java.lang.Math.*;
 
@@ -32,30 +34,294 @@ public class GreeblesFunc extends VariationFunc {
     private static final String PARAM_GREEBLE_SHAPE = "greeble_shape";
     private static final String PARAM_GREEBLE_HEIGHT = "greeble_height";
     private static final String PARAM_SEED = "seed";
+    private static final String PARAM_INSET = "inset";
+    private static final String PARAM_AREA_SAMPLING = "area_sampling";
 
-    private static final String[] paramNames = { PARAM_MODE, PARAM_BASE_SHAPE, PARAM_SIZE, PARAM_SUBDIVISIONS, PARAM_GREEBLE_SHAPE, PARAM_GREEBLE_HEIGHT, PARAM_SEED };
+    private static final String[] paramNames = { PARAM_MODE, PARAM_BASE_SHAPE, PARAM_SIZE, PARAM_SUBDIVISIONS, PARAM_GREEBLE_SHAPE, PARAM_GREEBLE_HEIGHT, PARAM_SEED, PARAM_INSET, PARAM_AREA_SAMPLING };
 
     // Defaults
     private int mode = 0; // 0=Solid, 1=Flame
     private int base_shape = 1; // 0=Sphere, 1=Cube, 2=Plane
     private double size = 2.0;
     private int subdivisions = 10;
-    private int greeble_shape = 0; // 0=Cube, 1=Cylinder, 2=Sphere, 3=Cone
+    private int greeble_shape = 0; // 0=Cube, 1=Cylinder, 2=Sphere, 3=Cone, 4=Mixed (random per cell)
     private double greeble_height = 0.2;
     private int seed = 12345;
+    private double inset = 0.0; // Max. random shrink of a greeble's footprint, 0..1
+    private int area_sampling = 0; // Flame mode only: 0=Cell from the input point, 1=Cell and face drawn by surface area
+
+    // Cell attribute channels of cellRandom()
+    private static final int CH_HEIGHT = 0;
+    private static final int CH_SHAPE = 1;
+    private static final int CH_INSET = 2;
+
+    // Frame layout: normal, tangent, bitangent
+    private static final int FRAME_SIZE = 9;
 
-    private transient MarsagliaRandomGenerator cell_rand = new MarsagliaRandomGenerator();
+    // Precomputed in init(): frames of the cube faces (+X, -X, +Y, -Y, +Z, -Z; the plane uses +Z), and
+    // cos/sin of the sphere grid's cell centers, indexed by cell + divs so that indices -divs..divs are valid
+    private transient double[] faceFrames;
+    private transient int u_divs, v_divs;
+    private transient double u_cell_size, v_cell_size;
+    private transient double[] uCos, uSin, vCos, vSin;
+
+    // Area sampling tables, built in init() for flame mode over every cell of the base shape (null if disabled).
+    // Cell layout: base (3), frame (9), footprint, height
+    private static final int CELL_SIZE = 14;
+    private static final int MAX_AREA_CELLS = 1 << 16;
+    private transient double[] areaCells;
+    private transient int[] areaCellShape;
+    private transient int[] entryCell, entryFace; // Face: cube 0=top, 1..4=walls; cylinder 0=top, 1=side; sphere/cone 1=side
+    private transient AliasTable areaAlias;
 
     // Helper methods
     private void cross(XYZPoint res, XYZPoint v1, XYZPoint v2) { res.x = v1.y * v2.z - v1.z * v2.y; res.y = v1.z * v2.x - v1.x * v2.z; res.z = v1.x * v2.y - v1.y * v2.x; }
     private void normalize(XYZPoint v) { double len = sqrt(v.x * v.x + v.y * v.y + v.z * v.z); if (len > 1e-9) { v.x /= len; v.y /= len; v.z /= len; } }
     private double frac(double n) { return n - floor(n); }
+
+    // Stateless per-cell random value in [0, 1), one independent value per attribute channel
+    private static double cellRandom(long ix, long iy, long iz, int seed, int channel) {
+        long h = ix * 0x9E3779B97F4A7C15L + iy * 0xC2B2AE3D27D4EB4FL + iz * 0x165667B19E3779F9L + seed * 0x27D4EB2F165667C5L + channel * 0x85EBCA77C2B2AE63L;
+        h ^= (h >>> 33); h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33); h *= 0xC4CEB9FE1A85EC53L;
+        h ^= (h >>> 33);
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    // Tangent frame of a surface normal, tangent = normal x up with up = +Y (or +X near the poles)
+    private void buildFrame(double[] fr, int off, double nx, double ny, double nz) {
+        XYZPoint p_normal = new XYZPoint(); p_normal.x = nx; p_normal.y = ny; p_normal.z = nz;
+        XYZPoint tangent = new XYZPoint(), bitangent = new XYZPoint(), up_vec = new XYZPoint(); up_vec.y = 1.0;
+        if (abs(p_normal.y) > 0.999) { up_vec.y = 0.0; up_vec.x = 1.0; }
+        cross(tangent, p_normal, up_vec); normalize(tangent);
+        cross(bitangent, p_normal, tangent); normalize(bitangent);
+        fr[off] = nx; fr[off + 1] = ny; fr[off + 2] = nz;
+        fr[off + 3] = tangent.x; fr[off + 4] = tangent.y; fr[off + 5] = tangent.z;
+        fr[off + 6] = bitangent.x; fr[off + 7] = bitangent.y; fr[off + 8] = bitangent.z;
+    }
+
+    @Override
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        faceFrames = new double[6 * FRAME_SIZE];
+        for (int face = 0; face < 6; face++) {
+            double sign = (face % 2 == 0) ? 1 : -1;
+            int axis = face / 2;
+            buildFrame(faceFrames, face * FRAME_SIZE, axis == 0 ? sign : 0, axis == 1 ? sign : 0, axis == 2 ? sign : 0);
+        }
+
+        u_divs = max(1, subdivisions * 2);
+        v_divs = max(1, subdivisions);
+        u_cell_size = (2.0 * PI) / u_divs;
+        v_cell_size = PI / v_divs;
+        uCos = new double[2 * u_divs + 1];
+        uSin = new double[2 * u_divs + 1];
+        for (int i = -u_divs; i <= u_divs; i++) {
+            double u_quantized = (double) i * u_cell_size + u_cell_size * 0.5;
+            uCos[i + u_divs] = cos(u_quantized);
+            uSin[i + u_divs] = sin(u_quantized);
+        }
+        vCos = new double[2 * v_divs + 1];
+        vSin = new double[2 * v_divs + 1];
+        for (int i = -v_divs; i <= v_divs; i++) {
+            double v_quantized = (double) i * v_cell_size + v_cell_size * 0.5;
+            vCos[i + v_divs] = cos(v_quantized);
+            vSin[i + v_divs] = sin(v_quantized);
+        }
+
+        buildAreaTable();
+    }
+
+    // Tabulates the greebles of all cells of the base shape with the surface area of their faces (tops plus side walls).
+    // Cells and attributes are the same as those the per-point path derives from a point
+    private void buildAreaTable() {
+        areaCells = null;
+        areaCellShape = null;
+        entryCell = null;
+        entryFace = null;
+        areaAlias = null;
+        if (mode != 1 || area_sampling == 0) return;
+
+        int cellCount;
+        int lo = 0, hi = -1;
+        double gbs;
+        if (base_shape == 0) {
+            // Flame mode takes v from atan2(z, r_xy) in [-PI/2, PI/2], so its rows are keyed from -v_divs/2 on
+            lo = max(-v_divs, (int) floor(-0.5 * PI / v_cell_size));
+            hi = min(v_divs, (int) ceil(0.5 * PI / v_cell_size) - 1);
+            cellCount = u_divs * (hi - lo + 1);
+            gbs = (PI * size) / (double) subdivisions;
+        } else {
+            gbs = (subdivisions > 0) ? size / subdivisions : size;
+            if (gbs < 1.0E-6) return;
+            double halfSize = size * 0.5;
+            lo = (int) floor(-halfSize / gbs);
+            hi = (int) ceil(halfSize / gbs) - 1;
+            int n = hi - lo + 1;
+            cellCount = (base_shape == 2 ? 1 : 6) * n * n;
+        }
+        if (cellCount <= 0 || cellCount > MAX_AREA_CELLS) return;
+
+        double[] cells = new double[cellCount * CELL_SIZE];
+        int[] shapes = new int[cellCount];
+        int c = 0;
+        if (base_shape == 0) {
+            double halfSize = size * 0.5;
+            for (int iv = lo; iv <= hi; iv++) {
+                for (int iu = 0; iu < u_divs; iu++) {
+                    double sin_v = vSin[iv + v_divs];
+                    double bx = halfSize * sin_v * uCos[iu + u_divs];
+                    double by = halfSize * sin_v * uSin[iu + u_divs];
+                    double bz = halfSize * vCos[iv + v_divs];
+                    double len = sqrt(bx * bx + by * by + bz * bz);
+                    double nx = bx, ny = by, nz = bz;
+                    if (len > 1e-9) { nx /= len; ny /= len; nz /= len; }
+                    int off = c * CELL_SIZE;
+                    cells[off] = bx; cells[off + 1] = by; cells[off + 2] = bz;
+                    buildFrame(cells, off + 3, nx, ny, nz);
+                    shapes[c] = setCellAttributes(cells, off, Math.floorMod(iu, u_divs), iv, -1, gbs);
+                    c++;
+                }
+            }
+        } else {
+            double halfSize = size * 0.5;
+            for (int face = (base_shape == 2 ? 4 : 0); face < (base_shape == 2 ? 5 : 6); face++) {
+                int axis = face / 2;
+                double fixed = (base_shape == 2) ? 0.0 : ((face % 2 == 0) ? halfSize : -halfSize);
+                int fixedIdx = (int) floor(fixed / gbs);
+                for (int j = lo; j <= hi; j++) {
+                    for (int i = lo; i <= hi; i++) {
+                        // Same axis order as the random face points of solid mode
+                        int ix = (axis == 0) ? fixedIdx : i;
+                        int iy = (axis == 0) ? i : ((axis == 1) ? fixedIdx : j);
+                        int iz = (axis == 2) ? fixedIdx : j;
+                        int off = c * CELL_SIZE;
+                        cells[off] = (double) ix * gbs + gbs * 0.5;
+                        cells[off + 1] = (double) iy * gbs + gbs * 0.5;
+                        cells[off + 2] = (double) iz * gbs + gbs * 0.5;
+                        System.arraycopy(faceFrames, face * FRAME_SIZE, cells, off + 3, FRAME_SIZE);
+                        shapes[c] = setCellAttributes(cells, off, ix, iy, iz, gbs);
+                        c++;
+                    }
+                }
+            }
+        }
+
+        // One entry per face with a non-zero area
+        double[] weights = new double[cellCount * 5];
+        int[] eCell = new int[cellCount * 5];
+        int[] eFace = new int[cellCount * 5];
+        int n = 0;
+        for (int k = 0; k < cellCount; k++) {
+            double r = cells[k * CELL_SIZE + 12] * 0.5;
+            double h = cells[k * CELL_SIZE + 13];
+            double top, side;
+            int sideFaces = 1;
+            switch (shapes[k]) {
+                case 1: // Cylinder
+                    top = PI * r * r;
+                    side = 2.0 * PI * r * h;
+                    break;
+                case 2: // Upper half of the ellipsoid with radii r, r, h (Thomsen's approximation)
+                    top = 0.0;
+                    double ap = pow(r, 1.6075), cp = pow(h, 1.6075);
+                    side = 2.0 * PI * pow((ap * ap + 2.0 * ap * cp) / 3.0, 1.0 / 1.6075);
+                    break;
+                case 3: // Cone, lateral surface
+                    top = 0.0;
+                    side = PI * r * sqrt(r * r + h * h);
+                    break;
+                case 0: // Cube
+                default:
+                    top = 4.0 * r * r;
+                    side = 2.0 * r * h;
+                    sideFaces = 4;
+                    break;
+            }
+            if (top > 0.0) { weights[n] = top; eCell[n] = k; eFace[n] = 0; n++; }
+            if (side > 0.0) {
+                for (int f = 1; f <= sideFaces; f++) { weights[n] = side; eCell[n] = k; eFace[n] = f; n++; }
+            }
+        }
+        if (n == 0) return;
+
+        areaCells = cells;
+        areaCellShape = shapes;
+        entryCell = Arrays.copyOf(eCell, n);
+        entryFace = Arrays.copyOf(eFace, n);
+        areaAlias = new AliasTable(Arrays.copyOf(weights, n));
+    }
+
+    // Stores footprint and height of a cell and returns its greeble shape, as in transform()
+    private int setCellAttributes(double[] cells, int off, long cell_a, long cell_b, long cell_c, double greeble_base_size) {
+        double height = greeble_height * cellRandom(cell_a, cell_b, cell_c, seed, CH_HEIGHT);
+        int shape = (greeble_shape == 4) ? (int)(cellRandom(cell_a, cell_b, cell_c, seed, CH_SHAPE) * 4) : greeble_shape;
+        if (inset > 0.0) greeble_base_size *= 1.0 - inset * cellRandom(cell_a, cell_b, cell_c, seed, CH_INSET);
+        cells[off + 12] = greeble_base_size;
+        cells[off + 13] = height;
+        return shape;
+    }
+
+    // Flame mode with area sampling: the face is drawn by area, the input point's fractional x/y parametrize the position on it
+    private void transformAreaSampled(FlameTransformationContext pContext, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+        int e = areaAlias.sample(pContext.random());
+        int k = entryCell[e];
+        int face = entryFace[e];
+        final double[] cells = areaCells;
+        int off = k * CELL_SIZE;
+        double fp = cells[off + 12];
+        double r = fp * 0.5;
+        double h = cells[off + 13];
+        double s = frac(pAffineTP.x), t = frac(pAffineTP.y);
+
+        double u, v, w;
+        switch (areaCellShape[k]) {
+            case 1: // Cylinder
+                if (face == 0) {
+                    double rr = r * sqrt(s), a = 2.0 * PI * t;
+                    u = cos(a) * rr; v = sin(a) * rr; w = h;
+                } else {
+                    double a = 2.0 * PI * s;
+                    u = cos(a) * r; v = sin(a) * r; w = t * h;
+                }
+                break;
+            case 2: { // Sphere, upper half; uniform height gives uniform area on a round dome
+                double a = 2.0 * PI * t, rho = sqrt(1.0 - s * s);
+                u = cos(a) * rho * r; v = sin(a) * rho * r; w = s * h;
+                break;
+            }
+            case 3: { // Cone, distance from the apex ~ sqrt for uniform area
+                double q = sqrt(s), a = 2.0 * PI * t;
+                u = cos(a) * r * q; v = sin(a) * r * q; w = h * (1.0 - q);
+                break;
+            }
+            case 0: // Cube
+            default:
+                switch (face) {
+                    case 0: u = (s - 0.5) * fp; v = (t - 0.5) * fp; w = h; break;
+                    case 1: u = r; v = (s - 0.5) * fp; w = t * h; break;
+                    case 2: u = -r; v = (s - 0.5) * fp; w = t * h; break;
+                    case 3: u = (s - 0.5) * fp; v = r; w = t * h; break;
+                    default: u = (s - 0.5) * fp; v = -r; w = t * h; break;
+                }
+                break;
+        }
+
+        double final_x = cells[off] + cells[off + 6] * u + cells[off + 9] * v + cells[off + 3] * w;
+        double final_y = cells[off + 1] + cells[off + 7] * u + cells[off + 10] * v + cells[off + 4] * w;
+        double final_z = cells[off + 2] + cells[off + 8] * u + cells[off + 11] * v + cells[off + 5] * w;
+
+        pVarTP.x += final_x * pAmount;
+        pVarTP.y += final_y * pAmount;
+        pVarTP.z += final_z * pAmount;
+    }
     
     @Override
     public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+        if (areaAlias != null) { transformAreaSampled(pContext, pAffineTP, pVarTP, pAmount); return; }
         
-        XYZPoint p_greeble_base = new XYZPoint();
-        XYZPoint p_normal = new XYZPoint();
+        double base_x, base_y, base_z;                // Greeble base (cell center on the surface)
+        double n_x, n_y, n_z, t_x, t_y, t_z, b_x, b_y, b_z; // Normal, tangent, bitangent
+        long cell_a, cell_b, cell_c;
         double greeble_base_size;
 
         if (base_shape == 0) { // Sphere - Use a spherical coordinate grid (UV grid)
@@ -71,74 +337,85 @@ public class GreeblesFunc extends VariationFunc {
                 v_angle = acos(2.0 * pContext.random() - 1.0);
             }
             
-            int u_divs = max(1, subdivisions * 2);
-            int v_divs = max(1, subdivisions);
-
-            double u_cell_size = (2.0 * PI) / u_divs;
-            double v_cell_size = PI / v_divs;
-            double u_quantized = floor(u_angle / u_cell_size) * u_cell_size + u_cell_size * 0.5;
-            double v_quantized = floor(v_angle / v_cell_size) * v_cell_size + v_cell_size * 0.5;
+            int iu = max(-u_divs, min(u_divs, (int)floor(u_angle / u_cell_size)));
+            int iv = max(-v_divs, min(v_divs, (int)floor(v_angle / v_cell_size)));
+            double sin_v = vSin[iv + v_divs];
             
-            p_greeble_base.x = halfSize * sin(v_quantized) * cos(u_quantized);
-            p_greeble_base.y = halfSize * sin(v_quantized) * sin(u_quantized);
-            p_greeble_base.z = halfSize * cos(v_quantized);
+            base_x = halfSize * sin_v * uCos[iu + u_divs];
+            base_y = halfSize * sin_v * uSin[iu + u_divs];
+            base_z = halfSize * vCos[iv + v_divs];
             
-            p_normal.assign(p_greeble_base);
-            normalize(p_normal);
+            double len = sqrt(base_x * base_x + base_y * base_y + base_z * base_z);
+            n_x = base_x; n_y = base_y; n_z = base_z;
+            if (len > 1e-9) { n_x /= len; n_y /= len; n_z /= len; }
+            // tangent = normal x up, bitangent = normal x tangent
+            double up_x = 0.0, up_y = 1.0;
+            if (abs(n_y) > 0.999) { up_y = 0.0; up_x = 1.0; }
+            t_x = n_y * 0.0 - n_z * up_y; t_y = n_z * up_x - n_x * 0.0; t_z = n_x * up_y - n_y * up_x;
+            len = sqrt(t_x * t_x + t_y * t_y + t_z * t_z);
+            if (len > 1e-9) { t_x /= len; t_y /= len; t_z /= len; }
+            b_x = n_y * t_z - n_z * t_y; b_y = n_z * t_x - n_x * t_z; b_z = n_x * t_y - n_y * t_x;
+            len = sqrt(b_x * b_x + b_y * b_y + b_z * b_z);
+            if (len > 1e-9) { b_x /= len; b_y /= len; b_z /= len; }
+
+            cell_a = Math.floorMod(iu, u_divs); cell_b = iv; cell_c = -1;
             greeble_base_size = (PI * size) / (double)subdivisions;
         }
         else { // Cube and Plane - Use a Cartesian grid
-            XYZPoint p_on_surface = new XYZPoint();
-            if(mode == 1) { p_on_surface.assign(pAffineTP); } else {
+            double s_x, s_y, s_z;
+            if(mode == 1) { s_x = pAffineTP.x; s_y = pAffineTP.y; s_z = pAffineTP.z; } else {
                 if(base_shape == 2) { // Plane
-                    p_on_surface.x = (pContext.random() - 0.5) * size; p_on_surface.y = (pContext.random() - 0.5) * size; p_on_surface.z = 0.0;
+                    s_x = (pContext.random() - 0.5) * size; s_y = (pContext.random() - 0.5) * size; s_z = 0.0;
                 } else { // Cube
                     int face = (int)(pContext.random() * 6);
                     double u_r = (pContext.random() - 0.5) * size, v_r = (pContext.random() - 0.5) * size;
                     double hs = size * 0.5;
                     switch(face) {
-                        case 0: p_on_surface.x=hs; p_on_surface.y=u_r; p_on_surface.z=v_r; break;
-                        case 1: p_on_surface.x=-hs; p_on_surface.y=u_r; p_on_surface.z=v_r; break;
-                        case 2: p_on_surface.x=u_r; p_on_surface.y=hs; p_on_surface.z=v_r; break;
-                        case 3: p_on_surface.x=u_r; p_on_surface.y=-hs; p_on_surface.z=v_r; break;
-                        case 4: p_on_surface.x=u_r; p_on_surface.y=v_r; p_on_surface.z=hs; break;
-                        case 5: p_on_surface.x=u_r; p_on_surface.y=v_r; p_on_surface.z=-hs; break;
+                        case 0: s_x=hs; s_y=u_r; s_z=v_r; break;
+                        case 1: s_x=-hs; s_y=u_r; s_z=v_r; break;
+                        case 2: s_x=u_r; s_y=hs; s_z=v_r; break;
+                        case 3: s_x=u_r; s_y=-hs; s_z=v_r; break;
+                        case 4: s_x=u_r; s_y=v_r; s_z=hs; break;
+                        default: s_x=u_r; s_y=v_r; s_z=-hs; break;
                     }
                 }
             }
             
             double halfSize = size*0.5;
-            if (base_shape == 2) { p_on_surface.z=0; p_normal.x=0; p_normal.y=0; p_normal.z=1;}
+            int frame; // Index into faceFrames
+            if (base_shape == 2) { s_z=0; frame = 4; }
             else {
-                double absX=abs(p_on_surface.x), absY=abs(p_on_surface.y), absZ=abs(p_on_surface.z);
-                if(absX>=absY && absX>=absZ){p_on_surface.x=(p_on_surface.x>0)?halfSize:-halfSize; p_normal.x=(p_on_surface.x>0)?1:-1;p_normal.y=0;p_normal.z=0;}
-                else if(absY>=absX && absY>=absZ){p_on_surface.y=(p_on_surface.y>0)?halfSize:-halfSize; p_normal.x=0; p_normal.y=(p_on_surface.y>0)?1:-1;p_normal.z=0;}
-                else{p_on_surface.z=(p_on_surface.z>0)?halfSize:-halfSize; p_normal.x=0; p_normal.y=0;p_normal.z=(p_on_surface.z>0)?1:-1;}
+                double absX=abs(s_x), absY=abs(s_y), absZ=abs(s_z);
+                if(absX>=absY && absX>=absZ){s_x=(s_x>0)?halfSize:-halfSize; frame=(s_x>0)?0:1;}
+                else if(absY>=absX && absY>=absZ){s_y=(s_y>0)?halfSize:-halfSize; frame=(s_y>0)?2:3;}
+                else{s_z=(s_z>0)?halfSize:-halfSize; frame=(s_z>0)?4:5;}
             }
+            final double[] fr = faceFrames;
+            int f = frame * FRAME_SIZE;
+            n_x = fr[f]; n_y = fr[f + 1]; n_z = fr[f + 2];
+            t_x = fr[f + 3]; t_y = fr[f + 4]; t_z = fr[f + 5];
+            b_x = fr[f + 6]; b_y = fr[f + 7]; b_z = fr[f + 8];
 
              greeble_base_size = (subdivisions > 0) ? size / subdivisions : size;
              if (greeble_base_size < 1.0E-6) { pVarTP.doHide = true; return; }
-             int ix = (int)floor(p_on_surface.x / greeble_base_size);
-             int iy = (int)floor(p_on_surface.y / greeble_base_size);
-             int iz = (int)floor(p_on_surface.z / greeble_base_size);
-             p_greeble_base.x = (double)ix * greeble_base_size + greeble_base_size * 0.5;
-             p_greeble_base.y = (double)iy * greeble_base_size + greeble_base_size * 0.5;
-             p_greeble_base.z = (double)iz * greeble_base_size + greeble_base_size * 0.5;
+             int ix = (int)floor(s_x / greeble_base_size);
+             int iy = (int)floor(s_y / greeble_base_size);
+             int iz = (int)floor(s_z / greeble_base_size);
+             base_x = (double)ix * greeble_base_size + greeble_base_size * 0.5;
+             base_y = (double)iy * greeble_base_size + greeble_base_size * 0.5;
+             base_z = (double)iz * greeble_base_size + greeble_base_size * 0.5;
+             cell_a = ix; cell_b = iy; cell_c = iz;
         }
         
-        long cell_seed = seed + (long)(p_greeble_base.x*100) * 73856093L ^ (long)(p_greeble_base.y*100) * 19349663L ^ (long)(p_greeble_base.z*100) * 83492791L;
-        cell_rand.randomize(cell_seed);
-        double height = greeble_height * cell_rand.random();
-        
-        XYZPoint tangent = new XYZPoint(), bitangent = new XYZPoint(), up_vec = new XYZPoint(); up_vec.y = 1.0;
-        if (abs(p_normal.y) > 0.999) { up_vec.y = 0.0; up_vec.x = 1.0; }
-        cross(tangent, p_normal, up_vec); normalize(tangent);
-        cross(bitangent, p_normal, tangent); normalize(bitangent);
+        // Per-cell attributes
+        double height = greeble_height * cellRandom(cell_a, cell_b, cell_c, seed, CH_HEIGHT);
+        int shape = (greeble_shape == 4) ? (int)(cellRandom(cell_a, cell_b, cell_c, seed, CH_SHAPE) * 4) : greeble_shape;
+        if (inset > 0.0) greeble_base_size *= 1.0 - inset * cellRandom(cell_a, cell_b, cell_c, seed, CH_INSET);
 
         double u=0, v=0, w=0;
 
         if (mode == 0) { // Solid Mode
-            switch(greeble_shape) {
+            switch(shape) {
                 case 1: // Cylinder
                     double angle_cyl = pContext.random() * 2.0 * PI, radius_cyl = (greeble_base_size * 0.5) * sqrt(pContext.random());
                     u = cos(angle_cyl) * radius_cyl; v = sin(angle_cyl) * radius_cyl; w = pContext.random() * height;
@@ -162,15 +439,14 @@ public class GreeblesFunc extends VariationFunc {
                     break;
             }
         } else { // Flame Mode
-            XYZPoint relative_p = new XYZPoint();
-            relative_p.x = pAffineTP.x - p_greeble_base.x;
-            relative_p.y = pAffineTP.y - p_greeble_base.y;
-            relative_p.z = pAffineTP.z - p_greeble_base.z;
-            double local_u = relative_p.x * tangent.x + relative_p.y * tangent.y + relative_p.z * tangent.z;
-            double local_v = relative_p.x * bitangent.x + relative_p.y * bitangent.y + relative_p.z * bitangent.z;
-            double local_w = relative_p.x * p_normal.x + relative_p.y * p_normal.y + relative_p.z * p_normal.z;
+            double rel_x = pAffineTP.x - base_x;
+            double rel_y = pAffineTP.y - base_y;
+            double rel_z = pAffineTP.z - base_z;
+            double local_u = rel_x * t_x + rel_y * t_y + rel_z * t_z;
+            double local_v = rel_x * b_x + rel_y * b_y + rel_z * b_z;
+            double local_w = rel_x * n_x + rel_y * n_y + rel_z * n_z;
             
-            switch(greeble_shape) {
+            switch(shape) {
                 case 1: // Cylinder
                     double angle_cyl = atan2(local_v, local_u);
                     double radius_cyl_base = sqrt(local_u*local_u + local_v*local_v);
@@ -198,21 +474,67 @@ public class GreeblesFunc extends VariationFunc {
             }
         }
 
-        double final_x = p_greeble_base.x + (tangent.x * u) + (bitangent.x * v) + (p_normal.x * w);
-        double final_y = p_greeble_base.y + (tangent.y * u) + (bitangent.y * v) + (p_normal.y * w);
-        double final_z = p_greeble_base.z + (tangent.z * u) + (bitangent.z * v) + (p_normal.z * w);
+        double final_x = base_x + (t_x * u) + (b_x * v) + (n_x * w);
+        double final_y = base_y + (t_y * u) + (b_y * v) + (n_y * w);
+        double final_z = base_z + (t_z * u) + (b_z * v) + (n_z * w);
 
         pVarTP.x += final_x * pAmount;
         pVarTP.y += final_y * pAmount;
         pVarTP.z += final_z * pAmount;
     }
 
+    /** Walker/Vose alias table: draws index i with probability weights[i] / sum(weights) in O(1). */
+    private static final class AliasTable {
+        final double[] prob;
+        final int[] alias;
+
+        AliasTable(double[] weights) {
+            int n = weights.length;
+            prob = new double[n];
+            alias = new int[n];
+            double sum = 0.0;
+            for (double w : weights) sum += w;
+            if (n == 0 || sum <= 0.0) {
+                Arrays.fill(prob, 1.0);
+                return;
+            }
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int ns = 0, nl = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / sum;
+                if (scaled[i] < 1.0) small[ns++] = i;
+                else large[nl++] = i;
+            }
+            while (ns > 0 && nl > 0) {
+                int l = small[--ns];
+                int g = large[--nl];
+                prob[l] = scaled[l];
+                alias[l] = g;
+                scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+                if (scaled[g] < 1.0) small[ns++] = g;
+                else large[nl++] = g;
+            }
+            while (nl > 0) prob[large[--nl]] = 1.0;
+            while (ns > 0) prob[small[--ns]] = 1.0;
+        }
+
+        int sample(double rnd) {
+            int n = prob.length;
+            double u = rnd * n;
+            int i = (int) u;
+            if (i >= n) i = n - 1;
+            return (u - i < prob[i]) ? i : alias[i];
+        }
+    }
+
     @Override
     public String[] getParameterNames() { return paramNames; }
 
     @Override
     public Object[] getParameterValues() {
-        return new Object[]{ mode, base_shape, size, subdivisions, greeble_shape, greeble_height, seed };
+        return new Object[]{ mode, base_shape, size, subdivisions, greeble_shape, greeble_height, seed, inset, area_sampling };
     }
 
     @Override
@@ -224,6 +546,8 @@ public class GreeblesFunc extends VariationFunc {
         else if (PARAM_GREEBLE_SHAPE.equalsIgnoreCase(pName)) greeble_shape = (int) pValue;
         else if (PARAM_GREEBLE_HEIGHT.equalsIgnoreCase(pName)) greeble_height = pValue;
         else if (PARAM_SEED.equalsIgnoreCase(pName)) seed = (int) pValue;
+        else if (PARAM_INSET.equalsIgnoreCase(pName)) inset = max(0.0, min(1.0, pValue));
+        else if (PARAM_AREA_SAMPLING.equalsIgnoreCase(pName)) area_sampling = (int) pValue;
         else throw new IllegalArgumentException(pName);
     }
     
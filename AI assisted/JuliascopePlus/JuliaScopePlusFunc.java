@@ -64,6 +64,24 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
 
     private int absPowerForRandomBranches;
 
+    // Branch angles 2*PI*k/N for k = 0..N-1 with the angular offset folded in. A branch term of
+    // -2*PI*k/N reads entry (N - k) % N. Above MAX_BRANCH_TABLE the full angle is evaluated per point.
+    private static final int MAX_BRANCH_TABLE = 4096;
+    private transient double[] branchCos;
+    private transient double[] branchSin;
+    // (x + iy)^(1/2) via complex sqrt instead of atan2/sin/cos when |power| == 2 and there is no swirl
+    private transient boolean sqrtRootPath;
+    // exponents of r^2 for effectivePower == +N and == -N, and which sqrt shortcut applies to each
+    private transient double cPowerPos, cPowerNeg;
+    private transient int radialModePos, radialModeNeg;
+    private static final int RADIAL_POW = 0;
+    private static final int RADIAL_SQRT = 1; // 1/2
+    private static final int RADIAL_INV_SQRT = 2; // -1/2
+    private static final int RADIAL_QUARTER = 3; // 1/4
+    private static final int RADIAL_INV_QUARTER = 4; // -1/4
+    private transient double altCos, altSin;
+    private transient int fixedBranchIdx, thetaSignModeIdx, rndTermModeIdx, colorModeIdx;
+
     @Override
     public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
         if (this.power == 0) {
@@ -71,6 +89,52 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
         } else {
             this.absPowerForRandomBranches = Math.max(1, iabs(Tools.FTOI(this.power)));
         }
+        int n = this.absPowerForRandomBranches;
+
+        if (n <= MAX_BRANCH_TABLE) {
+            branchCos = new double[n];
+            branchSin = new double[n];
+            for (int k = 0; k < n; k++) {
+                double b = 2.0 * M_PI * k / n + this.angularOffset;
+                branchCos[k] = cos(b);
+                branchSin[k] = sin(b);
+            }
+        } else {
+            branchCos = null;
+            branchSin = null;
+        }
+        sqrtRootPath = (n == 2) && (this.swirlFactor == 0.0);
+
+        cPowerPos = this.dist / n * 0.5;
+        cPowerNeg = this.dist / (-n) * 0.5;
+        radialModePos = radialMode(cPowerPos);
+        radialModeNeg = radialMode(cPowerNeg);
+
+        altCos = cos(this.altPowerRotate);
+        altSin = sin(this.altPowerRotate);
+
+        fixedBranchIdx = (int) round(this.fixedBranch);
+        thetaSignModeIdx = (int) round(this.thetaSignMode);
+        rndTermModeIdx = (int) round(this.rndTermMode);
+        colorModeIdx = (int) round(this.colorMode);
+    }
+
+    private static int radialMode(double pExponent) {
+        if (pExponent == 0.5) return RADIAL_SQRT;
+        if (pExponent == -0.5) return RADIAL_INV_SQRT;
+        if (pExponent == 0.25) return RADIAL_QUARTER;
+        if (pExponent == -0.25) return RADIAL_INV_QUARTER;
+        return RADIAL_POW;
+    }
+
+    private static double radialPow(double pR2, double pExponent, int pMode) {
+        switch (pMode) {
+            case RADIAL_SQRT: return sqrt(pR2);
+            case RADIAL_INV_SQRT: return 1.0 / sqrt(pR2);
+            case RADIAL_QUARTER: return sqrt(sqrt(pR2));
+            case RADIAL_INV_QUARTER: return 1.0 / sqrt(sqrt(pR2));
+            default: return pow(pR2, pExponent);
+        }
     }
 
     @Override
@@ -80,7 +144,6 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
 
     public void transformFunction(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
         int effectivePower = this.power;
-        double currentCPower;
         boolean applyAltTransform = false; 
         boolean signWasFlippedForColor = false; 
 
@@ -113,50 +176,84 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
             }
             return;
         }
-        
-        currentCPower = this.dist / effectivePower * 0.5;
 
+        // |effectivePower| is always absPowerForRandomBranches from here on
+        int numBranches = this.absPowerForRandomBranches;
         int rnd;
-        int currentFixedBranchVal = (int)round(this.fixedBranch);
-        int numBranches = this.absPowerForRandomBranches > 0 ? this.absPowerForRandomBranches : 1;
-        if (currentFixedBranchVal >= 0 && currentFixedBranchVal < numBranches) {
-            rnd = currentFixedBranchVal;
+        if (fixedBranchIdx >= 0 && fixedBranchIdx < numBranches) {
+            rnd = fixedBranchIdx;
         } else {
             rnd = pContext.random(numBranches);
         }
-        
-        double theta = atan2(pAffineTP.y, pAffineTP.x);
-        double a;
 
         double thetaTermSign = 1.0;
-        int currentTSM = (int)round(this.thetaSignMode);
-        if (currentTSM == 0) { if ((rnd & 1) != 0) thetaTermSign = -1.0; }
-        else if (currentTSM == 1) { thetaTermSign = 1.0; }
-        else if (currentTSM == 2) { thetaTermSign = -1.0; }
-        else if (currentTSM == 3) { thetaTermSign = (pContext.random(2) == 0) ? 1.0 : -1.0; }
+        if (thetaSignModeIdx == 0) { if ((rnd & 1) != 0) thetaTermSign = -1.0; }
+        else if (thetaSignModeIdx == 2) { thetaTermSign = -1.0; }
+        else if (thetaSignModeIdx == 3) { thetaTermSign = (pContext.random(2) == 0) ? 1.0 : -1.0; }
 
         double rndTermComponentSign = 1.0;
-        int currentRTM = (int)round(this.rndTermMode);
-        if (currentRTM == 1) { rndTermComponentSign = -1.0; } // Always -
-        else if (currentRTM == 2) { if ((rnd & 1) != 0) rndTermComponentSign = -1.0; } // Based on rnd parity
-        else if (currentRTM == 3) { rndTermComponentSign = (pContext.random(2) == 0) ? 1.0 : -1.0; } // Random independent
-        // if currentRTM == 0, rndTermComponentSign remains 1.0 (always +)
-
-        a = ( (rndTermComponentSign * 2.0 * M_PI * rnd) + (thetaTermSign * theta) ) / effectivePower;
-        
-        if (this.swirlFactor != 0.0) {
-            double original_r = sqrt(sqr(pAffineTP.x) + sqr(pAffineTP.y));
-            if (original_r > 0.00001) { 
-                a += this.swirlFactor * log(1.0 + original_r);
+        if (rndTermModeIdx == 1) { rndTermComponentSign = -1.0; } // Always -
+        else if (rndTermModeIdx == 2) { if ((rnd & 1) != 0) rndTermComponentSign = -1.0; } // Based on rnd parity
+        else if (rndTermModeIdx == 3) { rndTermComponentSign = (pContext.random(2) == 0) ? 1.0 : -1.0; } // Random independent
+
+        // a = (rndTermComponentSign * 2*PI*rnd + thetaTermSign * theta) / effectivePower + swirl + angularOffset
+        // is split into the tabulated branch part (incl. angularOffset) and the continuous part phi.
+        boolean positivePower = effectivePower > 0;
+        double x = pAffineTP.x;
+        double y = pAffineTP.y;
+        double r_base_sq = sqr(x) + sqr(y);
+        double thetaSign = positivePower ? thetaTermSign : -thetaTermSign;
+        double theta = 0.0;
+        boolean thetaKnown = false;
+        double swirlTerm = 0.0;
+        double cosPhi, sinPhi;
+        if (sqrtRootPath && r_base_sq > 0.0) {
+            // half angle of (x, y) from the principal complex square root
+            double r = sqrt(r_base_sq);
+            double u = sqrt((r + fabs(x)) / (2.0 * r));
+            double v = fabs(y) / (2.0 * r * u);
+            if (x >= 0.0) {
+                cosPhi = u;
+                sinPhi = Math.copySign(v, y);
+            } else {
+                cosPhi = v;
+                sinPhi = Math.copySign(u, y);
+            }
+            sinPhi *= thetaSign;
+        } else {
+            theta = atan2(y, x);
+            thetaKnown = true;
+            double phi = thetaSign * theta / numBranches;
+            if (this.swirlFactor != 0.0) {
+                double original_r = sqrt(r_base_sq);
+                if (original_r > 0.00001) { 
+                    swirlTerm = this.swirlFactor * log(1.0 + original_r);
+                    phi += swirlTerm;
+                }
+            }
+            if (branchCos == null) {
+                // no table: evaluate the whole angle at once
+                phi += rndTermComponentSign * 2.0 * M_PI * rnd / effectivePower + this.angularOffset;
             }
+            cosPhi = cos(phi);
+            sinPhi = sin(phi);
+        }
+
+        double cosa, sina;
+        if (branchCos != null) {
+            boolean positiveBranch = (rndTermComponentSign > 0.0) == positivePower;
+            int idx = positiveBranch || rnd == 0 ? rnd : numBranches - rnd;
+            double cosBranch = branchCos[idx];
+            double sinBranch = branchSin[idx];
+            cosa = cosBranch * cosPhi - sinBranch * sinPhi;
+            sina = sinBranch * cosPhi + cosBranch * sinPhi;
+        } else {
+            cosa = cosPhi;
+            sina = sinPhi;
         }
-        a += this.angularOffset;
-        
-        double sina = sin(a);
-        double cosa = cos(a);
 
-        double r_base_sq = sqr(pAffineTP.x) + sqr(pAffineTP.y);
-        double r_component_magnitude = pow(max(0.0, r_base_sq), currentCPower) + this.radialOffset;
+        double r_component_magnitude = (positivePower ? radialPow(max(0.0, r_base_sq), cPowerPos, radialModePos)
+                : radialPow(max(0.0, r_base_sq), cPowerNeg, radialModeNeg)) + this.radialOffset;
         
         double dx_component = r_component_magnitude * cosa;
         double dy_component = r_component_magnitude * sina;
@@ -166,10 +263,8 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
             dy_component *= this.altPowerScale;
 
             if (this.altPowerRotate != 0.0) {
-                double cosRot = cos(this.altPowerRotate);
-                double sinRot = sin(this.altPowerRotate);
-                double temp_dx = dx_component * cosRot - dy_component * sinRot;
-                dy_component = dx_component * sinRot + dy_component * cosRot;
+                double temp_dx = dx_component * altCos - dy_component * altSin;
+                dy_component = dx_component * altSin + dy_component * altCos;
                 dx_component = temp_dx;
             }
         }
@@ -187,12 +282,23 @@ public class JuliaScopePlusFunc extends VariationFunc implements SupportsGPU {
         pVarTP.x += pAmount * (dx_component + addX);
         pVarTP.y += pAmount * (dy_component + addY);
         
-        // Color Logic (no changes here from last version)
-        int currentCM = (int)round(this.colorMode);
+        // Color Logic: mode 1 rebuilds the branch angle from its terms; modes 1 and 3 need theta,
+        // which the sqrt path does not compute, so atan2 runs here only for them
+        int currentCM = colorModeIdx;
         if (currentCM != 0) {
+            if ((currentCM == 1 || currentCM == 3) && !thetaKnown) {
+                theta = atan2(y, x);
+            }
             double calculatedColorValue = 0.0;
             switch (currentCM) {
-                case 1: calculatedColorValue = a / (2.0 * M_PI); break;
+                case 1: {
+                    // swirlTerm is 0 on the sqrt path, which only runs without swirl
+                    double a = ((rndTermComponentSign * 2.0 * M_PI * rnd) + (thetaTermSign * theta)) / effectivePower;
+                    a += swirlTerm;
+                    a += this.angularOffset;
+                    calculatedColorValue = a / (2.0 * M_PI);
+                    break;
+                }
                 case 2: calculatedColorValue = log(1.00001 + max(0,r_component_magnitude)); break;
                 case 3: calculatedColorValue = (theta + M_PI) / (2.0 * M_PI); break;
                 case 4:
@@ -16,11 +16,18 @@
  */
 package org.jwildfire.create.tina.variation;
 
+import java.util.Arrays;
 import java.util.Random;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 import static java.lang.Math.sqrt;
 import static java.lang.Math.abs;
+import static java.lang.Math.cbrt;
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 public class NaturalFoamFunc extends VariationFunc {
   private static final long serialVersionUID = 1L;
@@ -37,8 +44,16 @@ public class NaturalFoamFunc extends VariationFunc {
   private static final String PARAM_BLUR_QUALITY = "blur_quality";
   private static final String PARAM_COLOR_DATA = "color_data";
   private static final String PARAM_ZOOM = "zoom";
+  private static final String PARAM_VOXEL_RES = "voxel_res";
+  private static final String PARAM_LAYOUT = "layout";
+  private static final String PARAM_RELAX_STEPS = "relax_steps";
   
-  private static final String[] paramNames = {PARAM_DENSITY, PARAM_ITERATIONS, PARAM_SCALE, PARAM_SPREAD, PARAM_MIN_RADIUS, PARAM_MAX_RADIUS, PARAM_SEED, PARAM_SHAPE_AMOUNT, PARAM_BLUR_RADIUS, PARAM_BLUR_QUALITY, PARAM_COLOR_DATA, PARAM_ZOOM};
+  private static final String[] paramNames = {PARAM_DENSITY, PARAM_ITERATIONS, PARAM_SCALE, PARAM_SPREAD, PARAM_MIN_RADIUS, PARAM_MAX_RADIUS, PARAM_SEED, PARAM_SHAPE_AMOUNT, PARAM_BLUR_RADIUS, PARAM_BLUR_QUALITY, PARAM_COLOR_DATA, PARAM_ZOOM, PARAM_VOXEL_RES, PARAM_LAYOUT, PARAM_RELAX_STEPS};
+
+  // Number of Bridson samples per unit volume is about 1 / (POISSON_PACKING * d^3) once the sampler saturates
+  private static final double POISSON_PACKING = 1.6;
+  private static final int POISSON_CANDIDATES = 30;
+  private static final int LLOYD_SAMPLES_PER_BUBBLE = 16;
 
   private int density = 50;
   private int iterations = 3;
@@ -52,57 +67,498 @@ public class NaturalFoamFunc extends VariationFunc {
   private int blur_quality = 1;
   private int color_data = 0;
   private double zoom = 1.0;
+  private int voxel_res = 0;
+  private int layout = 0; // 0 = Random, 1 = Packed (Poisson-disk)
+  private int relax_steps = 0;
+
+  private transient BubbleSet foam;
+  private transient VoxelField field;
+
+  /**
+   * Immutable snapshot of the bubble layout, built once in init() and only read by transform().
+   * Bubble data is held as flat arrays (structure of arrays) next to a uniform 3D grid over the
+   * bounding box of all bubbles, stored as flat CSR-style index lists.
+   * The overlap lists hold, per cell and in ascending bubble order, every bubble whose bounding box
+   * touches the cell, so any bubble containing a point is found in the point's own cell.
+   * The center lists hold each bubble exactly once (in the cell of its center) and drive the
+   * ring search for the nearest bubble center.
+   */
+  private static final class BubbleSet {
+    private static final int MAX_RES = 64;
+
+    final int count;
+    final double[] x, y, z, radius, radiusSq;
+
+    final int res;
+    final double minX, minY, minZ, maxX, maxY, maxZ;
+    final double cellSize, invCellSize;
+    final int[] overlapStart, centerStart;
+    final int[] overlapItems, centerItems;
+
+    BubbleSet(double[] x, double[] y, double[] z, double[] radius) {
+      int n = x.length;
+      this.count = n;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.radius = radius;
+      this.radiusSq = new double[n];
+      double lx = Double.MAX_VALUE, ly = Double.MAX_VALUE, lz = Double.MAX_VALUE;
+      double hx = -Double.MAX_VALUE, hy = -Double.MAX_VALUE, hz = -Double.MAX_VALUE;
+      double radiusSum = 0.0;
+      for (int j = 0; j < n; j++) {
+        double r = abs(radius[j]);
+        radiusSq[j] = radius[j] * radius[j];
+        lx = min(lx, x[j] - r); ly = min(ly, y[j] - r); lz = min(lz, z[j] - r);
+        hx = max(hx, x[j] + r); hy = max(hy, y[j] + r); hz = max(hz, z[j] + r);
+        radiusSum += r;
+      }
+      if (n == 0) {
+        lx = ly = lz = hx = hy = hz = 0.0;
+      }
+      minX = lx; minY = ly; minZ = lz;
+      maxX = hx; maxY = hy; maxZ = hz;
+
+      // Aim for cells about one mean radius wide, but never much finer than the bubble count warrants
+      double extent = max(max(hx - lx, hy - ly), max(hz - lz, 1.0E-9));
+      double meanRadius = (n > 0) ? radiusSum / n : 0.0;
+      int byRadius = (meanRadius > 1.0E-9) ? (int) ceil(extent / meanRadius) : MAX_RES;
+      int byCount = (int) ceil(2.0 * cbrt(n)) + 1;
+      res = max(1, min(MAX_RES, min(byRadius, byCount)));
+      cellSize = extent / res;
+      invCellSize = 1.0 / cellSize;
+
+      int cellCount = res * res * res;
+      overlapStart = new int[cellCount + 1];
+      centerStart = new int[cellCount + 1];
+      scatter(null, null);
+      for (int c = 0; c < cellCount; c++) {
+        overlapStart[c + 1] += overlapStart[c];
+        centerStart[c + 1] += centerStart[c];
+      }
+      overlapItems = new int[overlapStart[cellCount]];
+      centerItems = new int[centerStart[cellCount]];
+      scatter(overlapStart.clone(), centerStart.clone());
+    }
+
+    // Counts the entries per cell (when the fill cursors are null) or writes them in bubble order
+    private void scatter(int[] overlapFill, int[] centerFill) {
+      for (int j = 0; j < count; j++) {
+        double r = abs(radius[j]);
+        int x0 = axis(x[j] - r, minX), x1 = axis(x[j] + r, minX);
+        int y0 = axis(y[j] - r, minY), y1 = axis(y[j] + r, minY);
+        int z0 = axis(z[j] - r, minZ), z1 = axis(z[j] + r, minZ);
+        for (int ix = x0; ix <= x1; ix++) {
+          for (int iy = y0; iy <= y1; iy++) {
+            for (int iz = z0; iz <= z1; iz++) {
+              int cell = (ix * res + iy) * res + iz;
+              if (overlapFill == null) overlapStart[cell + 1]++;
+              else overlapItems[overlapFill[cell]++] = j;
+            }
+          }
+        }
+        int cell = (axis(x[j], minX) * res + axis(y[j], minY)) * res + axis(z[j], minZ);
+        if (centerFill == null) centerStart[cell + 1]++;
+        else centerItems[centerFill[cell]++] = j;
+      }
+    }
+
+    // Clamped cell index along one axis
+    int axis(double v, double lo) {
+      int i = (int) floor((v - lo) * invCellSize);
+      return (i < 0) ? 0 : (i >= res ? res - 1 : i);
+    }
+
+    // Cell holding the point, or -1 if the point lies outside every bubble's bounding box
+    int cellOf(double px, double py, double pz) {
+      if (px < minX || px > maxX || py < minY || py > maxY || pz < minZ || pz > maxZ) return -1;
+      return (axis(px, minX) * res + axis(py, minY)) * res + axis(pz, minZ);
+    }
+
+    // Position of the first entry in the cell's overlap list with a bubble index greater than j
+    int firstAfter(int cell, int j) {
+      int lo = overlapStart[cell], hi = overlapStart[cell + 1];
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (overlapItems[mid] <= j) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+
+    boolean isContained(double px, double py, double pz) {
+      int cell = cellOf(px, py, pz);
+      if (cell < 0) return false;
+      for (int k = overlapStart[cell], end = overlapStart[cell + 1]; k < end; k++) {
+        int j = overlapItems[k];
+        double dx = px - x[j];
+        double dy = py - y[j];
+        double dz = pz - z[j];
+        if ((dx * dx + dy * dy + dz * dz) < radiusSq[j]) return true;
+      }
+      return false;
+    }
+
+    int countContaining(double px, double py, double pz) {
+      int cell = cellOf(px, py, pz);
+      if (cell < 0) return 0;
+      int containing = 0;
+      for (int k = overlapStart[cell], end = overlapStart[cell + 1]; k < end; k++) {
+        int j = overlapItems[k];
+        double dx = px - x[j];
+        double dy = py - y[j];
+        double dz = pz - z[j];
+        if ((dx * dx + dy * dy + dz * dz) < radiusSq[j]) containing++;
+      }
+      return containing;
+    }
+
+    // Index of the bubble with the nearest center (lowest index on ties), or -1 if there are none.
+    // Visits shells of cells around the point until no unvisited cell can hold a closer center.
+    int nearest(double px, double py, double pz) {
+      return nearest(px, py, pz, -1);
+    }
+
+    // Same as nearest(), but ignores the bubble with index skip
+    int nearest(double px, double py, double pz, int skip) {
+      int cx = axis(px, minX), cy = axis(py, minY), cz = axis(pz, minZ);
+      int best = -1;
+      double bestDistSq = Double.MAX_VALUE;
+      for (int ring = 0; ring < res; ring++) {
+        int x0 = max(cx - ring, 0), x1 = min(cx + ring, res - 1);
+        int y0 = max(cy - ring, 0), y1 = min(cy + ring, res - 1);
+        for (int ix = x0; ix <= x1; ix++) {
+          for (int iy = y0; iy <= y1; iy++) {
+            boolean onShell = abs(ix - cx) == ring || abs(iy - cy) == ring;
+            int zStep = onShell ? 1 : 2 * ring;
+            for (int iz = cz - ring; iz <= cz + ring; iz += zStep) {
+              if (iz < 0 || iz >= res) continue;
+              int cell = (ix * res + iy) * res + iz;
+              for (int k = centerStart[cell], end = centerStart[cell + 1]; k < end; k++) {
+                int j = centerItems[k];
+                if (j == skip) continue;
+                double dx = px - x[j];
+                double dy = py - y[j];
+                double dz = pz - z[j];
+                double distSq = dx * dx + dy * dy + dz * dz;
+                if (distSq < bestDistSq || (distSq == bestDistSq && j < best)) {
+                  bestDistSq = distSq;
+                  best = j;
+                }
+              }
+            }
+          }
+        }
+        double reach = ring * cellSize;
+        if (best >= 0 && bestDistSq <= reach * reach) break;
+      }
+      return best;
+    }
+  }
+
+  /**
+   * Optional precomputed lookup field over the bubble bounding box, used by shaping and coloring.
+   * Each voxel stores the nearest bubble index at its center (unsigned 16 bit) and the number of
+   * bubbles containing its center (saturating 8 bit), i.e. 3 bytes per voxel (about 768 KB at 64^3, 6 MB at the 128^3 maximum).
+   * Nearest lookups snap to the closest voxel and are only approximate near cell borders; counts
+   * are interpolated trilinearly. Points outside the box fall back to the exact grid queries.
+   */
+  private static final class VoxelField {
+    static final int MAX_BUBBLES = 0xFFFF;
+
+    final int res;
+    final double minX, minY, minZ, maxX, maxY, maxZ;
+    final double invStepX, invStepY, invStepZ;
+    final short[] nearest;
+    final byte[] count;
+
+    VoxelField(BubbleSet foam, int res) {
+      this.res = res;
+      minX = foam.minX; minY = foam.minY; minZ = foam.minZ;
+      maxX = foam.maxX; maxY = foam.maxY; maxZ = foam.maxZ;
+      double stepX = max(maxX - minX, 1.0E-9) / res;
+      double stepY = max(maxY - minY, 1.0E-9) / res;
+      double stepZ = max(maxZ - minZ, 1.0E-9) / res;
+      invStepX = 1.0 / stepX;
+      invStepY = 1.0 / stepY;
+      invStepZ = 1.0 / stepZ;
+      nearest = new short[res * res * res];
+      count = new byte[res * res * res];
+      for (int ix = 0; ix < res; ix++) {
+        double px = minX + (ix + 0.5) * stepX;
+        for (int iy = 0; iy < res; iy++) {
+          double py = minY + (iy + 0.5) * stepY;
+          for (int iz = 0; iz < res; iz++) {
+            double pz = minZ + (iz + 0.5) * stepZ;
+            int v = (ix * res + iy) * res + iz;
+            nearest[v] = (short) foam.nearest(px, py, pz);
+            count[v] = (byte) min(foam.countContaining(px, py, pz), 255);
+          }
+        }
+      }
+    }
+
+    boolean covers(double px, double py, double pz) {
+      return px >= minX && px <= maxX && py >= minY && py <= maxY && pz >= minZ && pz <= maxZ;
+    }
+
+    // Nearest bubble index stored in the voxel holding the point (the point must be covered)
+    int nearest(double px, double py, double pz) {
+      int ix = min((int) ((px - minX) * invStepX), res - 1);
+      int iy = min((int) ((py - minY) * invStepY), res - 1);
+      int iz = min((int) ((pz - minZ) * invStepZ), res - 1);
+      return nearest[(ix * res + iy) * res + iz] & 0xFFFF;
+    }
+
+    // Trilinearly interpolated containment count between voxel centers (the point must be covered)
+    double count(double px, double py, double pz) {
+      double fx = (px - minX) * invStepX - 0.5;
+      double fy = (py - minY) * invStepY - 0.5;
+      double fz = (pz - minZ) * invStepZ - 0.5;
+      int x0 = (int) floor(fx), y0 = (int) floor(fy), z0 = (int) floor(fz);
+      double tx = fx - x0, ty = fy - y0, tz = fz - z0;
+      int x1 = min(x0 + 1, res - 1), y1 = min(y0 + 1, res - 1), z1 = min(z0 + 1, res - 1);
+      x0 = max(x0, 0); y0 = max(y0, 0); z0 = max(z0, 0);
+      double c00 = lerp(countAt(x0, y0, z0), countAt(x1, y0, z0), tx);
+      double c10 = lerp(countAt(x0, y1, z0), countAt(x1, y1, z0), tx);
+      double c01 = lerp(countAt(x0, y0, z1), countAt(x1, y0, z1), tx);
+      double c11 = lerp(countAt(x0, y1, z1), countAt(x1, y1, z1), tx);
+      return lerp(lerp(c00, c10, ty), lerp(c01, c11, ty), tz);
+    }
 
-  private transient Bubble[] bubbles;
-  private transient Random rand;
-  private transient int lastDensity = -1;
-  private transient int lastSeed = -1;
-  private transient double lastSpread = -1.0;
+    private int countAt(int ix, int iy, int iz) {
+      return count[(ix * res + iy) * res + iz] & 0xFF;
+    }
+
+    private static double lerp(double a, double b, double t) {
+      return a + (b - a) * t;
+    }
+  }
 
-  private class Bubble {
-      double x, y, z, radius;
+  private BubbleSet createBubbles() {
+    return (layout == 1) ? createPackedBubbles() : createRandomBubbles();
   }
 
-  private void initializeBubbles() {
-    rand = new Random(seed);
-    bubbles = new Bubble[density];
-    for (int i = 0; i < density; i++) {
-        bubbles[i] = new Bubble();
-        bubbles[i].x = (2.0 * rand.nextDouble() - 1.0) * spread;
-        bubbles[i].y = (2.0 * rand.nextDouble() - 1.0) * spread;
-        bubbles[i].z = (2.0 * rand.nextDouble() - 1.0) * spread;
-        bubbles[i].radius = minRadius + (maxRadius - minRadius) * rand.nextDouble();
+  private BubbleSet createRandomBubbles() {
+    Random rand = new Random(seed);
+    int n = max(density, 0);
+    double[] bx = new double[n];
+    double[] by = new double[n];
+    double[] bz = new double[n];
+    double[] br = new double[n];
+    for (int i = 0; i < n; i++) {
+        bx[i] = (2.0 * rand.nextDouble() - 1.0) * spread;
+        by[i] = (2.0 * rand.nextDouble() - 1.0) * spread;
+        bz[i] = (2.0 * rand.nextDouble() - 1.0) * spread;
+        br[i] = minRadius + (maxRadius - minRadius) * rand.nextDouble();
+    }
+    return new BubbleSet(bx, by, bz, br);
+  }
+
+  /**
+   * Non-overlapping layout: Bridson Poisson-disk sampling of the spread cube with a spacing chosen so
+   * the sampler saturates at roughly density bubbles, optional Lloyd relaxation, and finally radii
+   * capped at half the distance to the nearest neighbor. All steps run in O(n) on background grids.
+   */
+  private BubbleSet createPackedBubbles() {
+    Random rand = new Random(seed);
+    double half = abs(spread);
+    double side = 2.0 * half;
+    int target = max(density, 0);
+    if (target < 2 || side < 1.0E-9) {
+      return createRandomBubbles();
+    }
+    double minDist = cbrt(side * side * side / (POISSON_PACKING * target));
+    double minDistSq = minDist * minDist;
+
+    // Background grid with cells minDist/sqrt(3) wide, so each cell holds at most one sample
+    double cellSize = minDist / sqrt(3.0);
+    int g = max(1, (int) ceil(side / cellSize));
+    int[] cells = new int[g * g * g];
+    Arrays.fill(cells, -1);
+    int capacity = g * g * g;
+    double[] px = new double[capacity];
+    double[] py = new double[capacity];
+    double[] pz = new double[capacity];
+    int[] active = new int[capacity];
+    int count = 0;
+    int activeCount = 0;
+
+    px[0] = (2.0 * rand.nextDouble() - 1.0) * half;
+    py[0] = (2.0 * rand.nextDouble() - 1.0) * half;
+    pz[0] = (2.0 * rand.nextDouble() - 1.0) * half;
+    cells[poissonCell(px[0], py[0], pz[0], half, cellSize, g)] = 0;
+    active[activeCount++] = count++;
+    while (activeCount > 0) {
+      int a = rand.nextInt(activeCount);
+      int i = active[a];
+      boolean placed = false;
+      for (int k = 0; k < POISSON_CANDIDATES && !placed; k++) {
+        // Candidate in the spherical shell [minDist, 2 * minDist] around sample i
+        double u = 2.0 * rand.nextDouble() - 1.0;
+        double phi = 2.0 * Math.PI * rand.nextDouble();
+        double ring = minDist * (1.0 + rand.nextDouble());
+        double s = sqrt(1.0 - u * u);
+        double cx = px[i] + ring * s * Math.cos(phi);
+        double cy = py[i] + ring * s * Math.sin(phi);
+        double cz = pz[i] + ring * u;
+        if (abs(cx) > half || abs(cy) > half || abs(cz) > half) continue;
+        int gx = poissonAxis(cx, half, cellSize, g), gy = poissonAxis(cy, half, cellSize, g), gz = poissonAxis(cz, half, cellSize, g);
+        boolean free = true;
+        for (int ix = max(gx - 2, 0); ix <= min(gx + 2, g - 1) && free; ix++) {
+          for (int iy = max(gy - 2, 0); iy <= min(gy + 2, g - 1) && free; iy++) {
+            for (int iz = max(gz - 2, 0); iz <= min(gz + 2, g - 1); iz++) {
+              int o = cells[(ix * g + iy) * g + iz];
+              if (o < 0) continue;
+              double dx = px[o] - cx;
+              double dy = py[o] - cy;
+              double dz = pz[o] - cz;
+              if (dx * dx + dy * dy + dz * dz < minDistSq) {
+                free = false;
+                break;
+              }
+            }
+          }
+        }
+        if (free) {
+          px[count] = cx;
+          py[count] = cy;
+          pz[count] = cz;
+          cells[(gx * g + gy) * g + gz] = count;
+          active[activeCount++] = count++;
+          placed = true;
+        }
+      }
+      if (!placed) {
+        active[a] = active[--activeCount];
+      }
+    }
+
+    // Bridson grows outwards from the first sample; shuffle so bubble IDs stay spatially uncorrelated
+    int n = count;
+    double[] bx = new double[n];
+    double[] by = new double[n];
+    double[] bz = new double[n];
+    for (int i = 0; i < n; i++) {
+      bx[i] = px[i];
+      by[i] = py[i];
+      bz[i] = pz[i];
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      double t = bx[i]; bx[i] = bx[j]; bx[j] = t;
+      t = by[i]; by[i] = by[j]; by[j] = t;
+      t = bz[i]; bz[i] = bz[j]; bz[j] = t;
+    }
+
+    // Lloyd relaxation with Monte Carlo centroids: every step moves each center to the mean of the
+    // random cube samples that fall into its Voronoi cell
+    double[] zero = new double[n];
+    double[] sumX = new double[n];
+    double[] sumY = new double[n];
+    double[] sumZ = new double[n];
+    int[] hits = new int[n];
+    for (int step = 0; step < relax_steps; step++) {
+      BubbleSet centers = new BubbleSet(bx, by, bz, zero);
+      Arrays.fill(sumX, 0.0);
+      Arrays.fill(sumY, 0.0);
+      Arrays.fill(sumZ, 0.0);
+      Arrays.fill(hits, 0);
+      for (int k = n * LLOYD_SAMPLES_PER_BUBBLE; k > 0; k--) {
+        double sx = (2.0 * rand.nextDouble() - 1.0) * half;
+        double sy = (2.0 * rand.nextDouble() - 1.0) * half;
+        double sz = (2.0 * rand.nextDouble() - 1.0) * half;
+        int j = centers.nearest(sx, sy, sz);
+        sumX[j] += sx;
+        sumY[j] += sy;
+        sumZ[j] += sz;
+        hits[j]++;
+      }
+      bx = bx.clone();
+      by = by.clone();
+      bz = bz.clone();
+      for (int j = 0; j < n; j++) {
+        if (hits[j] > 0) {
+          bx[j] = sumX[j] / hits[j];
+          by[j] = sumY[j] / hits[j];
+          bz[j] = sumZ[j] / hits[j];
+        }
+      }
+    }
+
+    // Random radius in [minRadius, maxRadius], capped so no two bubbles overlap
+    BubbleSet centers = new BubbleSet(bx, by, bz, zero);
+    double[] br = new double[n];
+    for (int j = 0; j < n; j++) {
+      int o = centers.nearest(bx[j], by[j], bz[j], j);
+      double cap = maxRadius;
+      if (o >= 0) {
+        double dx = bx[o] - bx[j];
+        double dy = by[o] - by[j];
+        double dz = bz[o] - bz[j];
+        cap = 0.5 * sqrt(dx * dx + dy * dy + dz * dz);
+      }
+      br[j] = min(minRadius + (maxRadius - minRadius) * rand.nextDouble(), cap);
     }
-    lastDensity = density;
-    lastSeed = seed;
-    lastSpread = spread;
+    return new BubbleSet(bx, by, bz, br);
+  }
+
+  private static int poissonAxis(double v, double half, double cellSize, int g) {
+    int i = (int) ((v + half) / cellSize);
+    return (i < 0) ? 0 : (i >= g ? g - 1 : i);
+  }
+
+  private static int poissonCell(double x, double y, double z, double half, double cellSize, int g) {
+    return (poissonAxis(x, half, cellSize, g) * g + poissonAxis(y, half, cellSize, g)) * g + poissonAxis(z, half, cellSize, g);
+  }
+
+  @Override
+  public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+    foam = createBubbles();
+    // The voxel field is only needed by shaping and coloring, and the 16 bit index caps the bubble count
+    boolean wantField = voxel_res > 0 && (shapeAmount > 0.0 || color_data > 0);
+    field = (wantField && foam.count > 0 && foam.count <= VoxelField.MAX_BUBBLES) ? new VoxelField(foam, voxel_res) : null;
   }
 
   @Override
   public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
-    if (bubbles == null || density != lastDensity || seed != lastSeed || spread != lastSpread) {
-        initializeBubbles();
-    }
-    
+    final BubbleSet foam = this.foam;
+    final VoxelField field = this.field;
+    final double[] bx = foam.x, by = foam.y, bz = foam.z, br = foam.radius, brSq = foam.radiusSq;
+    final int n = foam.count;
+
     double x = pAffineTP.x;
     double y = pAffineTP.y;
     double z = pAffineTP.z;
 
     // --- Standard Foam Repulsion Logic ---
+    // Bubbles are still applied in index order, but only those listed in the point's grid cell are
+    // tested. When a push moves the point into another cell, the walk continues in that cell's list.
     for (int i = 0; i < iterations; i++) {
-        for (int j = 0; j < density; j++) {
-            Bubble b = bubbles[j];
-            double dx = x - b.x;
-            double dy = y - b.y;
-            double dz = z - b.z;
+        int cell = foam.cellOf(x, y, z);
+        if (cell < 0) break;
+        int k = foam.overlapStart[cell];
+        int end = foam.overlapStart[cell + 1];
+        while (k < end) {
+            int j = foam.overlapItems[k++];
+            double dx = x - bx[j];
+            double dy = y - by[j];
+            double dz = z - bz[j];
             double distSq = dx * dx + dy * dy + dz * dz;
-            if (distSq < b.radius * b.radius) {
+            if (distSq < brSq[j]) {
                 double dist = sqrt(distSq);
                 if (dist > 1.0E-6) {
-                    double pushFactor = (b.radius - dist) / dist;
+                    double pushFactor = (br[j] - dist) / dist;
                     x += dx * pushFactor * scale;
                     y += dy * pushFactor * scale;
                     z += dz * pushFactor * scale;
+                    int newCell = foam.cellOf(x, y, z);
+                    if (newCell != cell) {
+                        cell = newCell;
+                        if (cell < 0) break;
+                        k = foam.firstAfter(cell, j);
+                        end = foam.overlapStart[cell + 1];
+                    }
                 }
             }
         }
@@ -115,21 +571,10 @@ public class NaturalFoamFunc extends VariationFunc {
             double prev_x = x;
             double prev_y = y;
             double prev_z = z;
-            x += (rand.nextDouble() - 0.5) * 2.0 * step_size;
-            y += (rand.nextDouble() - 0.5) * 2.0 * step_size;
-            z += (rand.nextDouble() - 0.5) * 2.0 * step_size;
-            boolean is_contained = false;
-            for(int j=0; j < density; j++) {
-                Bubble b = bubbles[j];
-                double dx = x - b.x;
-                double dy = y - b.y;
-                double dz = z - b.z;
-                if((dx*dx + dy*dy + dz*dz) < (b.radius * b.radius)) {
-                    is_contained = true;
-                    break;
-                }
-            }
-            if(!is_contained) {
+            x += (pContext.random() - 0.5) * 2.0 * step_size;
+            y += (pContext.random() - 0.5) * 2.0 * step_size;
+            z += (pContext.random() - 0.5) * 2.0 * step_size;
+            if(!foam.isContained(x, y, z)) {
                 x = prev_x;
                 y = prev_y;
                 z = prev_z;
@@ -139,30 +584,20 @@ public class NaturalFoamFunc extends VariationFunc {
     
     // --- Apply final shaping ---
     if(shapeAmount > 0.0) {
-        int nearestBubbleIndex = -1;
-        double minDistanceSq = Double.MAX_VALUE;
-        for (int j = 0; j < density; j++) {
-            Bubble b = bubbles[j];
-            double dx = x - b.x;
-            double dy = y - b.y;
-            double dz = z - b.z;
-            double distSq = dx * dx + dy * dy + dz * dz;
-            if (distSq < minDistanceSq) {
-                minDistanceSq = distSq;
-                nearestBubbleIndex = j;
-            }
-        }
+        int nearestBubbleIndex = (field != null && field.covers(x, y, z)) ? field.nearest(x, y, z) : foam.nearest(x, y, z);
         if(nearestBubbleIndex != -1) {
-            Bubble nearest = bubbles[nearestBubbleIndex];
-            double localX = x - nearest.x;
-            double localY = y - nearest.y;
-            double localZ = z - nearest.z;
+            double nearestX = bx[nearestBubbleIndex];
+            double nearestY = by[nearestBubbleIndex];
+            double nearestZ = bz[nearestBubbleIndex];
+            double localX = x - nearestX;
+            double localY = y - nearestY;
+            double localZ = z - nearestZ;
             double localDistSq = localX * localX + localY * localY + localZ * localZ;
-            double radiusSq = nearest.radius * nearest.radius;
+            double radiusSq = brSq[nearestBubbleIndex];
             double inversionFactor = radiusSq / (localDistSq + 1.0E-9);
-            double bubbleX = localX * inversionFactor + nearest.x;
-            double bubbleY = localY * inversionFactor + nearest.y;
-            double bubbleZ = localZ * inversionFactor + nearest.z;
+            double bubbleX = localX * inversionFactor + nearestX;
+            double bubbleY = localY * inversionFactor + nearestY;
+            double bubbleZ = localZ * inversionFactor + nearestZ;
             x = x * (1.0 - shapeAmount) + bubbleX * shapeAmount;
             y = y * (1.0 - shapeAmount) + bubbleY * shapeAmount;
             z = z * (1.0 - shapeAmount) + bubbleZ * shapeAmount;
@@ -172,39 +607,20 @@ public class NaturalFoamFunc extends VariationFunc {
     // --- Data-Driven Coloring ---
     if (color_data > 0) {
         double colorIndex = 0.5;
-        int nearestBubbleIndex = -1;
-        double minDistanceSq = Double.MAX_VALUE;
-        for (int j = 0; j < density; j++) {
-            Bubble b = bubbles[j];
-            double dx = x - b.x;
-            double dy = y - b.y;
-            double dz = z - b.z;
-            double distSq = dx * dx + dy * dy + dz * dz;
-            if (distSq < minDistanceSq) {
-                minDistanceSq = distSq;
-                nearestBubbleIndex = j;
-            }
-        }
+        boolean useField = field != null && field.covers(x, y, z);
+        int nearestBubbleIndex = useField ? field.nearest(x, y, z) : foam.nearest(x, y, z);
         if (nearestBubbleIndex != -1) {
             switch(color_data) {
                 case 1:
-                    Bubble nearest = bubbles[nearestBubbleIndex];
                     double radiusRange = maxRadius - minRadius;
-                    if(radiusRange > 1.0E-6) { colorIndex = (nearest.radius - minRadius) / radiusRange; }
+                    if(radiusRange > 1.0E-6) { colorIndex = (br[nearestBubbleIndex] - minRadius) / radiusRange; }
                     break;
                 case 2:
-                    int pressureCount = 0;
-                    for (int j=0; j < density; j++) {
-                        Bubble b = bubbles[j];
-                        double dx = x - b.x;
-                        double dy = y - b.y;
-                        double dz = z - b.z;
-                        if((dx*dx + dy*dy + dz*dz) < (b.radius * b.radius)) { pressureCount++; }
-                    }
-                    if(density > 0) { colorIndex = (double)pressureCount / (double)density; }
+                    double pressureCount = useField ? field.count(x, y, z) : foam.countContaining(x, y, z);
+                    if(n > 0) { colorIndex = pressureCount / (double)n; }
                     break;
                 case 3:
-                    if(density > 1) { colorIndex = (double)nearestBubbleIndex / (double)(density - 1); }
+                    if(n > 1) { colorIndex = (double)nearestBubbleIndex / (double)(n - 1); }
                     break;
             }
         }
@@ -221,7 +637,7 @@ public class NaturalFoamFunc extends VariationFunc {
 
   @Override
   public Object[] getParameterValues() {
-    return new Object[]{density, iterations, scale, spread, minRadius, maxRadius, seed, shapeAmount, blur_radius, blur_quality, color_data, zoom};
+    return new Object[]{density, iterations, scale, spread, minRadius, maxRadius, seed, shapeAmount, blur_radius, blur_quality, color_data, zoom, voxel_res, layout, relax_steps};
   }
 
   @Override
@@ -250,6 +666,12 @@ public class NaturalFoamFunc extends VariationFunc {
         color_data = (int) pValue;
     else if (PARAM_ZOOM.equalsIgnoreCase(pName))
       zoom = pValue;
+    else if (PARAM_VOXEL_RES.equalsIgnoreCase(pName))
+      voxel_res = max(0, min(128, (int) pValue));
+    else if (PARAM_LAYOUT.equalsIgnoreCase(pName))
+      layout = max(0, min(1, (int) pValue));
+    else if (PARAM_RELAX_STEPS.equalsIgnoreCase(pName))
+      relax_steps = max(0, min(50, (int) pValue));
     else
       throw new IllegalArgumentException(pName);
   }
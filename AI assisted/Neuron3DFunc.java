@@ -16,7 +16,9 @@
  */
 package org.jwildfire.create.tina.variation;
 
+import java.util.Arrays;
 import java.util.Random;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -50,6 +52,7 @@ import org.jwildfire.create.tina.base.XYZPoint;
  * - **connectorProb**: The probability a connection will form between neurons.
  * - **connectorTexture**: The amplitude of the waviness/texture on connectors.
  * - **connectorTexFreq**: The frequency of the texture along the connectors.
+ * - **connectorTexRes**: Samples per noise unit of the precomputed connector texture (0 = evaluate the noise exactly).
  * - **lineColor**: The color index for the connectors (0.0 to 1.0).
  *
  * @author Gemini, inspired by an effect request by Brad Stefanov
@@ -77,10 +80,11 @@ public class Neuron3DFunc extends VariationFunc {
   private static final String PARAM_CONNECTOR_PROB = "connectorProb";
   private static final String PARAM_CONNECTOR_TEXTURE = "connectorTexture";
   private static final String PARAM_CONNECTOR_TEX_FREQ = "connectorTexFreq";
+  private static final String PARAM_CONNECTOR_TEX_RES = "connectorTexRes";
   private static final String PARAM_LINE_COLOR = "lineColor";
 
 
-  private static final String[] paramNames = {PARAM_ZOOM, PARAM_DENSITY, PARAM_SEED, PARAM_RADIUS, PARAM_ORB_COLOR, PARAM_TYPE2_PROB, PARAM_RADIUS2, PARAM_ORB_COLOR2, PARAM_NOISE_FREQ, PARAM_NOISE_AMP, PARAM_TURBULENCE, PARAM_CONNECTOR_THICKNESS, PARAM_CONNECTOR_PROB, PARAM_CONNECTOR_TEXTURE, PARAM_CONNECTOR_TEX_FREQ, PARAM_LINE_COLOR};
+  private static final String[] paramNames = {PARAM_ZOOM, PARAM_DENSITY, PARAM_SEED, PARAM_RADIUS, PARAM_ORB_COLOR, PARAM_TYPE2_PROB, PARAM_RADIUS2, PARAM_ORB_COLOR2, PARAM_NOISE_FREQ, PARAM_NOISE_AMP, PARAM_TURBULENCE, PARAM_CONNECTOR_THICKNESS, PARAM_CONNECTOR_PROB, PARAM_CONNECTOR_TEXTURE, PARAM_CONNECTOR_TEX_FREQ, PARAM_CONNECTOR_TEX_RES, PARAM_LINE_COLOR};
 
   // General
   private double zoom = 10.0;
@@ -102,16 +106,24 @@ public class Neuron3DFunc extends VariationFunc {
   private double connectorProb = 0.6;
   private double connectorTexture = 0.1;
   private double connectorTexFreq = 5.0;
+  private int connectorTexRes = 8;
   private double lineColor = 0.75;
 
 
-  private transient Random rand = new Random();
   private transient PerlinNoise perlin;
+  private transient CellTable cellTable;
+
+  // Above this many lattice cells (padded active volume) or connector edges the table is skipped
+  // and cells are found by rejection instead
+  private static final int MAX_TABLE_CELLS = 1 << 23;
+  private static final int MAX_TABLE_EDGES = 1 << 19;
+  private static final int MAX_TEXTURE_FLOATS = 1 << 24;
+  private static final int SELF_DIRECTION = 13;
+
+  // Layout of one connector in CellTable.edgeData: start point, start-to-end vector, two unit normals
+  private static final int E_START = 0, E_VEC = 3, E_PERP1 = 6, E_PERP2 = 9, EDGE_STRIDE = 12;
 
   private void ensureInitialized() {
-      if (rand == null) {
-          rand = new Random(seed);
-      }
       if (perlin == null) {
           perlin = new PerlinNoise(seed);
       }
@@ -130,10 +142,103 @@ public class Neuron3DFunc extends VariationFunc {
       return 0; // No neuron
   }
 
+  private long connectorHash(double ix, double iy, double iz, double nx, double ny, double nz) {
+      return (long)ix * 13L + (long)iy*31L + (long)iz*53L + (long)nx*71L + (long)ny*97L + (long)nz*113L + seed;
+  }
+
+  // Whether the connector from cell (ix, iy, iz) to its neighbor exists; uses a private generator so it is thread-safe
+  private boolean isConnected(long connHash) {
+      return new Random(connHash).nextDouble() < connectorProb;
+  }
+
+  // Connector geometry between two neuron bodies, written to out[offset .. offset + EDGE_STRIDE).
+  // Returns false if the two centers coincide.
+  private boolean connectorGeometry(double ix, double iy, double iz, int startType, double nx, double ny, double nz, int neighborType,
+                                    double[] out, int offset) {
+    double startRadius = (startType == 1) ? radius : radius2;
+    double neighborRadius = (neighborType == 1) ? radius : radius2;
+
+    double centerX = ix + 0.5, centerY = iy + 0.5, centerZ = iz + 0.5;
+    double neighborX = nx + 0.5, neighborY = ny + 0.5, neighborZ = nz + 0.5;
+
+    double vecToNeighborX = neighborX - centerX;
+    double vecToNeighborY = neighborY - centerY;
+    double vecToNeighborZ = neighborZ - centerZ;
+    double vecLen = Math.sqrt(vecToNeighborX*vecToNeighborX + vecToNeighborY*vecToNeighborY + vecToNeighborZ*vecToNeighborZ);
+    if (vecLen <= 1e-9) {
+        return false;
+    }
+    double normX = vecToNeighborX / vecLen;
+    double normY = vecToNeighborY / vecLen;
+    double normZ = vecToNeighborZ / vecLen;
+
+    double startX = centerX + normX * startRadius;
+    double startY = centerY + normY * startRadius;
+    double startZ = centerZ + normZ * startRadius;
+
+    double endX = neighborX - normX * neighborRadius;
+    double endY = neighborY - normY * neighborRadius;
+    double endZ = neighborZ - normZ * neighborRadius;
+
+    double connVecX = endX - startX;
+    double connVecY = endY - startY;
+    double connVecZ = endZ - startZ;
+
+    double perp1X, perp1Y, perp1Z;
+    if (Math.abs(connVecX) < 1e-6 && Math.abs(connVecZ) < 1e-6) {
+        perp1X = 1.0; perp1Y = 0.0; perp1Z = 0.0;
+    } else {
+        perp1X = -connVecZ; perp1Y = 0.0; perp1Z = connVecX;
+    }
+    double len1 = Math.sqrt(perp1X*perp1X + perp1Y*perp1Y + perp1Z*perp1Z);
+    perp1X /= len1; perp1Y /= len1; perp1Z /= len1;
+
+    double perp2X = connVecY * perp1Z - connVecZ * perp1Y;
+    double perp2Y = connVecZ * perp1X - connVecX * perp1Z;
+    double perp2Z = connVecX * perp1Y - connVecY * perp1X;
+    double len2 = Math.sqrt(perp2X*perp2X + perp2Y*perp2Y + perp2Z*perp2Z);
+    perp2X /= len2; perp2Y /= len2; perp2Z /= len2;
+
+    out[offset + E_START] = startX; out[offset + E_START + 1] = startY; out[offset + E_START + 2] = startZ;
+    out[offset + E_VEC] = connVecX; out[offset + E_VEC + 1] = connVecY; out[offset + E_VEC + 2] = connVecZ;
+    out[offset + E_PERP1] = perp1X; out[offset + E_PERP1 + 1] = perp1Y; out[offset + E_PERP1 + 2] = perp1Z;
+    out[offset + E_PERP2] = perp2X; out[offset + E_PERP2 + 1] = perp2Y; out[offset + E_PERP2 + 2] = perp2Z;
+    return true;
+  }
+
+  @Override
+  public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+    ensureInitialized();
+    int lo = (int) Math.floor(-Math.abs(zoom));
+    int hi = (int) Math.ceil(Math.abs(zoom)) - 1;
+    long span = (long) (hi - lo) + 3;
+    CellTable table = (span * span * span <= MAX_TABLE_CELLS) ? new CellTable(lo, hi) : null;
+    cellTable = (table != null && table.complete) ? table : null;
+  }
+
   @Override
   public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
     ensureInitialized();
 
+    final CellTable table = cellTable;
+    if (table != null) {
+        if (table.count == 0) {
+            pVarTP.x = 0.0; pVarTP.y = 0.0; pVarTP.z = 0.0;
+            return;
+        }
+        // One draw chooses between a connector (by length) and a body, the remainder picks which one
+        double rnd = pContext.random();
+        if (rnd < table.connectorShare) {
+            int e = table.edgeAlias.sample(rnd / table.connectorShare);
+            drawConnector(pContext, table.edgeData, e * EDGE_STRIDE, table.edgeHash[e], table.texture, e * table.textureStride, table.textureLength, pVarTP, pAmount);
+        } else {
+            int c = table.bodyAlias.sample((rnd - table.connectorShare) / (1.0 - table.connectorShare));
+            drawBody(pContext, table.orbX[c], table.orbY[c], table.orbZ[c], table.orbRadii[c], table.orbColors[c], pVarTP, pAmount);
+        }
+        return;
+    }
+
+    double[] geometry = null;
     for (int i = 0; i < 20; i++) { // Find a point to draw
         double ix = Math.floor((pContext.random() * 2.0 - 1.0) * zoom);
         double iy = Math.floor((pContext.random() * 2.0 - 1.0) * zoom);
@@ -161,79 +266,11 @@ public class Neuron3DFunc extends VariationFunc {
             int neighborType = getNeuronType(nx, ny, nz);
             if(neighborType == 0) continue;
 
-            long connHash = (long)ix * 13L + (long)iy*31L + (long)iz*53L + (long)nx*71L + (long)ny*97L + (long)nz*113L + seed;
-            rand.setSeed(connHash);
-
-            if (rand.nextDouble() < connectorProb) {
-                double startRadius = (startType == 1) ? radius : radius2;
-                double neighborRadius = (neighborType == 1) ? radius : radius2;
-
-                double centerX = ix + 0.5, centerY = iy + 0.5, centerZ = iz + 0.5;
-                double neighborX = nx + 0.5, neighborY = ny + 0.5, neighborZ = nz + 0.5;
-
-                double vecToNeighborX = neighborX - centerX;
-                double vecToNeighborY = neighborY - centerY;
-                double vecToNeighborZ = neighborZ - centerZ;
-                double vecLen = Math.sqrt(vecToNeighborX*vecToNeighborX + vecToNeighborY*vecToNeighborY + vecToNeighborZ*vecToNeighborZ);
-
-                if (vecLen > 1e-9) {
-                    double normX = vecToNeighborX / vecLen;
-                    double normY = vecToNeighborY / vecLen;
-                    double normZ = vecToNeighborZ / vecLen;
-
-                    double startX = centerX + normX * startRadius;
-                    double startY = centerY + normY * startRadius;
-                    double startZ = centerZ + normZ * startRadius;
-
-                    double endX = neighborX - normX * neighborRadius;
-                    double endY = neighborY - normY * neighborRadius;
-                    double endZ = neighborZ - normZ * neighborRadius;
-                    
-                    double connVecX = endX - startX;
-                    double connVecY = endY - startY;
-                    double connVecZ = endZ - startZ;
-
-                    double t = pContext.random();
-                    double pointOnLineX = startX + t * connVecX;
-                    double pointOnLineY = startY + t * connVecY;
-                    double pointOnLineZ = startZ + t * connVecZ;
-                    
-                    double r = pContext.random() * connectorThickness;
-                    double angle = pContext.random() * 2.0 * Math.PI;
-
-                    double perp1X, perp1Y, perp1Z;
-                    if (Math.abs(connVecX) < 1e-6 && Math.abs(connVecZ) < 1e-6) {
-                        perp1X = 1.0; perp1Y = 0.0; perp1Z = 0.0;
-                    } else {
-                        perp1X = -connVecZ; perp1Y = 0.0; perp1Z = connVecX;
-                    }
-                    double len1 = Math.sqrt(perp1X*perp1X + perp1Y*perp1Y + perp1Z*perp1Z);
-                    perp1X /= len1; perp1Y /= len1; perp1Z /= len1;
-
-                    double perp2X = connVecY * perp1Z - connVecZ * perp1Y;
-                    double perp2Y = connVecZ * perp1X - connVecX * perp1Z;
-                    double perp2Z = connVecX * perp1Y - connVecY * perp1X;
-                    double len2 = Math.sqrt(perp2X*perp2X + perp2Y*perp2Y + perp2Z*perp2Z);
-                    perp2X /= len2; perp2Y /= len2; perp2Z /= len2;
-
-                    double finalX = pointOnLineX + r * (Math.cos(angle) * perp1X + Math.sin(angle) * perp2X);
-                    double finalY = pointOnLineY + r * (Math.cos(angle) * perp1Y + Math.sin(angle) * perp2Y);
-                    double finalZ = pointOnLineZ + r * (Math.cos(angle) * perp1Z + Math.sin(angle) * perp2Z);
-
-                    if (connectorTexture > 0) {
-                        double noiseAngle = t * connectorTexFreq;
-                        double noise1 = perlin.noise(noiseAngle, connHash + 1.2, connHash + 3.4);
-                        double noise2 = perlin.noise(noiseAngle, connHash + 5.6, connHash + 7.8);
-                        
-                        finalX += (perp1X * noise1 + perp2X * noise2) * connectorTexture;
-                        finalY += (perp1Y * noise1 + perp2Y * noise2) * connectorTexture;
-                        finalZ += (perp1Z * noise1 + perp2Z * noise2) * connectorTexture;
-                    }
-                    
-                    pVarTP.x = (finalX / zoom) * pAmount;
-                    pVarTP.y = (finalY / zoom) * pAmount;
-                    pVarTP.z = (finalZ / zoom) * pAmount;
-                    pVarTP.color = lineColor;
+            long connHash = connectorHash(ix, iy, iz, nx, ny, nz);
+            if (isConnected(connHash)) {
+                if (geometry == null) geometry = new double[EDGE_STRIDE];
+                if (connectorGeometry(ix, iy, iz, startType, nx, ny, nz, neighborType, geometry, 0)) {
+                    drawConnector(pContext, geometry, 0, connHash, null, 0, 0, pVarTP, pAmount);
                     return;
                 }
             }
@@ -242,38 +279,88 @@ public class Neuron3DFunc extends VariationFunc {
         // --- Stage 2: Draw a neuron body ---
         double currentRadius = (startType == 1) ? radius : radius2;
         double currentColor = (startType == 1) ? orbColor : orbColor2;
+        drawBody(pContext, ix + 0.5, iy + 0.5, iz + 0.5, currentRadius, currentColor, pVarTP, pAmount);
+        return;
+    }
+    pVarTP.x = 0.0; pVarTP.y = 0.0; pVarTP.z = 0.0;
+  }
 
-        double r = currentRadius * Math.cbrt(pContext.random());
-        double theta = pContext.random() * 2.0 * Math.PI;
-        double phi = Math.acos(2.0 * pContext.random() - 1.0);
-        
-        double cx = r * Math.sin(phi) * Math.cos(theta);
-        double cy = r * Math.sin(phi) * Math.sin(theta);
-        double cz = r * Math.cos(phi);
-        
-        double dist = Math.sqrt(cx*cx + cy*cy + cz*cz);
-
-        double freq = cx * noiseFreq;
-        double qx = cx + turbulence * perlin.noise(freq, cy * noiseFreq, cz * noiseFreq);
-        double qy = cy + turbulence * perlin.noise(freq + 5.2, cy * noiseFreq + 1.3, cz * noiseFreq);
-        double qz = cz + turbulence * perlin.noise(freq + 8.7, cy * noiseFreq + 3.4, cz * noiseFreq + 4.6);
-        double noise = perlin.noise(qx * noiseFreq, qy * noiseFreq, qz * noiseFreq);
-        double newDist = dist + (noise * noiseAmp);
-        
-        if (dist > 1e-9) {
-            double scale = newDist / dist;
-            double finalX = ix + 0.5 + cx * scale;
-            double finalY = iy + 0.5 + cy * scale;
-            double finalZ = iz + 0.5 + cz * scale;
-
-            pVarTP.x = (finalX / zoom) * pAmount;
-            pVarTP.y = (finalY / zoom) * pAmount;
-            pVarTP.z = (finalZ / zoom) * pAmount;
-            pVarTP.color = currentColor;
-            return;
+  // Draws a point on a connector whose geometry is stored at edge[offset .. offset + EDGE_STRIDE).
+  // If texture is not null, the connector noise is read from its interleaved (noise1, noise2) samples
+  // starting at texOffset instead of being evaluated.
+  private void drawConnector(FlameTransformationContext pContext, double[] edge, int offset, long connHash,
+                             float[] texture, int texOffset, int texLength, XYZPoint pVarTP, double pAmount) {
+    double t = pContext.random();
+    double pointOnLineX = edge[offset + E_START] + t * edge[offset + E_VEC];
+    double pointOnLineY = edge[offset + E_START + 1] + t * edge[offset + E_VEC + 1];
+    double pointOnLineZ = edge[offset + E_START + 2] + t * edge[offset + E_VEC + 2];
+
+    double r = pContext.random() * connectorThickness;
+    double angle = pContext.random() * 2.0 * Math.PI;
+    double ca = Math.cos(angle), sa = Math.sin(angle);
+
+    double perp1X = edge[offset + E_PERP1], perp1Y = edge[offset + E_PERP1 + 1], perp1Z = edge[offset + E_PERP1 + 2];
+    double perp2X = edge[offset + E_PERP2], perp2Y = edge[offset + E_PERP2 + 1], perp2Z = edge[offset + E_PERP2 + 2];
+
+    double finalX = pointOnLineX + r * (ca * perp1X + sa * perp2X);
+    double finalY = pointOnLineY + r * (ca * perp1Y + sa * perp2Y);
+    double finalZ = pointOnLineZ + r * (ca * perp1Z + sa * perp2Z);
+
+    if (connectorTexture > 0) {
+        double noise1, noise2;
+        if (texture != null) {
+            double u = t * (texLength - 1);
+            int i = Math.min((int) u, texLength - 2);
+            double f = u - i;
+            int k = texOffset + 2 * i;
+            noise1 = texture[k] + f * (texture[k + 2] - texture[k]);
+            noise2 = texture[k + 1] + f * (texture[k + 3] - texture[k + 1]);
+        } else {
+            double noiseAngle = t * connectorTexFreq;
+            noise1 = perlin.noise(noiseAngle, connHash + 1.2, connHash + 3.4);
+            noise2 = perlin.noise(noiseAngle, connHash + 5.6, connHash + 7.8);
         }
+
+        finalX += (perp1X * noise1 + perp2X * noise2) * connectorTexture;
+        finalY += (perp1Y * noise1 + perp2Y * noise2) * connectorTexture;
+        finalZ += (perp1Z * noise1 + perp2Z * noise2) * connectorTexture;
     }
-    pVarTP.x = 0.0; pVarTP.y = 0.0; pVarTP.z = 0.0;
+
+    pVarTP.x = (finalX / zoom) * pAmount;
+    pVarTP.y = (finalY / zoom) * pAmount;
+    pVarTP.z = (finalZ / zoom) * pAmount;
+    pVarTP.color = lineColor;
+  }
+
+  // Draws a point inside the (noise-displaced) neuron body centered at (centerX, centerY, centerZ)
+  private void drawBody(FlameTransformationContext pContext, double centerX, double centerY, double centerZ, double currentRadius,
+                        double currentColor, XYZPoint pVarTP, double pAmount) {
+    double r = currentRadius * Math.cbrt(pContext.random());
+    double theta = pContext.random() * 2.0 * Math.PI;
+    double phi = Math.acos(2.0 * pContext.random() - 1.0);
+    
+    double cx = r * Math.sin(phi) * Math.cos(theta);
+    double cy = r * Math.sin(phi) * Math.sin(theta);
+    double cz = r * Math.cos(phi);
+    
+    double dist = Math.sqrt(cx*cx + cy*cy + cz*cz);
+
+    double freq = cx * noiseFreq;
+    double qx = cx + turbulence * perlin.noise(freq, cy * noiseFreq, cz * noiseFreq);
+    double qy = cy + turbulence * perlin.noise(freq + 5.2, cy * noiseFreq + 1.3, cz * noiseFreq);
+    double qz = cz + turbulence * perlin.noise(freq + 8.7, cy * noiseFreq + 3.4, cz * noiseFreq + 4.6);
+    double noise = perlin.noise(qx * noiseFreq, qy * noiseFreq, qz * noiseFreq);
+    double newDist = dist + (noise * noiseAmp);
+    
+    double scale = (dist > 1e-9) ? newDist / dist : 0.0;
+    double finalX = centerX + cx * scale;
+    double finalY = centerY + cy * scale;
+    double finalZ = centerZ + cz * scale;
+
+    pVarTP.x = (finalX / zoom) * pAmount;
+    pVarTP.y = (finalY / zoom) * pAmount;
+    pVarTP.z = (finalZ / zoom) * pAmount;
+    pVarTP.color = currentColor;
   }
 
   @Override
@@ -283,12 +370,12 @@ public class Neuron3DFunc extends VariationFunc {
 
   @Override
   public Object[] getParameterValues() {
-    return new Object[]{zoom, density, (double)seed, radius, orbColor, type2_prob, radius2, orbColor2, noiseFreq, noiseAmp, turbulence, connectorThickness, connectorProb, connectorTexture, connectorTexFreq, lineColor};
+    return new Object[]{zoom, density, (double)seed, radius, orbColor, type2_prob, radius2, orbColor2, noiseFreq, noiseAmp, turbulence, connectorThickness, connectorProb, connectorTexture, connectorTexFreq, connectorTexRes, lineColor};
   }
 
   @Override
   public String[] getParameterAlternativeNames() {
-    return new String[]{"n3d_zoom", "n3d_density", "n3d_seed", "n3d_radius", "n3d_orb_color", "n3d_type2_prob", "n3d_radius2", "n3d_orb_color2", "n3d_noise_freq", "n3d_noise_amp", "n3d_turbulence", "n3d_conn_thick", "n3d_conn_prob", "n3d_conn_tex", "n3d_conn_tex_freq", "n3d_line_color"};
+    return new String[]{"n3d_zoom", "n3d_density", "n3d_seed", "n3d_radius", "n3d_orb_color", "n3d_type2_prob", "n3d_radius2", "n3d_orb_color2", "n3d_noise_freq", "n3d_noise_amp", "n3d_turbulence", "n3d_conn_thick", "n3d_conn_prob", "n3d_conn_tex", "n3d_conn_tex_freq", "n3d_conn_tex_res", "n3d_line_color"};
   }
 
   private double clamp(double value, double min, double max) {
@@ -317,6 +404,7 @@ public class Neuron3DFunc extends VariationFunc {
     else if (PARAM_CONNECTOR_PROB.equalsIgnoreCase(pName)) connectorProb = clamp(pValue, 0.0, 1.0);
     else if (PARAM_CONNECTOR_TEXTURE.equalsIgnoreCase(pName)) connectorTexture = pValue;
     else if (PARAM_CONNECTOR_TEX_FREQ.equalsIgnoreCase(pName)) connectorTexFreq = pValue;
+    else if (PARAM_CONNECTOR_TEX_RES.equalsIgnoreCase(pName)) connectorTexRes = (int) clamp(pValue, 0, 64);
     else if (PARAM_LINE_COLOR.equalsIgnoreCase(pName)) lineColor = clamp(pValue, 0.0, 1.0);
     else
       throw new IllegalArgumentException(pName);
@@ -332,6 +420,195 @@ public class Neuron3DFunc extends VariationFunc {
     return new VariationFuncType[]{VariationFuncType.VARTYPE_3D, VariationFuncType.VARTYPE_DC};
   }
 
+  /**
+   * Neurons and connectors of the active volume [lo, hi]^3, built once in init() and read-only afterwards.
+   * Each occupied cell stores its orb center, radius and color; each existing connector (directed, as
+   * the connector hash depends on the direction) stores its geometry, hash and length.
+   * The rejection loop accepts a cell with weight 1 + q, where q is the fraction of its 27 neighbor
+   * directions holding a neuron, and spends weight 1/27 of that on every directed connector to a
+   * neighbor. For a non-integer zoom the outermost cells are only partly inside [-zoom, zoom), so all
+   * weights of a cell are scaled by its covered fraction. connectorShare keeps the overall split between
+   * connectors and bodies, but connectors are now drawn in proportion to their length so long dendrites
+   * get the same density as short ones.
+   */
+  private final class CellTable {
+    final int count, edgeCount;
+    // false if construction stopped at MAX_TABLE_EDGES; the table must not be used then
+    final boolean complete;
+    final double[] orbX, orbY, orbZ, orbRadii, orbColors;
+    final double[] edgeData;
+    final long[] edgeHash;
+    final double connectorShare;
+    final AliasTable bodyAlias, edgeAlias;
+    // Connector texture: textureLength samples of (noise1, noise2) per edge, evenly spaced over t in [0, 1]
+    final float[] texture;
+    final int textureLength, textureStride;
+
+    CellTable(int lo, int hi) {
+      int size = hi - lo + 3;
+      byte[] types = new byte[size * size * size];
+      int occupied = 0;
+      for (int ix = lo - 1; ix <= hi + 1; ix++) {
+        for (int iy = lo - 1; iy <= hi + 1; iy++) {
+          for (int iz = lo - 1; iz <= hi + 1; iz++) {
+            int type = getNeuronType(ix, iy, iz);
+            types[((ix - lo + 1) * size + (iy - lo + 1)) * size + (iz - lo + 1)] = (byte) type;
+            if (type != 0 && ix <= hi && iy <= hi && iz <= hi && ix >= lo && iy >= lo && iz >= lo) occupied++;
+          }
+        }
+      }
+      count = occupied;
+      orbX = new double[count];
+      orbY = new double[count];
+      orbZ = new double[count];
+      orbRadii = new double[count];
+      orbColors = new double[count];
+      double[] bodyWeights = new double[count];
+      boolean connectors = connectorThickness > 0;
+
+      // Directed connectors are collected in growable buffers; their count is not known in advance
+      double[] edges = new double[connectors ? 64 * EDGE_STRIDE : 0];
+      long[] hashes = new long[connectors ? 64 : 0];
+      double[] lengths = new double[hashes.length];
+      int edgeTotal = 0;
+      double connectorTotal = 0.0;
+      double[] geometry = new double[EDGE_STRIDE];
+
+      boolean overflow = false;
+      int c = 0;
+      cells:
+      for (int ix = lo; ix <= hi; ix++) {
+        for (int iy = lo; iy <= hi; iy++) {
+          for (int iz = lo; iz <= hi; iz++) {
+            int type = types[((ix - lo + 1) * size + (iy - lo + 1)) * size + (iz - lo + 1)];
+            if (type == 0) continue;
+            double coverage = axisCoverage(ix) * axisCoverage(iy) * axisCoverage(iz);
+            int neighbors = 0;
+            int connected = 0;
+            if (connectors) {
+              for (int d = 0; d < 27; d++) {
+                if (d == SELF_DIRECTION) continue;
+                int nx = ix + d / 9 - 1, ny = iy + (d / 3) % 3 - 1, nz = iz + d % 3 - 1;
+                int neighborType = types[((nx - lo + 1) * size + (ny - lo + 1)) * size + (nz - lo + 1)];
+                if (neighborType == 0) continue;
+                neighbors++;
+                long connHash = connectorHash(ix, iy, iz, nx, ny, nz);
+                if (!isConnected(connHash) || !connectorGeometry(ix, iy, iz, type, nx, ny, nz, neighborType, geometry, 0)) continue;
+                if (edgeTotal == MAX_TABLE_EDGES) {
+                  // stop before the buffers grow any further, init() falls back to rejection
+                  overflow = true;
+                  break cells;
+                }
+                connected++;
+                if (edgeTotal == hashes.length) {
+                  edges = Arrays.copyOf(edges, edges.length * 2);
+                  hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                  lengths = Arrays.copyOf(lengths, lengths.length * 2);
+                }
+                System.arraycopy(geometry, 0, edges, edgeTotal * EDGE_STRIDE, EDGE_STRIDE);
+                hashes[edgeTotal] = connHash;
+                double vx = geometry[E_VEC], vy = geometry[E_VEC + 1], vz = geometry[E_VEC + 2];
+                lengths[edgeTotal] = coverage * Math.sqrt(vx * vx + vy * vy + vz * vz);
+                connectorTotal += coverage / 27.0;
+                edgeTotal++;
+              }
+            }
+            orbX[c] = ix + 0.5;
+            orbY[c] = iy + 0.5;
+            orbZ[c] = iz + 0.5;
+            orbRadii[c] = (type == 1) ? radius : radius2;
+            orbColors[c] = (type == 1) ? orbColor : orbColor2;
+            // Body share of the cell: acceptance weight 1 + neighbors/27 minus the part spent on its connectors
+            bodyWeights[c] = coverage * (1.0 + (neighbors - connected) / 27.0);
+            c++;
+          }
+        }
+      }
+      complete = !overflow;
+      if (overflow) {
+        edgeTotal = 0;
+      }
+      edgeCount = edgeTotal;
+      edgeData = Arrays.copyOf(edges, edgeTotal * EDGE_STRIDE);
+      edgeHash = Arrays.copyOf(hashes, edgeTotal);
+      double bodyTotal = 0.0;
+      for (double w : bodyWeights) bodyTotal += w;
+      connectorShare = (edgeTotal > 0 && bodyTotal + connectorTotal > 0.0) ? connectorTotal / (bodyTotal + connectorTotal) : 0.0;
+      bodyAlias = new AliasTable(overflow ? new double[0] : bodyWeights);
+      edgeAlias = new AliasTable(Arrays.copyOf(lengths, edgeTotal));
+
+      // The noise only varies along the connector, so sample it once per edge and interpolate linearly
+      int samples = (int) Math.ceil(Math.abs(connectorTexFreq) * connectorTexRes) + 2;
+      boolean bake = connectorTexture > 0 && connectorTexRes > 0 && (long) edgeTotal * samples * 2 <= MAX_TEXTURE_FLOATS;
+      textureLength = bake ? samples : 0;
+      textureStride = 2 * textureLength;
+      texture = bake ? new float[edgeTotal * textureStride] : null;
+      for (int e = 0; bake && e < edgeTotal; e++) {
+        long connHash = edgeHash[e];
+        for (int i = 0; i < samples; i++) {
+          double noiseAngle = ((double) i / (samples - 1)) * connectorTexFreq;
+          texture[e * textureStride + 2 * i] = (float) perlin.noise(noiseAngle, connHash + 1.2, connHash + 3.4);
+          texture[e * textureStride + 2 * i + 1] = (float) perlin.noise(noiseAngle, connHash + 5.6, connHash + 7.8);
+        }
+      }
+    }
+  }
+
+  // Length of [i, i + 1) inside [-|zoom|, |zoom|), the range the rejection loop draws cell coordinates from
+  private double axisCoverage(int i) {
+    double z = Math.abs(zoom);
+    return Math.min(i + 1, z) - Math.max(i, -z);
+  }
+
+  /**
+   * Walker/Vose alias table: draws index i with probability weights[i] / sum(weights) from a single
+   * uniform random number in O(1).
+   */
+  private static final class AliasTable {
+    final double[] prob;
+    final int[] alias;
+
+    AliasTable(double[] weights) {
+      int n = weights.length;
+      prob = new double[n];
+      alias = new int[n];
+      double sum = 0.0;
+      for (double w : weights) sum += w;
+      if (n == 0 || sum <= 0.0) {
+        Arrays.fill(prob, 1.0);
+        return;
+      }
+      double[] scaled = new double[n];
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int ns = 0, nl = 0;
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / sum;
+        if (scaled[i] < 1.0) small[ns++] = i;
+        else large[nl++] = i;
+      }
+      while (ns > 0 && nl > 0) {
+        int l = small[--ns];
+        int g = large[--nl];
+        prob[l] = scaled[l];
+        alias[l] = g;
+        scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+        if (scaled[g] < 1.0) small[ns++] = g;
+        else large[nl++] = g;
+      }
+      while (nl > 0) prob[large[--nl]] = 1.0;
+      while (ns > 0) prob[small[--ns]] = 1.0;
+    }
+
+    int sample(double rnd) {
+      int n = prob.length;
+      double u = rnd * n;
+      int i = (int) u;
+      if (i >= n) i = n - 1;
+      return (u - i < prob[i]) ? i : alias[i];
+    }
+  }
+
   private static final class PerlinNoise {
     private final int[] p = new int[512];
     public PerlinNoise(int seed) {
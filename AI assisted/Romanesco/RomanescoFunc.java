@@ -16,6 +16,7 @@
  */
 package org.jwildfire.create.tina.variation;
 
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -99,77 +100,217 @@ public class RomanescoFunc extends VariationFunc {
     private void normalize(XYZPoint v) { double len = Math.sqrt(v.x * v.x + v.y * v.y + v.z * v.z); if (len > 1e-9) { v.x /= len; v.y /= len; v.z /= len; } }
 
 
+    // Frame layout: position, axis_x, axis_y, axis_z
+    private static final int FRAME_SIZE = 12;
+    // Per-floret layout: local offset on the parent cone, then the (unit) cone normal
+    private static final int FLORET_SIZE = 6;
+    private static final int MAX_FIRST_FRAMES = 1 << 16;
+    private static final int MAX_FLORET_TABLE = 1 << 16;
+
+    // Precomputed in init()
+    private transient int floretCount;
+    private transient double[] florets;     // null if floretCount > MAX_FLORET_TABLE, see floret()
+    private transient double[] floretScratch;
+    private transient double[] floretCdf;   // P(index <= k), matching pow(random, 1.5) selection
+    private transient int[] floretGuide;    // first candidate index for each of floretCount equal random buckets
+    private transient int armCount;
+    private transient double[] armFrames;   // starting frame per arm
+    private transient double[] firstFrames; // frame after the first level, per arm and floret (null if too large)
+    private transient double cos_p, sin_p, cos_y, sin_y, cos_r, sin_r;
+
     @Override
-    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
-        
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        // --- Florets: golden-angle position and cone normal ---
+        int n = Math.max(1, this.floret_count);
+        floretCount = n;
+        floretScratch = new double[FLORET_SIZE];
+        florets = null;
+        floretCdf = null;
+        floretGuide = null;
+        if (n <= MAX_FLORET_TABLE) {
+            florets = new double[n * FLORET_SIZE];
+            for (int floret_index = 0; floret_index < n; floret_index++) {
+                computeFloret(floret_index, florets, floret_index * FLORET_SIZE);
+            }
+
+            // --- Selection: index = (int)(u^1.5 * n) has P(index <= k) = ((k + 1) / n)^(2/3) ---
+            buildFloretSelection(n);
+        }
+
+        // --- Arms ---
+        armCount = (num_arms > 1) ? num_arms : 1;
+        armFrames = new double[armCount * FRAME_SIZE];
+        for (int arm_index = 0; arm_index < armCount; arm_index++) {
+            XYZPoint pos = new XYZPoint();
+            XYZPoint axis_x = new XYZPoint(); axis_x.x=1;
+            XYZPoint axis_y = new XYZPoint(); axis_y.y=1;
+            XYZPoint axis_z = new XYZPoint(); axis_z.z=1;
+            if (num_arms > 1) {
+                double arm_base_angle = (double)arm_index / (double)num_arms * 2.0 * Math.PI;
+                
+                pos.x = this.arm_spread * cos(arm_base_angle);
+                pos.y = this.arm_spread * sin(arm_base_angle);
+                pos.z = 0;
+
+                double elevation_rad = this.arm_elevation * Math.PI / 180.0;
+                double twist_rad = pos.y * this.arm_twist;
+                double arm_angle = arm_base_angle + twist_rad;
+
+                axis_z.x = cos(arm_angle) * cos(elevation_rad);
+                axis_z.y = sin(arm_angle) * cos(elevation_rad);
+                axis_z.z = sin(elevation_rad);
+                
+                XYZPoint up_vec = new XYZPoint(); up_vec.z=1;
+                if (Math.abs(axis_z.z) > 0.999) { up_vec.x=1; up_vec.z=0;}
+                
+                cross(axis_x, axis_z, up_vec);
+                normalize(axis_x);
+                cross(axis_y, axis_z, axis_x);
+            }
+            int b = arm_index * FRAME_SIZE;
+            armFrames[b] = pos.x; armFrames[b + 1] = pos.y; armFrames[b + 2] = pos.z;
+            armFrames[b + 3] = axis_x.x; armFrames[b + 4] = axis_x.y; armFrames[b + 5] = axis_x.z;
+            armFrames[b + 6] = axis_y.x; armFrames[b + 7] = axis_y.y; armFrames[b + 8] = axis_y.z;
+            armFrames[b + 9] = axis_z.x; armFrames[b + 10] = axis_z.y; armFrames[b + 11] = axis_z.z;
+        }
+
+        // --- First level: complete frame for every arm and floret ---
+        firstFrames = null;
+        if (recursion_depth > 0 && florets != null && (long) armCount * n <= MAX_FIRST_FRAMES) {
+            double[] frames = new double[armCount * n * FRAME_SIZE];
+            for (int a = 0; a < armCount; a++) {
+                for (int f = 0; f < n; f++) {
+                    int dst = (a * n + f) * FRAME_SIZE;
+                    System.arraycopy(armFrames, a * FRAME_SIZE, frames, dst, FRAME_SIZE);
+                    stepFrame(frames, dst, f, this.size);
+                }
+            }
+            firstFrames = frames;
+        }
+
+        cos_p = Math.cos(Math.toRadians(pitch));
+        sin_p = Math.sin(Math.toRadians(pitch));
+        cos_y = Math.cos(Math.toRadians(yaw));
+        sin_y = Math.sin(Math.toRadians(yaw));
+        cos_r = Math.cos(Math.toRadians(roll));
+        sin_r = Math.sin(Math.toRadians(roll));
+    }
+
+    private void buildFloretSelection(int n) {
+        floretCdf = new double[n];
+        for (int k = 0; k < n - 1; k++) floretCdf[k] = pow((k + 1) / (double) n, 2.0 / 3.0);
+        floretCdf[n - 1] = 1.0;
+        floretGuide = new int[n];
+        for (int j = 0, k = 0; j < n; j++) {
+            while (k < n - 1 && floretCdf[k] <= j / (double) n) k++;
+            floretGuide[j] = k;
+        }
+    }
+
+    // Golden-angle position and cone normal of one floret, written to out[off .. off + FLORET_SIZE - 1]
+    private void computeFloret(int floret_index, double[] out, int off) {
         final double GOLDEN_ANGLE = Math.PI * (3.0 - Math.sqrt(5.0));
+        double spiral_angle = floret_index * GOLDEN_ANGLE * this.spiral_twist;
+        double r = this.pattern_spread * sqrt(floret_index);
+        XYZPoint normal = new XYZPoint();
+        normal.x = -this.cone_steepness * cos(spiral_angle);
+        normal.y = -this.cone_steepness * sin(spiral_angle);
+        normal.z = 1.0;
+        normalize(normal);
+        out[off] = r * cos(spiral_angle);
+        out[off + 1] = r * sin(spiral_angle);
+        out[off + 2] = r * this.cone_steepness;
+        out[off + 3] = normal.x;
+        out[off + 4] = normal.y;
+        out[off + 5] = normal.z;
+    }
 
-        // Initialize transformation
-        double current_scale = this.size;
-        XYZPoint pos = new XYZPoint();
-        XYZPoint axis_x = new XYZPoint(); axis_x.x=1;
-        XYZPoint axis_y = new XYZPoint(); axis_y.y=1;
-        XYZPoint axis_z = new XYZPoint(); axis_z.z=1;
-        
-        // Arm Placement Logic
-        if (num_arms > 1) {
-            int arm_index = (int)(pContext.random() * num_arms);
-            double arm_base_angle = (double)arm_index / (double)num_arms * 2.0 * Math.PI;
-            
-            pos.x = this.arm_spread * cos(arm_base_angle);
-            pos.y = this.arm_spread * sin(arm_base_angle);
-            pos.z = 0;
+    // Inverse-CDF floret selection through the guide table; closed form when the count is too large for tables
+    private int sampleFloret(double u) {
+        if (floretGuide == null) return (int) (pow(u, 1.5) * floretCount);
+        int k = floretGuide[Math.min((int) (u * floretCount), floretCount - 1)];
+        while (k < floretCount - 1 && u >= floretCdf[k]) k++;
+        return k;
+    }
 
-            double elevation_rad = this.arm_elevation * Math.PI / 180.0;
-            double twist_rad = pos.y * this.arm_twist;
-            double arm_angle = arm_base_angle + twist_rad;
+    // One recursion level applied to the frame at fr[off]; the same steps as the loop in transform()
+    private void stepFrame(double[] fr, int off, int f, double current_scale) {
+        int b = f * FLORET_SIZE;
+        double lx = florets[b], ly = florets[b + 1], lz = florets[b + 2];
+        double nx = florets[b + 3], ny = florets[b + 4], nz = florets[b + 5];
+        fr[off] += (fr[off + 3] * lx + fr[off + 6] * ly + fr[off + 9] * lz) * current_scale;
+        fr[off + 1] += (fr[off + 4] * lx + fr[off + 7] * ly + fr[off + 10] * lz) * current_scale;
+        fr[off + 2] += (fr[off + 5] * lx + fr[off + 8] * ly + fr[off + 11] * lz) * current_scale;
+        XYZPoint axis_z = new XYZPoint();
+        axis_z.x = fr[off + 3] * nx + fr[off + 6] * ny + fr[off + 9] * nz;
+        axis_z.y = fr[off + 4] * nx + fr[off + 7] * ny + fr[off + 10] * nz;
+        axis_z.z = fr[off + 5] * nx + fr[off + 8] * ny + fr[off + 11] * nz;
+        normalize(axis_z);
+        XYZPoint up_vec = new XYZPoint(); up_vec.y=1;
+        if (Math.abs(axis_z.y) > 0.999) { up_vec.x=1; up_vec.y=0; }
+        XYZPoint axis_x = new XYZPoint();
+        XYZPoint axis_y = new XYZPoint();
+        cross(axis_x, up_vec, axis_z);
+        normalize(axis_x);
+        cross(axis_y, axis_z, axis_x);
+        fr[off + 3] = axis_x.x; fr[off + 4] = axis_x.y; fr[off + 5] = axis_x.z;
+        fr[off + 6] = axis_y.x; fr[off + 7] = axis_y.y; fr[off + 8] = axis_y.z;
+        fr[off + 9] = axis_z.x; fr[off + 10] = axis_z.y; fr[off + 11] = axis_z.z;
+    }
 
-            axis_z.x = cos(arm_angle) * cos(elevation_rad);
-            axis_z.y = sin(arm_angle) * cos(elevation_rad);
-            axis_z.z = sin(elevation_rad);
-            
-            XYZPoint up_vec = new XYZPoint(); up_vec.z=1;
-            if (Math.abs(axis_z.z) > 0.999) { up_vec.x=1; up_vec.z=0;}
-            
-            cross(axis_x, axis_z, up_vec);
-            normalize(axis_x);
-            cross(axis_y, axis_z, axis_x);
+    @Override
+    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+        // Arm Placement Logic
+        int arm = (armCount > 1) ? (int)(pContext.random() * armCount) : 0;
+
+        // Start frame: the arm itself, or directly the frame after the first level
+        double current_scale = this.size;
+        int level = 0;
+        double[] fr = armFrames;
+        int b = arm * FRAME_SIZE;
+        if (firstFrames != null) {
+            fr = firstFrames;
+            b = (arm * floretCount + sampleFloret(pContext.random())) * FRAME_SIZE;
+            current_scale *= this.floret_scale;
+            level = 1;
         }
+        double pos_x = fr[b], pos_y = fr[b + 1], pos_z = fr[b + 2];
+        double ax_x = fr[b + 3], ax_y = fr[b + 4], ax_z = fr[b + 5];
+        double ay_x = fr[b + 6], ay_y = fr[b + 7], ay_z = fr[b + 8];
+        double az_x = fr[b + 9], az_y = fr[b + 10], az_z = fr[b + 11];
 
         // Iterative recursion
-        for (int i = 0; i < this.recursion_depth; i++) {
-            int floret_index = (int)(pow(pContext.random(), 1.5) * this.floret_count);
-            double spiral_angle = floret_index * GOLDEN_ANGLE * this.spiral_twist;
-            double r = this.pattern_spread * sqrt(floret_index);
-
-            double local_x = r * cos(spiral_angle);
-            double local_y = r * sin(spiral_angle);
-            double local_z = r * this.cone_steepness;
-
-            pos.x += (axis_x.x * local_x + axis_y.x * local_y + axis_z.x * local_z) * current_scale;
-            pos.y += (axis_x.y * local_x + axis_y.y * local_y + axis_z.y * local_z) * current_scale;
-            pos.z += (axis_x.z * local_x + axis_y.z * local_y + axis_z.z * local_z) * current_scale;
-
-            XYZPoint normal = new XYZPoint();
-            normal.x = -this.cone_steepness * cos(spiral_angle);
-            normal.y = -this.cone_steepness * sin(spiral_angle);
-            normal.z = 1.0;
-            normalize(normal);
-
-            XYZPoint new_axis_z = new XYZPoint();
-            new_axis_z.x = axis_x.x * normal.x + axis_y.x * normal.y + axis_z.x * normal.z;
-            new_axis_z.y = axis_x.y * normal.x + axis_y.y * normal.y + axis_z.y * normal.z;
-            new_axis_z.z = axis_x.z * normal.x + axis_y.z * normal.y + axis_z.z * normal.z;
-            
-            axis_z = new_axis_z;
-            normalize(axis_z);
-            
-            XYZPoint up_vec = new XYZPoint(); up_vec.y=1;
-            if (Math.abs(axis_z.y) > 0.999) { up_vec.x=1; up_vec.y=0; }
-            
-            cross(axis_x, up_vec, axis_z);
-            normalize(axis_x);
-            cross(axis_y, axis_z, axis_x);
+        final double[] fl = (florets != null) ? florets : floretScratch;
+        for (; level < this.recursion_depth; level++) {
+            int f = sampleFloret(pContext.random());
+            if (florets != null) f *= FLORET_SIZE;
+            else { computeFloret(f, fl, 0); f = 0; }
+            double local_x = fl[f], local_y = fl[f + 1], local_z = fl[f + 2];
+
+            pos_x += (ax_x * local_x + ay_x * local_y + az_x * local_z) * current_scale;
+            pos_y += (ax_y * local_x + ay_y * local_y + az_y * local_z) * current_scale;
+            pos_z += (ax_z * local_x + ay_z * local_y + az_z * local_z) * current_scale;
+
+            // New cone axis: the floret normal in the current frame
+            double n_x = fl[f + 3], n_y = fl[f + 4], n_z = fl[f + 5];
+            double zx = ax_x * n_x + ay_x * n_y + az_x * n_z;
+            double zy = ax_y * n_x + ay_y * n_y + az_y * n_z;
+            double zz = ax_z * n_x + ay_z * n_y + az_z * n_z;
+            double len = Math.sqrt(zx * zx + zy * zy + zz * zz);
+            if (len > 1e-9) { zx /= len; zy /= len; zz /= len; }
+
+            // axis_x = normalize(up x axis_z) with up = +Y, or +X near the poles
+            double xx, xy, xz;
+            if (Math.abs(zy) > 0.999) { xx = 0.0; xy = -zz; xz = zy; }
+            else { xx = zz; xy = 0.0; xz = -zx; }
+            len = Math.sqrt(xx * xx + xy * xy + xz * xz);
+            if (len > 1e-9) { xx /= len; xy /= len; xz /= len; }
+
+            ax_x = xx; ax_y = xy; ax_z = xz;
+            ay_x = zy * xz - zz * xy;
+            ay_y = zz * xx - zx * xz;
+            ay_z = zx * xy - zy * xx;
+            az_x = zx; az_y = zy; az_z = zz;
 
             current_scale *= this.floret_scale;
         }
@@ -206,19 +347,12 @@ public class RomanescoFunc extends VariationFunc {
                 break;
         }
 
-        double final_x = pos.x + (axis_x.x * local_x_final + axis_y.x * local_y_final + axis_z.x * local_z_final);
-        double final_y = pos.y + (axis_x.y * local_x_final + axis_y.y * local_y_final + axis_z.y * local_z_final);
-        double final_z = pos.z + (axis_x.z * local_x_final + axis_y.z * local_y_final + axis_z.z * local_z_final);
+        double final_x = pos_x + (ax_x * local_x_final + ay_x * local_y_final + az_x * local_z_final);
+        double final_y = pos_y + (ax_y * local_x_final + ay_y * local_y_final + az_y * local_z_final);
+        double final_z = pos_z + (ax_z * local_x_final + ay_z * local_y_final + az_z * local_z_final);
         
         // Apply Rotations to the final calculated point
         if (pitch != 0.0 || yaw != 0.0 || roll != 0.0) {
-            double cos_p = Math.cos(Math.toRadians(pitch));
-            double sin_p = Math.sin(Math.toRadians(pitch));
-            double cos_y = Math.cos(Math.toRadians(yaw));
-            double sin_y = Math.sin(Math.toRadians(yaw));
-            double cos_r = Math.cos(Math.toRadians(roll));
-            double sin_r = Math.sin(Math.toRadians(roll));
-
             // Yaw (Y-axis rotation)
             double tempX = final_x * cos_y - final_z * sin_y;
             double tempZ = final_x * sin_y + final_z * cos_y;
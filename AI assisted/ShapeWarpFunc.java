@@ -17,6 +17,7 @@ import java.text.DecimalFormat; // For formatting alternative names
 
 // JWildfire base classes
 // NO import org.jwildfire.create.tina.base.FlameTransformationContext;
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -107,172 +108,205 @@ public class ShapeWarpFunc extends VariationFunc {
     // Constants for calculation
     private static final double TWO_PI = 2.0 * Math.PI;
     private static final double PI = Math.PI;
-    private static final double PI_OVER_3 = Math.PI / 3.0;
-    private static final double PI_OVER_5 = Math.PI / 5.0;
-    private static final double PI_OVER_6 = Math.PI / 6.0;
-    private static final double COS_PI_OVER_3 = Math.cos(PI_OVER_3);
-    private static final double COS_PI_OVER_5 = Math.cos(PI_OVER_5);
-    private static final double COS_PI_OVER_6 = Math.cos(PI_OVER_6);
 
     // For formatting alt names
     private static final DecimalFormat df1 = new DecimalFormat("0.0");
     private static final DecimalFormat df2 = new DecimalFormat("0.00");
 
+    // Radius-vs-angle table resolution (samples per period)
+    private static final int ANGLE_TABLE_SIZE = 2048;
+
+    // --- Precomputed in init() ---
+    private transient double hw, hh, R;
+    private transient double innerR, outerR, warpRange, curve;
+    private transient boolean invert;
+    // Triangle/Pentagon/Hexagon: unit edge normals (x, y pairs); dist = max(p . n) / apothem
+    private transient double[] polyNormals;
+    private transient double invApothem;
+    // Flower/Star/Cloud: boundary radius over one period of the angle, as (start, end) pairs of ANGLE_TABLE_SIZE cells.
+    // End is the limit from the left, so the Star's jumps between point and valley sectors stay sharp
+    private transient double[] angleTable;
+    private transient double angleTableScale; // Samples per radian
+    // cos/sin of the full rotation, used wherever the warp factor saturates at 1
+    private transient double cosWarp, sinWarp;
+
 
     // --- Methods ---
 
     @Override
-    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        double currentAspect = (shape == SHAPE_RECTANGLE || shape == SHAPE_CIRCLE_ELLIPSE || shape == SHAPE_DIAMOND) ? this.aspect : 1.0;
+        hw = Math.max(1e-9, size * currentAspect * 0.5);
+        hh = Math.max(1e-9, size * 0.5);
+        R = Math.max(1e-9, size * 0.5); // Base radius/size factor
+        innerR = Math.max(0.0, this.innerRadius);
+        outerR = Math.max(innerR + 1e-9, this.outerRadius);
+        warpRange = outerR - innerR;
+        curve = Math.max(1e-6, this.warpCurve);
+        invert = (this.warpInvert != 0);
+        cosWarp = Math.cos(warpAmount);
+        sinWarp = Math.sin(warpAmount);
+
+        // Regular polygons: the boundary radius R*cos(PI/n)/|cos(angle - bisector)| of the angle's sector is the
+        // edge line at distance R*cos(PI/n) with normal along the bisector, so dist = max over the edges of (p . n) / (R*cos(PI/n))
+        polyNormals = null;
+        int n = (shape == SHAPE_TRIANGLE) ? 3 : (shape == SHAPE_PENTAGON) ? 5 : (shape == SHAPE_HEXAGON) ? 6 : 0;
+        if (n > 0) {
+            polyNormals = new double[n * 2];
+            for (int i = 0; i < n; i++) {
+                double a = i * (TWO_PI / n) + PI / n;
+                polyNormals[i * 2] = Math.cos(a);
+                polyNormals[i * 2 + 1] = Math.sin(a);
+            }
+            invApothem = 1.0 / (R * Math.cos(PI / n));
+        }
 
-        // 1. Get Parameters
-        int currentShape = this.shape;
-        double currentSize = this.size;
-        double currentAspect = (currentShape == SHAPE_RECTANGLE || currentShape == SHAPE_CIRCLE_ELLIPSE || currentShape == SHAPE_DIAMOND) ? this.aspect : 1.0;
-        double currentCenterX = this.centerX;
-        double currentCenterY = this.centerY;
-        double currentInnerRadius = Math.max(0.0, this.innerRadius);
-        double currentOuterRadius = Math.max(currentInnerRadius + 1e-9, this.outerRadius);
-        int currentWarpMode = this.warpMode;
-        double currentWarpAmount = this.warpAmount;
-        double currentWarpAmountX = this.warpAmountX;
-        double currentWarpAmountY = this.warpAmountY;
-        double currentWarpCenterX = this.warpCenterX;
-        double currentWarpCenterY = this.warpCenterY;
-        double currentWarpCurve = Math.max(1e-6, this.warpCurve);
-        boolean invert = (this.warpInvert != 0);
-        // Shape specific params
-        int currentFlowerPetals = (currentShape == SHAPE_FLOWER) ? this.flowerPetals : 0;
-        int currentStarPoints = (currentShape == SHAPE_STAR) ? this.starPoints : 0;
-        double currentStarDepth = (currentShape == SHAPE_STAR) ? this.starDepth : 0;
-        double currentCloudAmplitude = (currentShape == SHAPE_CLOUD) ? this.cloudAmplitude : 0;
-        double currentCloudFrequency = (currentShape == SHAPE_CLOUD) ? this.cloudFrequency : 0;
-
-        // 2. Calculate coords relative to SHAPE center
-        double shapeRelX = pAffineTP.x - currentCenterX;
-        double shapeRelY = pAffineTP.y - currentCenterY;
-
-        // 3. Calculate shape dimensions and distance metric
-        double hw = Math.max(1e-9, currentSize * currentAspect * 0.5);
-        double hh = Math.max(1e-9, currentSize * 0.5);
-        double R = Math.max(1e-9, currentSize * 0.5); // Base radius/size factor
-        double dist = 0.0; // Normalized distance
-
-        // Pre-calculate polar coordinates
-        double radius = Math.sqrt(shapeRelX * shapeRelX + shapeRelY * shapeRelY);
-        double angle = 0.0;
-        if (radius > 1e-9) {
-             angle = Math.atan2(shapeRelY, shapeRelX);
-             while (angle < 0) { angle += TWO_PI; } // Normalize angle to [0, 2*PI)
+        // Angular shapes: one period of the boundary radius (Flower: PI/k, Star: 2*PI/k, Cloud: 2*PI)
+        angleTable = null;
+        if (shape == SHAPE_FLOWER || shape == SHAPE_STAR || shape == SHAPE_CLOUD) {
+            double period = (shape == SHAPE_FLOWER) ? PI / flowerPetals : (shape == SHAPE_STAR) ? TWO_PI / starPoints : TWO_PI;
+            angleTableScale = ANGLE_TABLE_SIZE / period;
+            angleTable = new double[ANGLE_TABLE_SIZE * 2];
+            for (int i = 0; i < ANGLE_TABLE_SIZE; i++) {
+                if (shape == SHAPE_STAR) {
+                    // The Star is linear within a cell (its kinks and jumps fall on cell boundaries), so extrapolate
+                    // from the quarter points, which stay clear of the boundaries and their rounding
+                    double q1 = boundaryRadius((i + 0.25) / angleTableScale), q3 = boundaryRadius((i + 0.75) / angleTableScale);
+                    angleTable[i * 2] = 1.5 * q1 - 0.5 * q3;
+                    angleTable[i * 2 + 1] = 1.5 * q3 - 0.5 * q1;
+                } else {
+                    angleTable[i * 2] = boundaryRadius(i / angleTableScale);
+                    angleTable[i * 2 + 1] = boundaryRadius((i + 1) / angleTableScale);
+                }
+            }
         }
+    }
 
-        // Shape distance calculations
-        if (currentShape == SHAPE_CIRCLE_ELLIPSE) {
-            double normX = shapeRelX / hw; double normY = shapeRelY / hh;
-            dist = Math.sqrt(normX*normX + normY*normY);
-        } else if (currentShape == SHAPE_DIAMOND) {
-             double normX = shapeRelX / hw; double normY = shapeRelY / hh;
-            dist = Math.abs(normX) + Math.abs(normY);
-        } else if (currentShape == SHAPE_TRIANGLE) {
-            if (radius < 1e-9) { dist = 0.0; } else {
-                double sectorAngle = TWO_PI / 3.0; double bisectorAngle = PI_OVER_3;
-                double currentAngleInSector = angle % sectorAngle; double angle_diff = currentAngleInSector - bisectorAngle;
-                double cos_term = Math.cos(angle_diff); double shapeBoundaryR = R * COS_PI_OVER_3 / Math.max(1e-9, Math.abs(cos_term));
-                dist = radius / Math.max(1e-9, shapeBoundaryR);
+    /** Exact boundary radius of the Flower, Star and Cloud shapes at the given angle (0..2*PI). */
+    private double boundaryRadius(double angle) {
+        if (shape == SHAPE_FLOWER) {
+            return Math.max(1e-9, R * Math.abs(Math.cos(flowerPetals * angle)));
+        } else if (shape == SHAPE_STAR) {
+            double k = starPoints; // Number of points
+            double R_outer = R;
+            double R_inner = R * starDepth;
+            double anglePerVertex = PI / k; // Angle between adjacent point and valley
+            int sectorIndex = (int) Math.floor(angle / anglePerVertex);
+            double angleInSector = angle - sectorIndex * anglePerVertex;
+            double t = angleInSector / anglePerVertex; // Normalize angle within sector (0 to 1)
+            double t_norm = 2.0 * Math.abs(t - 0.5); // Normalized distance from sector center (0 at center, 1 at edges)
+            double starBoundaryR;
+            if (sectorIndex % 2 == 0) { // Even index = point sector
+                starBoundaryR = R_inner + (R_outer - R_inner) * (1.0 - t_norm);
+            } else { // Odd index = valley sector
+                starBoundaryR = R_inner + (R_outer - R_inner) * t_norm;
             }
-        } else if (currentShape == SHAPE_PENTAGON) {
-             if (radius < 1e-9) { dist = 0.0; } else {
-                 double sectorAngle = TWO_PI / 5.0; double bisectorAngle = PI_OVER_5;
-                 double currentAngleInSector = angle % sectorAngle; double angle_diff = currentAngleInSector - bisectorAngle;
-                 double cos_term = Math.cos(angle_diff); double shapeBoundaryR = R * COS_PI_OVER_5 / Math.max(1e-9, Math.abs(cos_term));
-                 dist = radius / Math.max(1e-9, shapeBoundaryR);
-             }
-        } else if (currentShape == SHAPE_HEXAGON) {
-             if (radius < 1e-9) { dist = 0.0; } else {
-                 double sectorAngle = TWO_PI / 6.0; double bisectorAngle = PI_OVER_6;
-                 double currentAngleInSector = angle % sectorAngle; double angle_diff = currentAngleInSector - bisectorAngle;
-                 double cos_term = Math.cos(angle_diff); double shapeBoundaryR = R * COS_PI_OVER_6 / Math.max(1e-9, Math.abs(cos_term));
-                 dist = radius / Math.max(1e-9, shapeBoundaryR);
-             }
-        } else if (currentShape == SHAPE_FLOWER) {
-            if (radius < 1e-9) { dist = 0.0; } else {
-                double flowerBoundaryR = R * Math.abs(Math.cos(currentFlowerPetals * angle));
-                dist = radius / Math.max(1e-9, flowerBoundaryR);
+            return Math.max(1e-9, starBoundaryR);
+        } else { // Cloud
+            // Simple pseudo-noise using sum of sines with different frequencies/phases
+            double noise = 0.6 * Math.sin(cloudFrequency * angle)
+                         + 0.3 * Math.sin(2.1 * cloudFrequency * angle + 1.23)
+                         + 0.1 * Math.sin(4.3 * cloudFrequency * angle + 4.56);
+            // Modulate base radius R with noise, min 10% of base radius
+            return Math.max(R * 0.1, R * (1.0 + cloudAmplitude * noise));
+        }
+    }
+
+    @Override
+    public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+
+        // 1. Calculate coords relative to SHAPE center
+        double shapeRelX = pAffineTP.x - centerX;
+        double shapeRelY = pAffineTP.y - centerY;
+
+        // 2. Normalized distance to the shape boundary
+        double dist;
+        switch (shape) {
+            case SHAPE_CIRCLE_ELLIPSE: {
+                double normX = shapeRelX / hw; double normY = shapeRelY / hh;
+                dist = Math.sqrt(normX*normX + normY*normY);
+                break;
+            }
+            case SHAPE_DIAMOND: {
+                double normX = shapeRelX / hw; double normY = shapeRelY / hh;
+                dist = Math.abs(normX) + Math.abs(normY);
+                break;
+            }
+            case SHAPE_TRIANGLE:
+            case SHAPE_PENTAGON:
+            case SHAPE_HEXAGON: {
+                final double[] nrm = polyNormals;
+                double maxDot = shapeRelX * nrm[0] + shapeRelY * nrm[1];
+                for (int i = 2; i < nrm.length; i += 2) {
+                    double d = shapeRelX * nrm[i] + shapeRelY * nrm[i + 1];
+                    if (d > maxDot) maxDot = d;
+                }
+                dist = maxDot * invApothem;
+                break;
+            }
+            case SHAPE_FLOWER:
+            case SHAPE_STAR:
+            case SHAPE_CLOUD: {
+                double radius = Math.sqrt(shapeRelX * shapeRelX + shapeRelY * shapeRelY);
+                if (radius < 1e-9) { dist = 0.0; break; }
+                double angle = Math.atan2(shapeRelY, shapeRelX);
+                if (angle < 0) angle += TWO_PI; // Normalize angle to [0, 2*PI)
+                double t = angle * angleTableScale;
+                int i = (int) t;
+                double f = t - i;
+                i = (i % ANGLE_TABLE_SIZE) * 2;
+                double boundaryR = angleTable[i] + (angleTable[i + 1] - angleTable[i]) * f;
+                dist = radius / boundaryR;
+                break;
+            }
+            default: { // Square (shape=0) or Rectangle (shape=1)
+                double normX = shapeRelX / hw; double normY = shapeRelY / hh;
+                dist = Math.max(Math.abs(normX), Math.abs(normY));
+                break;
             }
-        } else if (currentShape == SHAPE_STAR) { // New Star Logic
-             if (radius < 1e-9) { dist = 0.0; } else {
-                 double k = currentStarPoints; // Number of points
-                 double depth = currentStarDepth; // Depth (0-1)
-                 double R_outer = R;
-                 double R_inner = R * depth;
-
-                 double anglePerVertex = PI / k; // Angle between adjacent point and valley
-                 int sectorIndex = (int) Math.floor(angle / anglePerVertex);
-                 double angleInSector = angle - sectorIndex * anglePerVertex;
-
-                 // Normalize angle within sector (0 to 1)
-                 double t = angleInSector / anglePerVertex;
-                 // Normalized distance from sector center (0 at center, 1 at edges)
-                 double t_norm = 2.0 * Math.abs(t - 0.5);
-
-                 double starBoundaryR;
-                 if (sectorIndex % 2 == 0) { // Even index = point sector
-                     starBoundaryR = R_inner + (R_outer - R_inner) * (1.0 - t_norm);
-                 } else { // Odd index = valley sector
-                     starBoundaryR = R_inner + (R_outer - R_inner) * t_norm;
-                 }
-                 dist = radius / Math.max(1e-9, starBoundaryR);
-             }
-        } else if (currentShape == SHAPE_CLOUD) { // New Cloud Logic
-             if (radius < 1e-9) { dist = 0.0; } else {
-                  double amp = currentCloudAmplitude;
-                  double freq = currentCloudFrequency;
-                  // Simple pseudo-noise using sum of sines with different frequencies/phases
-                  double noise = 0.6 * Math.sin(freq * angle)
-                               + 0.3 * Math.sin(2.1 * freq * angle + 1.23)
-                               + 0.1 * Math.sin(4.3 * freq * angle + 4.56);
-                  // Modulate base radius R with noise
-                  double cloudBoundaryR = R * (1.0 + amp * noise);
-                  // Ensure boundary is positive and not too small
-                  cloudBoundaryR = Math.max(R * 0.1, cloudBoundaryR); // Min 10% of base radius
-                  dist = radius / cloudBoundaryR; // No need for max(1e-9,...) here due to clamp above
-             }
-        } else { // Square (shape=0) or Rectangle (shape=1)
-            double normX = shapeRelX / hw; double normY = shapeRelY / hh;
-            dist = Math.max(Math.abs(normX), Math.abs(normY));
         }
 
-        // 4. Calculate Warp Factor (Unchanged)
-        double warpFactor = 0.0;
-        double range = currentOuterRadius - currentInnerRadius;
-        if (dist <= currentInnerRadius) { warpFactor = 0.0; }
-        else if (dist >= currentOuterRadius) { warpFactor = 1.0; }
-        else { if (range > 1e-9) { warpFactor = (dist - currentInnerRadius) / range; } else { warpFactor = 1.0; } }
-        warpFactor = Math.pow(warpFactor, currentWarpCurve);
+        // 3. Calculate Warp Factor
+        double warpFactor;
+        if (dist <= innerR) { warpFactor = 0.0; }
+        else if (dist >= outerR) { warpFactor = 1.0; }
+        else { warpFactor = (warpRange > 1e-9) ? Math.pow((dist - innerR) / warpRange, curve) : 1.0; }
         if (invert) { warpFactor = 1.0 - warpFactor; }
-        double effectiveWarp = warpFactor * currentWarpAmount;
-        double effectiveWarpX = warpFactor * currentWarpAmountX;
-        double effectiveWarpY = warpFactor * currentWarpAmountY;
 
-        // 5. Calculate coords relative to WARP center (Unchanged)
-        double warpRelX = pAffineTP.x - currentWarpCenterX;
-        double warpRelY = pAffineTP.y - currentWarpCenterY;
+        // 4. Calculate coords relative to WARP center
+        double warpRelX = pAffineTP.x - warpCenterX;
+        double warpRelY = pAffineTP.y - warpCenterY;
         double warpedX_rc = warpRelX;
         double warpedY_rc = warpRelY;
 
-        // 6. Apply the selected warp mode (Unchanged)
-        switch (currentWarpMode) {
-            case WARP_ROTATE: { double angleWarp = effectiveWarp; double cosA = Math.cos(angleWarp); double sinA = Math.sin(angleWarp); warpedX_rc = warpRelX * cosA - warpRelY * sinA; warpedY_rc = warpRelX * sinA + warpRelY * cosA; break; }
-            case WARP_SCALE_RADIAL: { double scaleFactor = Math.max(1e-9, 1.0 + effectiveWarp); warpedX_rc = warpRelX * scaleFactor; warpedY_rc = warpRelY * scaleFactor; break; }
-            case WARP_SWIRL: { double currentAngleSwirl = Math.atan2(warpRelY, warpRelX); double radiusSwirl = Math.sqrt(warpRelX * warpRelX + warpRelY * warpRelY); double swirlAngle = currentAngleSwirl + effectiveWarp; warpedX_rc = radiusSwirl * Math.cos(swirlAngle); warpedY_rc = radiusSwirl * Math.sin(swirlAngle); break; }
-            case WARP_SCALE_XY: { double scaleX = Math.max(1e-9, 1.0 + effectiveWarpX); double scaleY = Math.max(1e-9, 1.0 + effectiveWarpY); warpedX_rc = warpRelX * scaleX; warpedY_rc = warpRelY * scaleY; break; }
-            case WARP_FISHEYE: { double angleFish = Math.atan2(warpRelY, warpRelX); double radiusFish = Math.sqrt(warpRelX*warpRelX + warpRelY*warpRelY); if (radiusFish > 1e-9) { double power = 1.0 - effectiveWarp; power = Math.max(-5.0, Math.min(5.0, power)); if (Math.abs(power - 1.0) > 1e-9) { double newRadius = Math.pow(radiusFish, power); warpedX_rc = newRadius * Math.cos(angleFish); warpedY_rc = newRadius * Math.sin(angleFish); } } break; }
-            case WARP_SHEAR: { warpedX_rc = warpRelX + effectiveWarpX * warpRelY; warpedY_rc = warpRelY + effectiveWarpY * warpRelX; break; }
+        // 5. Apply the selected warp mode
+        switch (warpMode) {
+            case WARP_ROTATE:
+            case WARP_SWIRL: { // Swirl adds the warp angle to the polar angle around the warp center, i.e. it is the same rotation
+                if (warpFactor == 0.0) break;
+                double cosA, sinA;
+                if (warpFactor == 1.0) { cosA = cosWarp; sinA = sinWarp; }
+                else { double angleWarp = warpFactor * warpAmount; cosA = Math.cos(angleWarp); sinA = Math.sin(angleWarp); }
+                warpedX_rc = warpRelX * cosA - warpRelY * sinA; warpedY_rc = warpRelX * sinA + warpRelY * cosA;
+                break;
+            }
+            case WARP_SCALE_RADIAL: { double scaleFactor = Math.max(1e-9, 1.0 + warpFactor * warpAmount); warpedX_rc = warpRelX * scaleFactor; warpedY_rc = warpRelY * scaleFactor; break; }
+            case WARP_SCALE_XY: { double scaleX = Math.max(1e-9, 1.0 + warpFactor * warpAmountX); double scaleY = Math.max(1e-9, 1.0 + warpFactor * warpAmountY); warpedX_rc = warpRelX * scaleX; warpedY_rc = warpRelY * scaleY; break; }
+            case WARP_FISHEYE: { // r -> r^power along the same direction, i.e. a radial scale by r^(power - 1)
+                double radiusFish = Math.sqrt(warpRelX*warpRelX + warpRelY*warpRelY);
+                if (radiusFish > 1e-9) {
+                    double power = 1.0 - warpFactor * warpAmount; power = Math.max(-5.0, Math.min(5.0, power));
+                    if (Math.abs(power - 1.0) > 1e-9) { double scale = Math.pow(radiusFish, power - 1.0); warpedX_rc = warpRelX * scale; warpedY_rc = warpRelY * scale; }
+                }
+                break;
+            }
+            case WARP_SHEAR: { warpedX_rc = warpRelX + warpFactor * warpAmountX * warpRelY; warpedY_rc = warpRelY + warpFactor * warpAmountY * warpRelX; break; }
             default: break;
         }
 
-        // 7. Translate back & calculate final target (Unchanged)
-        double finalX = warpedX_rc + currentWarpCenterX;
-        double finalY = warpedY_rc + currentWarpCenterY;
+        // 6. Translate back & calculate final target
+        double finalX = warpedX_rc + warpCenterX;
+        double finalY = warpedY_rc + warpCenterY;
         double finalZ = pAffineTP.z;
 
         // --- OUTPUT SECTION (Scaled by pAmount) --- (Unchanged)
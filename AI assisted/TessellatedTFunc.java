@@ -17,8 +17,10 @@ package org.jwildfire.create.tina.variation;
 
 // Import standard Math explicitly for max(int, int) to avoid ambiguity
 import java.lang.Math;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.jwildfire.base.mathlib.MathLib; // Ensure base MathLib is imported
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -48,11 +50,14 @@ import static org.jwildfire.base.mathlib.MathLib.*;
  * @param rotate_pattern  Cell rotation pattern: 0=Uniform, 1=Checkerboard, 2=Per Row/Ring, 3=Per Col/Sector.
  * @param num_sectors     Number of angular sectors for Mode 5 (Radial Tiling). Default 8.
  * @param julia_iterations Number of iterations for Mode 9 (Julia-like). Default 4.
+ * @param julia_bailout   Escape radius for Mode 9; iteration stops once |z| exceeds it. 0 = off (always run all iterations).
+ * @param julia_periodicity Mode 9: 1 = detect settled cycles (Brent) and skip ahead to the same final point, 0 = off.
+ * @param julia_color     Mode 9: 1 = smooth iteration count (escaped points, needs julia_bailout) drives the color, 0 = off.
  */
 public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
 
     // Increment serialVersionUID when members/methods change
-    private static final long serialVersionUID = 11L; // Added fold_n and symmetry mode 5
+    private static final long serialVersionUID = 12L; // Added julia_bailout, julia_periodicity and julia_color
 
     // Parameter names
     private static final String PARAM_MODE = "mode";
@@ -68,11 +73,15 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
     private static final String PARAM_ROTATE_PATTERN = "rotate_pattern";
     private static final String PARAM_NUM_SECTORS = "num_sectors";
     private static final String PARAM_JULIA_ITERATIONS = "julia_iterations";
+    private static final String PARAM_JULIA_BAILOUT = "julia_bailout";
+    private static final String PARAM_JULIA_PERIODICITY = "julia_periodicity";
+    private static final String PARAM_JULIA_COLOR = "julia_color";
 
     private static final String[] paramNames = {
             PARAM_MODE, PARAM_SCALE, PARAM_DISTORT_X, PARAM_DISTORT_Y, PARAM_SYMMETRY, PARAM_FOLD_N, // Added fold_n
             PARAM_EDGE_BLEND, PARAM_GRID_ROTATE, PARAM_CELL_ROTATE, PARAM_CELL_ROTATE2,
-            PARAM_ROTATE_PATTERN, PARAM_NUM_SECTORS, PARAM_JULIA_ITERATIONS
+            PARAM_ROTATE_PATTERN, PARAM_NUM_SECTORS, PARAM_JULIA_ITERATIONS,
+            PARAM_JULIA_BAILOUT, PARAM_JULIA_PERIODICITY, PARAM_JULIA_COLOR
     };
 
     // Parameter default values
@@ -89,6 +98,15 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
     private int rotate_pattern = 0;
     private int num_sectors = 8; // Default sectors for radial mode
     private int julia_iterations = 4; // Default iterations for Julia mode
+    private double julia_bailout = 0.0; // Escape radius for Julia mode, 0 = off
+    private int julia_periodicity = 1; // Cycle detection for Julia mode
+    private int julia_color = 0; // Smooth iteration count as color for Julia mode
+
+    // Julia cycle detection: two orbit points closer than this are taken as the same point of a cycle
+    private static final double JULIA_PERIOD_EPS_SQ = 1e-24;
+    private static final double LN2 = Math.log(2.0);
+    // Shorter orbits gain nothing from cycle detection
+    private static final int JULIA_PERIODICITY_MIN_ITERS = 16;
 
     // --- Constants for Hex Grid Math ---
     private static final double SQRT3 = sqrt(3.0);
@@ -100,12 +118,49 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
     private static final double HEX_B2 = 0.0;
     private static final double HEX_B3 = 2.0 / 3.0;
 
+    // --- Precomputed in init() ---
+    private transient double cos_g, sin_g;             // Grid rotation
+    private transient double cos_c1, sin_c1, cos_c2, sin_c2; // Cell rotations (cell_rotate, cell_rotate2)
+    // Dn mirror lines at angles k*PI/N, k = N-1..1, as normals (-sin, cos); the x-axis mirror is handled by abs(y)
+    private transient double[] dnMirrors;
+    private transient double julia_bailout_sq;
+    // Julia mode statistics since the last init(): points and iterations actually run
+    private transient LongAdder juliaPoints, juliaIterationsUsed;
+
     // --- Helper Functions ---
     private double sgn(double arg) { if (arg > 0.0) return 1.0; if (arg < 0.0) return -1.0; return 0.0; }
     private double smoothstep(double edge0, double edge1, double x) { if (edge1 <= edge0) { return (x < edge0) ? 0.0 : 1.0; } double t = max(0.0, min((x - edge0) / (edge1 - edge0), 1.0)); return t * t * (3.0 - 2.0 * t); }
     private boolean isEvenLong(long val) { return (val % 2 == 0); }
     // Assuming MathLib.round(double) exists via static import.
 
+    @Override
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        double grid_angle_rad = this.grid_rotate * M_PI / 180.0;
+        cos_g = cos(grid_angle_rad); sin_g = sin(grid_angle_rad);
+        double cell_angle_rad = this.cell_rotate * M_PI / 180.0;
+        cos_c1 = cos(cell_angle_rad); sin_c1 = sin(cell_angle_rad);
+        double cell_angle_rad2 = this.cell_rotate2 * M_PI / 180.0;
+        cos_c2 = cos(cell_angle_rad2); sin_c2 = sin(cell_angle_rad2);
+
+        int N = Math.max(1, this.fold_n);
+        dnMirrors = new double[2 * (N - 1)];
+        for (int k = N - 1, o = 0; k >= 1; k--, o += 2) {
+            double mirror_angle = k * M_PI / N;
+            dnMirrors[o] = -sin(mirror_angle);
+            dnMirrors[o + 1] = cos(mirror_angle);
+        }
+
+        julia_bailout_sq = julia_bailout * julia_bailout;
+        juliaPoints = new LongAdder();
+        juliaIterationsUsed = new LongAdder();
+    }
+
+    /** Average number of Julia iterations actually run per point (mode 9) since the last init(), to measure the early exits. */
+    public double getAverageJuliaIterations() {
+        long n = (juliaPoints != null) ? juliaPoints.sum() : 0;
+        return (n > 0) ? (double) juliaIterationsUsed.sum() / n : 0.0;
+    }
+
     @Override
     public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
         double x = pAffineTP.x;
@@ -119,8 +174,6 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
 
         // --- Apply Grid Rotation ---
         if (this.grid_rotate != 0.0) {
-            double grid_angle_rad = this.grid_rotate * M_PI / 180.0;
-            double cos_g = cos(grid_angle_rad); double sin_g = sin(grid_angle_rad);
             double x0 = x; double y0 = y;
             x = x0 * cos_g - y0 * sin_g; y = x0 * sin_g + y0 * cos_g;
         }
@@ -184,36 +237,16 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
                 sym_fy = max(ax4, ay4);
                 break;
             case 5: // N-Fold Dihedral Symmetry (Dn)
-                int N = Math.max(1, this.fold_n); // Use fold_n param, ensure N >= 1
-                if (N > 1) {
-                    // Use base_fx, base_fy directly for folding around the origin
-                    if (fabs(base_fx) > 1e-9 || fabs(base_fy) > 1e-9) { // Avoid atan2(0,0)
-                        double r = sqrt(base_fx * base_fx + base_fy * base_fy);
-                        double a = atan2(base_fy, base_fx);
-                        if (a < 0) a += M_2PI; // Angle -> [0, 2*PI)
-
-                        double wedge_angle = M_PI / (double)N; // Fundamental wedge angle for Dn is PI/N
-
-                        // Map angle to [0, 2 * wedge_angle)
-                        double two_wedge = 2.0 * wedge_angle;
-                        // Use manual fmod for potentially better portability/precision?
-                        // double a_mod = a % two_wedge;
-                        double a_mod = a - floor(a / two_wedge) * two_wedge;
-
-
-                        // Fold into the fundamental wedge [0, wedge_angle)
-                        double a_folded = (a_mod > wedge_angle) ? (two_wedge - a_mod) : a_mod;
-
-                        // Convert back - this becomes the new sym_fx, sym_fy
-                        sym_fx = r * cos(a_folded);
-                        sym_fy = r * sin(a_folded);
-                    } else {
-                        // Point at origin remains at origin
-                        sym_fx = 0.0;
-                        sym_fy = 0.0;
+                // Kaleidoscopic fold into the fundamental wedge [0, PI/N]: reflect across the x-axis, then across each
+                // mirror line k*PI/N (k = N-1..1) the point lies beyond; every reflection moves it down one wedge
+                final double[] mirrors = dnMirrors;
+                if (mirrors.length > 0) { // If N=1, sym_fx/fy remain base_fx/fy (no change necessary)
+                    sym_fy = fabs(base_fy);
+                    for (int o = 0; o < mirrors.length; o += 2) {
+                        double d = sym_fx * mirrors[o] + sym_fy * mirrors[o + 1];
+                        if (d > 0.0) { sym_fx -= 2.0 * d * mirrors[o]; sym_fy -= 2.0 * d * mirrors[o + 1]; }
                     }
                 }
-                // If N=1, sym_fx/fy remain base_fx/fy (no change necessary)
                 break;
         } // End Symmetry Switch
 
@@ -251,10 +284,43 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
                 double zx = sym_fx; double zy = sym_fy;
                 double cx = this.distortX; double cy = this.distortY;
                 int iters = Math.max(1, this.julia_iterations); // Use standard Math.max
+                boolean bailout = julia_bailout_sq > 0.0;
+                boolean periodicity = this.julia_periodicity != 0 && iters >= JULIA_PERIODICITY_MIN_ITERS;
+                int used = iters;
+                double smooth_iter = iters;
+                // Brent cycle detection: compare against a saved orbit point that is refreshed at power-of-two distances
+                double saved_x = zx, saved_y = zy;
+                int lam = 0, power = 1;
                 for (int i = 0; i < iters; i++) {
                     double zx_new = zx * zx - zy * zy + cx; double zy_new = 2.0 * zx * zy + cy;
                     zx = zx_new; zy = zy_new;
+                    double mag_sq = zx * zx + zy * zy;
+                    if (bailout && mag_sq > julia_bailout_sq) {
+                        used = i + 1;
+                        // Smooth (continuous) iteration count of the escape, defined for |z| > 1
+                        double log_mag = 0.5 * log(mag_sq);
+                        smooth_iter = (log_mag > 0.0) ? max(0.0, min(iters, used + 1.0 - log(log_mag) / LN2)) : used;
+                        break;
+                    }
+                    if (periodicity) {
+                        double ddx = zx - saved_x, ddy = zy - saved_y;
+                        lam++;
+                        if (ddx * ddx + ddy * ddy < JULIA_PERIOD_EPS_SQ) {
+                            // Settled into a cycle of length lam: the remaining iterations only move around it
+                            int skip = (iters - (i + 1)) % lam;
+                            for (int j = 0; j < skip; j++) {
+                                zx_new = zx * zx - zy * zy + cx; zy_new = 2.0 * zx * zy + cy;
+                                zx = zx_new; zy = zy_new;
+                            }
+                            used = i + 1 + skip;
+                            break;
+                        }
+                        if (lam == power) { saved_x = zx; saved_y = zy; power <<= 1; lam = 0; }
+                    }
                 }
+                juliaPoints.increment();
+                juliaIterationsUsed.add(used);
+                if (this.julia_color != 0) { pVarTP.color = smooth_iter / iters; }
                 dx = zx; dy = zy;
                 break;
         }
@@ -271,18 +337,18 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
         }
 
         // --- Apply Cell Rotation ---
-        double current_cell_rotate = this.cell_rotate;
+        boolean use_rotate2 = false;
         if (this.rotate_pattern > 0) {
             boolean ix_is_even = isEvenLong(ix_for_pattern); boolean iy_is_even = isEvenLong(iy_for_pattern);
             switch (this.rotate_pattern) {
-                case 1: if (ix_is_even ^ iy_is_even) { current_cell_rotate = this.cell_rotate2; } break;
-                case 2: if (!iy_is_even) { current_cell_rotate = this.cell_rotate2; } break;
-                case 3: if (!ix_is_even) { current_cell_rotate = this.cell_rotate2; } break;
+                case 1: use_rotate2 = ix_is_even ^ iy_is_even; break;
+                case 2: use_rotate2 = !iy_is_even; break;
+                case 3: use_rotate2 = !ix_is_even; break;
             }
         }
+        double current_cell_rotate = use_rotate2 ? this.cell_rotate2 : this.cell_rotate;
         if (current_cell_rotate != 0.0) {
-            double cell_angle_rad = current_cell_rotate * M_PI / 180.0;
-            double cos_c = cos(cell_angle_rad); double sin_c = sin(cell_angle_rad);
+            double cos_c = use_rotate2 ? cos_c2 : cos_c1; double sin_c = use_rotate2 ? sin_c2 : sin_c1;
             final_dx = blended_dx * cos_c - blended_dy * sin_c; final_dy = blended_dx * sin_c + blended_dy * cos_c;
         } else {
             final_dx = blended_dx; final_dy = blended_dy;
@@ -305,7 +371,8 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
         return new Object[]{
                 mode, scale, distortX, distortY, symmetry, fold_n, // Added fold_n
                 edge_blend, grid_rotate, cell_rotate, cell_rotate2,
-                rotate_pattern, num_sectors, julia_iterations
+                rotate_pattern, num_sectors, julia_iterations,
+                julia_bailout, julia_periodicity, julia_color
         };
     }
 
@@ -324,6 +391,9 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
         else if (PARAM_ROTATE_PATTERN.equalsIgnoreCase(pName)) { rotate_pattern = (int) pValue; }
         else if (PARAM_NUM_SECTORS.equalsIgnoreCase(pName)) { num_sectors = (int) Math.max(1.0, pValue); }
         else if (PARAM_JULIA_ITERATIONS.equalsIgnoreCase(pName)) { julia_iterations = (int) Math.max(1.0, pValue); }
+        else if (PARAM_JULIA_BAILOUT.equalsIgnoreCase(pName)) { julia_bailout = Math.max(0.0, pValue); }
+        else if (PARAM_JULIA_PERIODICITY.equalsIgnoreCase(pName)) { julia_periodicity = (int) pValue; }
+        else if (PARAM_JULIA_COLOR.equalsIgnoreCase(pName)) { julia_color = (int) pValue; }
         else { throw new IllegalArgumentException("Parameter `" + pName + "` is not valid for `" + getName() + "`"); }
     }
 
@@ -332,7 +402,8 @@ public class TessellatedTFunc extends VariationFunc implements SupportsGPU {
         return new String[]{
                 "tess_mode", "tess_scale", "tess_distortX", "tess_distortY", "tess_symmetry", "tess_fold_n", // Added fold_n
                 "tess_edge_blend", "tess_grid_rotate", "tess_cell_rotate", "tess_cell_rotate2",
-                "tess_rotate_pattern", "tess_num_sectors", "tess_julia_iters"
+                "tess_rotate_pattern", "tess_num_sectors", "tess_julia_iters",
+                "tess_julia_bailout", "tess_julia_periodicity", "tess_julia_color"
         };
     }
 
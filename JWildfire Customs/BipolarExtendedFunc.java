@@ -1,5 +1,6 @@
 package org.jwildfire.create.tina.variation;
 
+import org.jwildfire.create.tina.base.Layer;
 import org.jwildfire.create.tina.base.XForm;
 import org.jwildfire.create.tina.base.XYZPoint;
 
@@ -30,6 +31,7 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
     private static final String PARAM_WARP_Y_FREQ = "warp_y_freq";
     private static final String PARAM_WARP_Y_PHASE = "warp_y_phase";
     private static final String PARAM_BIPOLAR_CONST = "bipolar_const";
+    private static final String PARAM_FLOAT_PREVIEW = "float_preview";
 
     private static final String[] paramNames = {
             PARAM_SHIFT, PARAM_SCALE_X, PARAM_SCALE_Y,
@@ -38,7 +40,8 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
             PARAM_INVERT_X, PARAM_INVERT_Y, PARAM_BLEND_ORIGINAL,
             PARAM_WARP_X_AMP, PARAM_WARP_X_FREQ, PARAM_WARP_X_PHASE, // New
             PARAM_WARP_Y_AMP, PARAM_WARP_Y_FREQ, PARAM_WARP_Y_PHASE, // New
-            PARAM_BIPOLAR_CONST // New
+            PARAM_BIPOLAR_CONST, // New
+            PARAM_FLOAT_PREVIEW
     };
 
     // Existing fields
@@ -63,10 +66,52 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
     private double warp_y_freq = 1.0;
     private double warp_y_phase = 0.0;
     private double bipolar_const = 1.0;
+    // 1: evaluate the float32 kernel that mirrors getGPUCode() instead of the double path
+    private double float_preview = 0.0;
+
+    // float32 copies of the parameters as the GPU code sees them, plus the hoisted angle terms
+    private float f_shift, f_scale_x, f_scale_y, f_angle, f_log_power, f_term_power;
+    private float f_atan_y_scale, f_atan_x_scale, f_y_multiplier, f_invert_x, f_invert_y, f_blend_original;
+    private float f_warp_x_amp, f_warp_x_freq, f_warp_x_phase, f_warp_y_amp, f_warp_y_freq, f_warp_y_phase;
+    private float f_bipolar_const;
+    private float f_cos_a, f_sin_a;
+
+    private static final float PI_F = (float) M_PI;
+
+    @Override
+    public void init(FlameTransformationContext pContext, Layer pLayer, XForm pXForm, double pAmount) {
+        f_shift = (float) shift;
+        f_scale_x = (float) scale_x;
+        f_scale_y = (float) scale_y;
+        f_angle = (float) angle_deg;
+        f_log_power = (float) log_power;
+        f_term_power = (float) term_power;
+        f_atan_y_scale = (float) atan_y_scale;
+        f_atan_x_scale = (float) atan_x_scale;
+        f_y_multiplier = (float) y_multiplier;
+        f_invert_x = (float) invert_x;
+        f_invert_y = (float) invert_y;
+        f_blend_original = (float) blend_original;
+        f_warp_x_amp = (float) warp_x_amp;
+        f_warp_x_freq = (float) warp_x_freq;
+        f_warp_x_phase = (float) warp_x_phase;
+        f_warp_y_amp = (float) warp_y_amp;
+        f_warp_y_freq = (float) warp_y_freq;
+        f_warp_y_phase = (float) warp_y_phase;
+        f_bipolar_const = (float) bipolar_const;
+        // angle_rad_gpu, cos_a_gpu and sin_a_gpu only depend on parameters
+        float angle_rad = f_angle * PI_F / 180.0f;
+        f_cos_a = (float) cos(angle_rad);
+        f_sin_a = (float) sin(angle_rad);
+    }
 
 
     @Override
     public void transform(FlameTransformationContext pContext, XForm pXForm, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+        if (float_preview == 1.0) {
+            transformFloat(pContext, pAffineTP, pVarTP, pAmount);
+            return;
+        }
         double currentX = pAffineTP.x;
         double currentY = pAffineTP.y;
 
@@ -179,6 +224,98 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
         }
     }
 
+    /**
+     * float32 counterpart of the code emitted by {@link #getGPUCode}, statement for statement, so the CPU
+     * preview shows what the GPU renders. Keep both in sync when changing either one;
+     * {@link BipolarExtendedFuncGPUParityCheck} checks them.
+     */
+    private void transformFloat(FlameTransformationContext pContext, XYZPoint pAffineTP, XYZPoint pVarTP, double pAmount) {
+        float initialX_gpu = (float) pAffineTP.x;
+        float initialY_gpu = (float) pAffineTP.y;
+        float currentX_gpu = initialX_gpu;
+        float currentY_gpu = initialY_gpu;
+
+        if (f_warp_x_amp != 0.0f) {
+            currentX_gpu += f_warp_x_amp * (float) sin(f_warp_x_freq * initialY_gpu + f_warp_x_phase);
+        }
+        if (f_warp_y_amp != 0.0f) {
+            currentY_gpu += f_warp_y_amp * (float) sin(f_warp_y_freq * initialX_gpu + f_warp_y_phase);
+        }
+
+        float affX_gpu = currentX_gpu;
+        float affY_gpu = currentY_gpu;
+        float x2y2_gpu = affX_gpu * affX_gpu + affY_gpu * affY_gpu;
+
+        float atan_arg_y_gpu = 2.0f * affY_gpu * f_atan_y_scale;
+        float bipolar_const_gpu = f_bipolar_const;
+        float atan_arg_x_term_gpu = x2y2_gpu - bipolar_const_gpu;
+        float atan_arg_x_gpu = atan_arg_x_term_gpu * f_atan_x_scale;
+        if (f_atan_x_scale == 0.0f && x2y2_gpu == bipolar_const_gpu) { atan_arg_x_gpu = 0.0f; }
+
+        float ps_gpu = -0.5f * PI_F * f_shift;
+        float y0_gpu = 0.5f * (float) atan2(atan_arg_y_gpu, atan_arg_x_gpu) + ps_gpu;
+
+        if (y0_gpu > 0.5f * PI_F) y0_gpu = -0.5f * PI_F + (y0_gpu + 0.5f * PI_F) % PI_F;
+        else if (y0_gpu < -0.5f * PI_F) y0_gpu = 0.5f * PI_F - (0.5f * PI_F - y0_gpu) % PI_F;
+        y0_gpu *= f_y_multiplier;
+
+        float t_gpu = x2y2_gpu + bipolar_const_gpu;
+        float x2_term_gpu = 2.0f * affX_gpu;
+        float term_f_gpu = t_gpu + x2_term_gpu;
+        float term_g_gpu = t_gpu - x2_term_gpu;
+        float f_powered_gpu, g_powered_gpu;
+
+        if (f_term_power == 1.0f) {
+            f_powered_gpu = term_f_gpu;
+            g_powered_gpu = term_g_gpu;
+        } else if (f_term_power == 0.0f) {
+            f_powered_gpu = 1.0f;
+            g_powered_gpu = 1.0f;
+        } else {
+            f_powered_gpu = Math.signum(term_f_gpu) * (float) pow(Math.abs(term_f_gpu), f_term_power);
+            g_powered_gpu = Math.signum(term_g_gpu) * (float) pow(Math.abs(term_g_gpu), f_term_power);
+        }
+
+        float x_transformed_gpu = 0.0f;
+        if (g_powered_gpu != 0.0f) {
+            float log_arg_gpu = f_powered_gpu / g_powered_gpu;
+            if (log_arg_gpu > 0.0f) {
+                float log_result_gpu = (float) log(log_arg_gpu);
+                float base_lp = log_result_gpu;
+                float exp_lp = f_log_power;
+                if (exp_lp == 1.0f) { x_transformed_gpu = base_lp; }
+                else if (base_lp == 0.0f && exp_lp == 0.0f) { x_transformed_gpu = 1.0f; }
+                else if (base_lp < 0.0f && exp_lp % 1.0f != 0.0f) { x_transformed_gpu = -(float) pow(Math.abs(base_lp), exp_lp); }
+                else { x_transformed_gpu = (float) pow(base_lp, exp_lp); }
+                x_transformed_gpu *= 0.25f * (2.0f / PI_F);
+            }
+        }
+
+        float transformed_calc_x_gpu = x_transformed_gpu * f_scale_x;
+        float transformed_calc_y_gpu = (2.0f / PI_F) * y0_gpu * f_scale_y;
+
+        if (f_angle != 0.0f) {
+            float rot_x_gpu = transformed_calc_x_gpu * f_cos_a - transformed_calc_y_gpu * f_sin_a;
+            float rot_y_gpu = transformed_calc_x_gpu * f_sin_a + transformed_calc_y_gpu * f_cos_a;
+            transformed_calc_x_gpu = rot_x_gpu;
+            transformed_calc_y_gpu = rot_y_gpu;
+        }
+
+        if (f_invert_x == 1.0f) { transformed_calc_x_gpu *= -1.0f; }
+        if (f_invert_y == 1.0f) { transformed_calc_y_gpu *= -1.0f; }
+
+        float blend_gpu = Math.min(Math.max(f_blend_original, 0.0f), 1.0f);
+        float final_x_gpu = transformed_calc_x_gpu * (1.0f - blend_gpu) + initialX_gpu * blend_gpu;
+        float final_y_gpu = transformed_calc_y_gpu * (1.0f - blend_gpu) + initialY_gpu * blend_gpu;
+
+        pVarTP.x += pAmount * final_x_gpu;
+        pVarTP.y += pAmount * final_y_gpu;
+
+        if (pContext.isPreserveZCoordinate()) {
+            pVarTP.z += pAmount * pAffineTP.z;
+        }
+    }
+
     @Override
     public String[] getParameterNames() {
         return paramNames;
@@ -193,7 +330,7 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
                 invert_x, invert_y, blend_original,
                 warp_x_amp, warp_x_freq, warp_x_phase,
                 warp_y_amp, warp_y_freq, warp_y_phase,
-                bipolar_const
+                bipolar_const, float_preview
         };
     }
 
@@ -218,6 +355,7 @@ public class BipolarExtendedFunc extends VariationFunc implements SupportsGPU {
         else if (PARAM_WARP_Y_FREQ.equalsIgnoreCase(pName)) warp_y_freq = pValue;
         else if (PARAM_WARP_Y_PHASE.equalsIgnoreCase(pName)) warp_y_phase = pValue;
         else if (PARAM_BIPOLAR_CONST.equalsIgnoreCase(pName)) bipolar_const = pValue;
+        else if (PARAM_FLOAT_PREVIEW.equalsIgnoreCase(pName)) float_preview = pValue;
         else throw new IllegalArgumentException("Unknown parameter: " + pName);
     }
 
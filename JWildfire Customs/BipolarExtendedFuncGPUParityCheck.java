@@ -0,0 +1,189 @@
+package org.jwildfire.create.tina.variation;
+
+import org.jwildfire.create.tina.base.XYZPoint;
+import org.jwildfire.create.tina.random.MarsagliaRandomGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Parity check for {@link BipolarExtendedFunc}, run via main():
+ * - the double path and the float32 kernel (float_preview = 1) are evaluated on the same points and must
+ *   agree within TOLERANCE; only a few points next to the log singularity (f/g close to 0) may exceed it;
+ * - getGPUCode() must emit exactly the statements transformFloat() mirrors, listed in MIRRORED_GPU_STATEMENTS.
+ *   Changing the CUDA means updating the float kernel and this list together.
+ * Exits with status 1 on a mismatch.
+ */
+public class BipolarExtendedFuncGPUParityCheck {
+    private static final long SEED = 20211L;
+    private static final int SAMPLES = 200000;
+    private static final double TOLERANCE = 1.0e-3;
+    private static final double MAX_OUTLIER_FRACTION = 1.0e-4;
+
+    private static final Object[][] PARAM_SETS = {
+            {},
+            {"shift", 0.3, "angle", 35.0, "term_power", 1.5, "log_power", 2.5, "warp_x_amp", 0.2, "warp_y_amp", 0.1, "blend_original", 0.2},
+            {"bipolar_const", 0.5, "atan_x_scale", 0.0, "invert_x", 1.0, "y_multiplier", 2.0, "log_power", 0.5},
+            {"term_power", 0.0, "invert_y", 1.0, "scale_x", 2.0, "scale_y", 0.5, "angle", -120.0}
+    };
+
+    // normalized (trimmed, single-spaced) statement lines of getGPUCode() without z preservation
+    private static final String[] MIRRORED_GPU_STATEMENTS = {
+            "float initialX_gpu = __x;",
+            "float initialY_gpu = __y;",
+            "float currentX_gpu = initialX_gpu;",
+            "float currentY_gpu = initialY_gpu;",
+            "if (__bipolar_extreme_warp_x_amp != 0.0f) {",
+            "currentX_gpu += __bipolar_extreme_warp_x_amp * sinf(__bipolar_extreme_warp_x_freq * initialY_gpu + __bipolar_extreme_warp_x_phase);",
+            "if (__bipolar_extreme_warp_y_amp != 0.0f) {",
+            "currentY_gpu += __bipolar_extreme_warp_y_amp * sinf(__bipolar_extreme_warp_y_freq * initialX_gpu + __bipolar_extreme_warp_y_phase);",
+            "float affX_gpu = currentX_gpu;",
+            "float affY_gpu = currentY_gpu;",
+            "float x2y2_gpu = affX_gpu * affX_gpu + affY_gpu * affY_gpu;",
+            "float atan_arg_y_gpu = 2.0f * affY_gpu * __bipolar_extreme_atan_y_scale;",
+            "float bipolar_const_gpu = __bipolar_extreme_bipolar_const;",
+            "float atan_arg_x_term_gpu = x2y2_gpu - bipolar_const_gpu;",
+            "float atan_arg_x_gpu = atan_arg_x_term_gpu * __bipolar_extreme_atan_x_scale;",
+            "if (__bipolar_extreme_atan_x_scale == 0.0f && x2y2_gpu == bipolar_const_gpu) { atan_arg_x_gpu = 0.0f; }",
+            "float ps_gpu = -0.5f * PI * __bipolar_extreme_shift;",
+            "float y0_gpu = 0.5f * atan2(atan_arg_y_gpu, atan_arg_x_gpu) + ps_gpu;",
+            "if (y0_gpu > 0.5f*PI) y0_gpu = -0.5f*PI + fmodf(y0_gpu + 0.5f*PI, PI);",
+            "else if (y0_gpu < -0.5f*PI) y0_gpu = 0.5f*PI - fmodf(0.5f*PI - y0_gpu, PI);",
+            "y0_gpu *= __bipolar_extreme_y_multiplier;",
+            "float t_gpu = x2y2_gpu + bipolar_const_gpu;",
+            "float x2_term_gpu = 2.0f * affX_gpu;",
+            "float term_f_gpu = t_gpu + x2_term_gpu;",
+            "float term_g_gpu = t_gpu - x2_term_gpu;",
+            "float f_powered_gpu, g_powered_gpu;",
+            "if (__bipolar_extreme_term_power == 1.0f) {",
+            "f_powered_gpu = term_f_gpu;",
+            "g_powered_gpu = term_g_gpu;",
+            "} else if (__bipolar_extreme_term_power == 0.0f) {",
+            "f_powered_gpu = 1.0f;",
+            "g_powered_gpu = 1.0f;",
+            "} else {",
+            "f_powered_gpu = sign(term_f_gpu) * pow(fabsf(term_f_gpu), __bipolar_extreme_term_power);",
+            "g_powered_gpu = sign(term_g_gpu) * pow(fabsf(term_g_gpu), __bipolar_extreme_term_power);",
+            "float x_transformed_gpu = 0.0f;",
+            "if (g_powered_gpu != 0.0f) {",
+            "float log_arg_gpu = f_powered_gpu / g_powered_gpu;",
+            "if (log_arg_gpu > 0.0f) {",
+            "float log_result_gpu = logf(log_arg_gpu);",
+            "float base_lp = log_result_gpu;",
+            "float exp_lp = __bipolar_extreme_log_power;",
+            "if (exp_lp == 1.0f) { x_transformed_gpu = base_lp; }",
+            "else if (base_lp == 0.0f && exp_lp == 0.0f) { x_transformed_gpu = 1.0f; }",
+            "else if (base_lp < 0.0f && fmodf(exp_lp, 1.0f) != 0.0f) { x_transformed_gpu = -pow(fabsf(base_lp), exp_lp); }",
+            "else { x_transformed_gpu = pow(base_lp, exp_lp); }",
+            "x_transformed_gpu *= 0.25f * (2.0f / PI);",
+            "float transformed_calc_x_gpu = x_transformed_gpu * __bipolar_extreme_scale_x;",
+            "float transformed_calc_y_gpu = (2.0f / PI) * y0_gpu * __bipolar_extreme_scale_y;",
+            "float angle_rad_gpu = __bipolar_extreme_angle * PI / 180.0f;",
+            "if (__bipolar_extreme_angle != 0.0f) {",
+            "float cos_a_gpu = cosf(angle_rad_gpu);",
+            "float sin_a_gpu = sinf(angle_rad_gpu);",
+            "float rot_x_gpu = transformed_calc_x_gpu * cos_a_gpu - transformed_calc_y_gpu * sin_a_gpu;",
+            "float rot_y_gpu = transformed_calc_x_gpu * sin_a_gpu + transformed_calc_y_gpu * cos_a_gpu;",
+            "transformed_calc_x_gpu = rot_x_gpu;",
+            "transformed_calc_y_gpu = rot_y_gpu;",
+            "if (__bipolar_extreme_invert_x == 1.0f) { transformed_calc_x_gpu *= -1.0f; }",
+            "if (__bipolar_extreme_invert_y == 1.0f) { transformed_calc_y_gpu *= -1.0f; }",
+            "float blend_gpu = clamp(__bipolar_extreme_blend_original, 0.0f, 1.0f);",
+            "float final_x_gpu = transformed_calc_x_gpu * (1.0f - blend_gpu) + initialX_gpu * blend_gpu;",
+            "float final_y_gpu = transformed_calc_y_gpu * (1.0f - blend_gpu) + initialY_gpu * blend_gpu;",
+            "__px += __bipolar_extreme * final_x_gpu;",
+            "__py += __bipolar_extreme * final_y_gpu;"
+    };
+
+    public static void main(String[] args) {
+        FlameTransformationContext context = new FlameTransformationContext(null, new MarsagliaRandomGenerator(), 0);
+        context.setPreserveZCoordinate(false);
+        boolean ok = checkEmittedSource(new BipolarExtendedFunc().getGPUCode(context));
+        ok &= checkPaths();
+        System.out.println(ok ? "BipolarExtended GPU parity: OK" : "BipolarExtended GPU parity: FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkPaths() {
+        boolean ok = true;
+        for (Object[] params : PARAM_SETS) {
+            BipolarExtendedFunc doublePath = new BipolarExtendedFunc();
+            BipolarExtendedFunc floatPath = new BipolarExtendedFunc();
+            for (int i = 0; i < params.length; i += 2) {
+                doublePath.setParameter((String) params[i], (Double) params[i + 1]);
+                floatPath.setParameter((String) params[i], (Double) params[i + 1]);
+            }
+            floatPath.setParameter("float_preview", 1.0);
+            MarsagliaRandomGenerator doubleRandom = new MarsagliaRandomGenerator();
+            MarsagliaRandomGenerator floatRandom = new MarsagliaRandomGenerator();
+            FlameTransformationContext doubleContext = new FlameTransformationContext(null, doubleRandom, 0);
+            FlameTransformationContext floatContext = new FlameTransformationContext(null, floatRandom, 0);
+            doubleContext.setPreserveZCoordinate(false);
+            floatContext.setPreserveZCoordinate(false);
+            doublePath.init(doubleContext, null, null, 1.0);
+            floatPath.init(floatContext, null, null, 1.0);
+
+            Random points = new Random(SEED);
+            double maxDiff = 0.0;
+            int outliers = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                XYZPoint affine = new XYZPoint();
+                affine.x = (points.nextDouble() - 0.5) * 6.0;
+                affine.y = (points.nextDouble() - 0.5) * 6.0;
+                affine.z = points.nextDouble() - 0.5;
+                // reseed per point so a branch taken differently by the float path cannot shift later random numbers
+                doubleRandom.randomize(SEED + i);
+                floatRandom.randomize(SEED + i);
+                XYZPoint d = new XYZPoint();
+                XYZPoint f = new XYZPoint();
+                doublePath.transform(doubleContext, null, affine, d, 1.0);
+                floatPath.transform(floatContext, null, affine, f, 1.0);
+                double diff = relativeDifference(d, f);
+                if (diff > TOLERANCE || Double.isNaN(diff) != (Double.isNaN(d.x) || Double.isNaN(d.y))) {
+                    outliers++;
+                } else if (!Double.isNaN(diff)) {
+                    maxDiff = Math.max(maxDiff, diff);
+                }
+            }
+            boolean passed = outliers <= MAX_OUTLIER_FRACTION * SAMPLES;
+            System.out.printf("%s %s: max. relative difference %.3g, %d of %d above %.0e%n", passed ? "ok  " : "FAIL",
+                    Arrays.toString(params), maxDiff, outliers, SAMPLES, TOLERANCE);
+            ok &= passed;
+        }
+        return ok;
+    }
+
+    private static boolean checkEmittedSource(String pEmitted) {
+        List<String> actual = new ArrayList<>();
+        for (String line : pEmitted.split("\n")) {
+            String statement = line.replace('\u00A0', ' ').trim().replaceAll("\\s+", " ");
+            if (statement.isEmpty() || statement.equals("{") || statement.equals("}")) continue;
+            actual.add(statement);
+        }
+        int n = Math.max(actual.size(), MIRRORED_GPU_STATEMENTS.length);
+        for (int i = 0; i < n; i++) {
+            String expected = i < MIRRORED_GPU_STATEMENTS.length ? MIRRORED_GPU_STATEMENTS[i] : "<none>";
+            String found = i < actual.size() ? actual.get(i) : "<none>";
+            if (!expected.equals(found)) {
+                System.out.println("GPU source drifted from the float kernel at statement " + (i + 1) + ":");
+                System.out.println("  float kernel mirrors: " + expected);
+                System.out.println("  getGPUCode emits:     " + found);
+                return false;
+            }
+        }
+        System.out.println("GPU source: " + actual.size() + " statements match the float kernel");
+        return true;
+    }
+
+    private static double relativeDifference(XYZPoint pDouble, XYZPoint pFloat) {
+        double scale = Math.max(1.0, Math.max(Math.abs(pDouble.x), Math.max(Math.abs(pDouble.y), Math.abs(pDouble.z))));
+        double d = Math.max(Math.abs(pDouble.x - pFloat.x), Math.max(Math.abs(pDouble.y - pFloat.y), Math.abs(pDouble.z - pFloat.z))) / scale;
+        // color is a palette index in [0, 1) that wraps around
+        double dc = Math.abs(pDouble.color - pFloat.color);
+        return Math.max(d, Math.min(dc, 1.0 - dc));
+    }
+}